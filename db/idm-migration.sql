@@ -0,0 +1,174 @@
+-- versioned password hashes
+-- existing rows keep the original format (version 1, 10000 iterations, 4 byte salt)
+-- and are rehashed with the current parameters on their next successful login
+ALTER TABLE idm.user
+    MODIFY salt VARCHAR(24) NOT NULL,
+    ADD COLUMN hash_version INT NOT NULL DEFAULT 1 AFTER hashed_password,
+    ADD COLUMN hash_iterations INT NOT NULL DEFAULT 10000 AFTER hash_version;
+
+-- RefreshTokenReaper deletes by expire_time in chunks
+CREATE INDEX refresh_token_expire_time ON idm.refresh_token (expire_time);
+
+-- refresh tokens are stored as their SHA-256 digest. online, in this order:
+--   1. this ALTER (in place, no lock)
+--   2. deploy with idm.refresh-token-storage.plain-tokens: true, both columns are
+--      written and tokens without a digest are still found by token. true is only
+--      needed from here until step 4, the default is false
+--   3. CALL idm.backfill_refresh_token_hash(1000);
+--   4. switch back to plain-tokens: false, only the digest is written and matched
+--   5. CALL idm.clear_plain_refresh_tokens(1000);
+--      then ALTER TABLE idm.refresh_token DROP COLUMN token, ALGORITHM = INPLACE, LOCK = NONE;
+--      (rebuilds the table) and ALTER TABLE idm.refresh_token MODIFY token_hash BINARY(32) NOT NULL;
+-- the digest is for what a leaked table or backup holds, not for space: the 32 byte
+-- key is barely smaller than the ~37 bytes of an ASCII VARCHAR(36) UUID, and from
+-- step 1 to step 5 the table carries both columns and both unique indexes
+ALTER TABLE idm.refresh_token
+    MODIFY token VARCHAR(36) NULL,
+    ADD COLUMN token_hash BINARY(32) NULL AFTER token,
+    ADD UNIQUE INDEX refresh_token_token_hash (token_hash),
+    ALGORITHM = INPLACE, LOCK = NONE;
+
+DROP PROCEDURE IF EXISTS idm.backfill_refresh_token_hash;
+DROP PROCEDURE IF EXISTS idm.clear_plain_refresh_tokens;
+
+DELIMITER //
+
+-- chunks commit one by one so live /refresh calls never wait long on a row
+CREATE PROCEDURE idm.backfill_refresh_token_hash(IN p_chunk_size INT)
+BEGIN
+    REPEAT
+        UPDATE idm.refresh_token
+        SET token_hash = UNHEX(SHA2(token, 256))
+        WHERE token_hash IS NULL AND token IS NOT NULL
+        LIMIT p_chunk_size;
+    UNTIL ROW_COUNT() = 0 END REPEAT;
+END //
+
+CREATE PROCEDURE idm.clear_plain_refresh_tokens(IN p_chunk_size INT)
+BEGIN
+    REPEAT
+        UPDATE idm.refresh_token
+        SET token = NULL
+        WHERE token IS NOT NULL AND token_hash IS NOT NULL
+        LIMIT p_chunk_size;
+    UNTIL ROW_COUNT() = 0 END REPEAT;
+END //
+
+DELIMITER ;
+
+-- one round trip for /refresh: expires, extends or rotates a refresh token and
+-- returns the outcome together with the owning user and their roles as a bit mask
+-- (bit role_id set per role). with p_load_user false only the user's id is returned,
+-- the service has the rest cached (UserCache).
+-- times are passed in by the service so the checks use its clock, not the server's.
+-- extending only reports the stored expire_time, the service writes new expiries
+-- behind in batches (RefreshExpiryBuffer) and passes the one it has not flushed yet
+-- as p_pending_expire_time. only expiring and rotating lock the row.
+-- the replacement (p_new_*) is only passed when the service expects a rotation. a
+-- token that has to rotate without one is left as it is with outcome 6, and the
+-- service calls again with a replacement.
+-- tokens are found by their SHA-256 digest. p_token / p_new_token are only passed
+-- while plain tokens are still stored (steps 2 and 3 of the digest migration in
+-- db/idm-migration.sql), rows from before token_hash existed are then found by token
+-- and get their digest filled in. otherwise the token column is never touched, new
+-- installs do not have it
+DROP PROCEDURE IF EXISTS idm.refresh_access;
+
+DELIMITER //
+
+CREATE PROCEDURE idm.refresh_access(IN p_token VARCHAR(36),
+                                    IN p_token_hash BINARY(32),
+                                    IN p_now TIMESTAMP,
+                                    IN p_expire_time TIMESTAMP,
+                                    IN p_pending_expire_time TIMESTAMP,
+                                    IN p_new_token VARCHAR(36),
+                                    IN p_new_token_hash BINARY(32),
+                                    IN p_new_expire_time TIMESTAMP,
+                                    IN p_new_max_life_time TIMESTAMP,
+                                    IN p_load_user BOOLEAN)
+BEGIN
+    DECLARE v_id INT DEFAULT NULL;
+    DECLARE v_user_id INT DEFAULT NULL;
+    DECLARE v_status INT;
+    DECLARE v_stored_expire_time TIMESTAMP;
+    DECLARE v_expire_time TIMESTAMP;
+    DECLARE v_max_life_time TIMESTAMP;
+    DECLARE v_outcome INT;
+
+    DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_id = NULL;
+    DECLARE EXIT HANDLER FOR SQLEXCEPTION
+    BEGIN
+        ROLLBACK;
+        RESIGNAL;
+    END;
+
+    SELECT id, user_id, token_status_id, expire_time, max_life_time
+    INTO v_id, v_user_id, v_status, v_stored_expire_time, v_max_life_time
+    FROM idm.refresh_token
+    WHERE token_hash = p_token_hash;
+
+    IF v_id IS NULL AND p_token IS NOT NULL THEN
+        SELECT id, user_id, token_status_id, expire_time, max_life_time
+        INTO v_id, v_user_id, v_status, v_stored_expire_time, v_max_life_time
+        FROM idm.refresh_token
+        WHERE token = p_token;
+
+        IF v_id IS NOT NULL THEN
+            UPDATE idm.refresh_token SET token_hash = p_token_hash WHERE id = v_id AND token_hash IS NULL;
+        END IF;
+    END IF;
+
+    SET v_expire_time = GREATEST(v_stored_expire_time, COALESCE(p_pending_expire_time, v_stored_expire_time));
+
+    IF v_id IS NULL THEN
+        SET v_outcome = 1;
+    ELSEIF v_status = 2 THEN
+        SET v_outcome = 2;
+    ELSEIF v_status = 3 THEN
+        SET v_outcome = 3;
+    ELSEIF p_now > v_expire_time OR p_now > v_max_life_time OR p_expire_time > v_max_life_time THEN
+        START TRANSACTION;
+
+        -- concurrent refreshes of the same token queue up here and see the first one's change
+        SELECT token_status_id, expire_time
+        INTO v_status, v_stored_expire_time
+        FROM idm.refresh_token
+        WHERE id = v_id
+        FOR UPDATE;
+
+        SET v_expire_time = GREATEST(v_stored_expire_time, COALESCE(p_pending_expire_time, v_stored_expire_time));
+
+        IF v_status = 2 THEN
+            SET v_outcome = 2;
+        ELSEIF v_status = 3 THEN
+            SET v_outcome = 3;
+        ELSEIF p_now > v_expire_time OR p_now > v_max_life_time THEN
+            UPDATE idm.refresh_token SET token_status_id = 2 WHERE id = v_id;
+            SET v_outcome = 2;
+        ELSEIF p_new_token_hash IS NULL THEN
+            SET v_outcome = 6;
+        ELSE
+            UPDATE idm.refresh_token SET expire_time = p_expire_time, token_status_id = 3 WHERE id = v_id;
+            IF p_new_token IS NULL THEN
+                INSERT INTO idm.refresh_token (token_hash, user_id, token_status_id, expire_time, max_life_time)
+                VALUES (p_new_token_hash, v_user_id, 1, p_new_expire_time, p_new_max_life_time);
+            ELSE
+                INSERT INTO idm.refresh_token (token, token_hash, user_id, token_status_id, expire_time, max_life_time)
+                VALUES (p_new_token, p_new_token_hash, v_user_id, 1, p_new_expire_time, p_new_max_life_time);
+            END IF;
+            SET v_outcome = 5;
+        END IF;
+
+        COMMIT;
+    ELSE
+        SET v_outcome = 4;
+    END IF;
+
+    SELECT v_outcome AS outcome, v_stored_expire_time AS stored_expire_time,
+           v_user_id AS id, u.email, u.user_status_id, u.salt, u.hashed_password, u.hash_version, u.hash_iterations,
+           (SELECT CAST(BIT_OR(1 << ur.role_id) AS SIGNED) FROM idm.user_role ur WHERE ur.user_id = u.id) AS role_mask
+    FROM (SELECT 1) AS result
+    LEFT JOIN idm.user u ON p_load_user AND u.id = v_user_id;
+END //
+
+DELIMITER ;
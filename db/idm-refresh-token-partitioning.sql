@@ -0,0 +1,104 @@
+-- optional layout for idm.refresh_token, range partitioned by day of max_life_time.
+-- with idm.refresh-token-reaper.partitioned: true the reaper drops whole days
+-- instead of deleting rows. a dropped day only holds tokens past their max life,
+-- so expired and revoked rows stay until then instead of until expire_time + grace.
+--
+-- InnoDB has no foreign keys on partitioned tables and every unique key has to
+-- contain max_life_time, so compared to idm-schema.sql:
+--   * user_id and token_status_id are not foreign keys anymore, deleting a user
+--     leaves their refresh tokens behind until their partition is dropped
+--   * the primary key is (id, max_life_time) and token_hash is unique together
+--     with max_life_time only. tokens are random UUIDs, so this is not a practical change
+--
+-- run in a maintenance window, tokens issued while it runs are not copied over.
+-- plain tokens are not carried over: run it on a new install or after step 5 of
+-- the digest migration in idm-migration.sql
+
+DROP PROCEDURE IF EXISTS idm.rotate_refresh_token_partitions;
+
+DELIMITER //
+
+-- drops the days whose upper bound is not after p_cutoff and adds days up to
+-- p_until, returns the estimated number of rows dropped
+CREATE PROCEDURE idm.rotate_refresh_token_partitions(IN p_cutoff TIMESTAMP,
+                                                     IN p_until TIMESTAMP)
+BEGIN
+    DECLARE v_names TEXT;
+    DECLARE v_dropped BIGINT;
+    DECLARE v_last BIGINT;
+    DECLARE v_day DATE;
+
+    SELECT GROUP_CONCAT(PARTITION_NAME), COALESCE(SUM(TABLE_ROWS), 0)
+    INTO v_names, v_dropped
+    FROM information_schema.PARTITIONS
+    WHERE TABLE_SCHEMA = 'idm'
+      AND TABLE_NAME = 'refresh_token'
+      AND PARTITION_DESCRIPTION <> 'MAXVALUE'
+      AND CAST(PARTITION_DESCRIPTION AS UNSIGNED) <= UNIX_TIMESTAMP(p_cutoff);
+
+    IF v_names IS NOT NULL THEN
+        SET @idm_partition_sql = CONCAT('ALTER TABLE idm.refresh_token DROP PARTITION ', v_names);
+        PREPARE statement FROM @idm_partition_sql;
+        EXECUTE statement;
+        DEALLOCATE PREPARE statement;
+    END IF;
+
+    SELECT MAX(CAST(PARTITION_DESCRIPTION AS UNSIGNED))
+    INTO v_last
+    FROM information_schema.PARTITIONS
+    WHERE TABLE_SCHEMA = 'idm'
+      AND TABLE_NAME = 'refresh_token'
+      AND PARTITION_DESCRIPTION <> 'MAXVALUE';
+
+    -- v_day is the first day without its own partition
+    SET v_day = IF(v_last IS NULL, DATE(p_cutoff), DATE(FROM_UNIXTIME(v_last)));
+
+    WHILE v_day <= DATE(p_until) DO
+        SET @idm_partition_sql = CONCAT(
+                'ALTER TABLE idm.refresh_token REORGANIZE PARTITION pmax INTO (',
+                'PARTITION p', DATE_FORMAT(v_day, '%Y%m%d'),
+                ' VALUES LESS THAN (', UNIX_TIMESTAMP(v_day + INTERVAL 1 DAY), '), ',
+                'PARTITION pmax VALUES LESS THAN MAXVALUE)');
+        PREPARE statement FROM @idm_partition_sql;
+        EXECUTE statement;
+        DEALLOCATE PREPARE statement;
+
+        SET v_day = v_day + INTERVAL 1 DAY;
+    END WHILE;
+
+    SELECT v_dropped AS dropped;
+END //
+
+DELIMITER ;
+
+CREATE TABLE idm.refresh_token_partitioned
+(
+    id INT NOT NULL AUTO_INCREMENT,
+    token_hash BINARY(32) NOT NULL,
+    user_id INT NOT NULL,
+    token_status_id INT NOT NULL,
+    expire_time TIMESTAMP NOT NULL,
+    max_life_time TIMESTAMP NOT NULL,
+    PRIMARY KEY (id, max_life_time),
+    UNIQUE KEY (token_hash, max_life_time),
+    INDEX (expire_time),
+    INDEX (user_id)
+)
+PARTITION BY RANGE (UNIX_TIMESTAMP(max_life_time))
+(
+    PARTITION pmax VALUES LESS THAN MAXVALUE
+);
+
+RENAME TABLE idm.refresh_token TO idm.refresh_token_unpartitioned,
+             idm.refresh_token_partitioned TO idm.refresh_token;
+
+-- create the days while the table is still empty, reorganizing pmax later would copy every row
+CALL idm.rotate_refresh_token_partitions(
+        (SELECT COALESCE(MIN(max_life_time), NOW()) FROM idm.refresh_token_unpartitioned),
+        NOW() + INTERVAL 32 DAY);
+
+INSERT INTO idm.refresh_token (id, token_hash, user_id, token_status_id, expire_time, max_life_time)
+SELECT id, token_hash, user_id, token_status_id, expire_time, max_life_time
+FROM idm.refresh_token_unpartitioned;
+
+-- once verified: DROP TABLE idm.refresh_token_unpartitioned;
@@ -25,8 +25,10 @@ CREATE TABLE IF NOT EXISTS idm.user
     id INT NOT NULL PRIMARY KEY AUTO_INCREMENT,
     email VARCHAR(32) NOT NULL UNIQUE,
     user_status_id INT NOT NULL,
-    salt CHAR(8) NOT NULL,
+    salt VARCHAR(24) NOT NULL,
     hashed_password CHAR(88) NOT NULL,
+    hash_version INT NOT NULL DEFAULT 1,
+    hash_iterations INT NOT NULL DEFAULT 10000,
     FOREIGN KEY (user_status_id) REFERENCES idm.user_status (id)
     ON UPDATE CASCADE ON DELETE RESTRICT
 );
@@ -34,11 +36,12 @@ CREATE TABLE IF NOT EXISTS idm.user
 CREATE TABLE IF NOT EXISTS idm.refresh_token
 (
     id INT NOT NULL PRIMARY KEY AUTO_INCREMENT,
-    token VARCHAR(36) NOT NULL UNIQUE,
+    token_hash BINARY(32) NOT NULL UNIQUE,
     user_id INT NOT NULL,
     token_status_id INT NOT NULL,
     expire_time TIMESTAMP NOT NULL,
     max_life_time TIMESTAMP NOT NULL,
+    INDEX (expire_time),
     FOREIGN KEY (user_id) REFERENCES idm.user(id)
     ON UPDATE CASCADE ON DELETE CASCADE,
     FOREIGN KEY (token_status_id) REFERENCES idm.token_status(id)
@@ -54,4 +57,121 @@ CREATE TABLE IF NOT EXISTS idm.user_role
     ON UPDATE CASCADE ON DELETE CASCADE,
     FOREIGN KEY (role_id) REFERENCES idm.role(id)
     ON UPDATE CASCADE ON DELETE RESTRICT
-);
\ No newline at end of file
+);
+
+-- one round trip for /refresh: expires, extends or rotates a refresh token and
+-- returns the outcome together with the owning user and their roles as a bit mask
+-- (bit role_id set per role). with p_load_user false only the user's id is returned,
+-- the service has the rest cached (UserCache).
+-- times are passed in by the service so the checks use its clock, not the server's.
+-- extending only reports the stored expire_time, the service writes new expiries
+-- behind in batches (RefreshExpiryBuffer) and passes the one it has not flushed yet
+-- as p_pending_expire_time. only expiring and rotating lock the row.
+-- the replacement (p_new_*) is only passed when the service expects a rotation. a
+-- token that has to rotate without one is left as it is with outcome 6, and the
+-- service calls again with a replacement.
+-- tokens are found by their SHA-256 digest. p_token / p_new_token are only passed
+-- while plain tokens are still stored (steps 2 and 3 of the digest migration in
+-- db/idm-migration.sql), rows from before token_hash existed are then found by token
+-- and get their digest filled in. otherwise the token column is never touched, new
+-- installs do not have it
+DROP PROCEDURE IF EXISTS idm.refresh_access;
+
+DELIMITER //
+
+CREATE PROCEDURE idm.refresh_access(IN p_token VARCHAR(36),
+                                    IN p_token_hash BINARY(32),
+                                    IN p_now TIMESTAMP,
+                                    IN p_expire_time TIMESTAMP,
+                                    IN p_pending_expire_time TIMESTAMP,
+                                    IN p_new_token VARCHAR(36),
+                                    IN p_new_token_hash BINARY(32),
+                                    IN p_new_expire_time TIMESTAMP,
+                                    IN p_new_max_life_time TIMESTAMP,
+                                    IN p_load_user BOOLEAN)
+BEGIN
+    DECLARE v_id INT DEFAULT NULL;
+    DECLARE v_user_id INT DEFAULT NULL;
+    DECLARE v_status INT;
+    DECLARE v_stored_expire_time TIMESTAMP;
+    DECLARE v_expire_time TIMESTAMP;
+    DECLARE v_max_life_time TIMESTAMP;
+    DECLARE v_outcome INT;
+
+    DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_id = NULL;
+    DECLARE EXIT HANDLER FOR SQLEXCEPTION
+    BEGIN
+        ROLLBACK;
+        RESIGNAL;
+    END;
+
+    SELECT id, user_id, token_status_id, expire_time, max_life_time
+    INTO v_id, v_user_id, v_status, v_stored_expire_time, v_max_life_time
+    FROM idm.refresh_token
+    WHERE token_hash = p_token_hash;
+
+    IF v_id IS NULL AND p_token IS NOT NULL THEN
+        SELECT id, user_id, token_status_id, expire_time, max_life_time
+        INTO v_id, v_user_id, v_status, v_stored_expire_time, v_max_life_time
+        FROM idm.refresh_token
+        WHERE token = p_token;
+
+        IF v_id IS NOT NULL THEN
+            UPDATE idm.refresh_token SET token_hash = p_token_hash WHERE id = v_id AND token_hash IS NULL;
+        END IF;
+    END IF;
+
+    SET v_expire_time = GREATEST(v_stored_expire_time, COALESCE(p_pending_expire_time, v_stored_expire_time));
+
+    IF v_id IS NULL THEN
+        SET v_outcome = 1;
+    ELSEIF v_status = 2 THEN
+        SET v_outcome = 2;
+    ELSEIF v_status = 3 THEN
+        SET v_outcome = 3;
+    ELSEIF p_now > v_expire_time OR p_now > v_max_life_time OR p_expire_time > v_max_life_time THEN
+        START TRANSACTION;
+
+        -- concurrent refreshes of the same token queue up here and see the first one's change
+        SELECT token_status_id, expire_time
+        INTO v_status, v_stored_expire_time
+        FROM idm.refresh_token
+        WHERE id = v_id
+        FOR UPDATE;
+
+        SET v_expire_time = GREATEST(v_stored_expire_time, COALESCE(p_pending_expire_time, v_stored_expire_time));
+
+        IF v_status = 2 THEN
+            SET v_outcome = 2;
+        ELSEIF v_status = 3 THEN
+            SET v_outcome = 3;
+        ELSEIF p_now > v_expire_time OR p_now > v_max_life_time THEN
+            UPDATE idm.refresh_token SET token_status_id = 2 WHERE id = v_id;
+            SET v_outcome = 2;
+        ELSEIF p_new_token_hash IS NULL THEN
+            SET v_outcome = 6;
+        ELSE
+            UPDATE idm.refresh_token SET expire_time = p_expire_time, token_status_id = 3 WHERE id = v_id;
+            IF p_new_token IS NULL THEN
+                INSERT INTO idm.refresh_token (token_hash, user_id, token_status_id, expire_time, max_life_time)
+                VALUES (p_new_token_hash, v_user_id, 1, p_new_expire_time, p_new_max_life_time);
+            ELSE
+                INSERT INTO idm.refresh_token (token, token_hash, user_id, token_status_id, expire_time, max_life_time)
+                VALUES (p_new_token, p_new_token_hash, v_user_id, 1, p_new_expire_time, p_new_max_life_time);
+            END IF;
+            SET v_outcome = 5;
+        END IF;
+
+        COMMIT;
+    ELSE
+        SET v_outcome = 4;
+    END IF;
+
+    SELECT v_outcome AS outcome, v_stored_expire_time AS stored_expire_time,
+           v_user_id AS id, u.email, u.user_status_id, u.salt, u.hashed_password, u.hash_version, u.hash_iterations,
+           (SELECT CAST(BIT_OR(1 << ur.role_id) AS SIGNED) FROM idm.user_role ur WHERE ur.user_id = u.id) AS role_mask
+    FROM (SELECT 1) AS result
+    LEFT JOIN idm.user u ON p_load_user AND u.id = v_user_id;
+END //
+
+DELIMITER ;
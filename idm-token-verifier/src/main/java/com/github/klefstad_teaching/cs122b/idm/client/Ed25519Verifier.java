@@ -0,0 +1,83 @@
+package com.github.klefstad_teaching.cs122b.idm.client;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Set;
+
+// EdDSA over Ed25519 with the JDK provider (java 15+), the same way the service
+// signs. nimbus' own Ed25519Verifier would need tink on the classpath
+final class Ed25519Verifier implements JWSVerifier
+{
+    private static final int SIGNATURE_LENGTH = 64;
+
+    // fixed DER prefix of an Ed25519 public key, the raw 32 key bytes follow it
+    private static final byte[] X509_PREFIX = {
+            0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65,
+            0x70, 0x03, 0x21, 0x00
+    };
+
+    private final PublicKey  publicKey;
+    private final JCAContext jcaContext = new JCAContext();
+
+    Ed25519Verifier(OctetKeyPair jwk)
+            throws JOSEException
+    {
+        if (!Curve.Ed25519.equals(jwk.getCurve()))
+            throw new JOSEException("Only Ed25519 keys are supported, got " + jwk.getCurve());
+
+        byte[] rawKey = jwk.getX().decode();
+        byte[] encoded = Arrays.copyOf(X509_PREFIX, X509_PREFIX.length + rawKey.length);
+        System.arraycopy(rawKey, 0, encoded, X509_PREFIX.length, rawKey.length);
+
+        try {
+            this.publicKey = KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new JOSEException("Invalid Ed25519 key " + jwk.getKeyID(), e);
+        }
+    }
+
+    @Override
+    public boolean verify(JWSHeader header, byte[] signingInput, Base64URL signature)
+            throws JOSEException
+    {
+        byte[] signatureBytes = signature.decode();
+
+        if (!JWSAlgorithm.EdDSA.equals(header.getAlgorithm()) || signatureBytes.length != SIGNATURE_LENGTH)
+            return false;
+
+        try {
+            // Signature is not thread safe and verifying is far more expensive than creating one
+            Signature verifier = Signature.getInstance("Ed25519");
+            verifier.initVerify(publicKey);
+            verifier.update(signingInput);
+            return verifier.verify(signatureBytes);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Set<JWSAlgorithm> supportedJWSAlgorithms()
+    {
+        return Set.of(JWSAlgorithm.EdDSA);
+    }
+
+    @Override
+    public JCAContext getJCAContext()
+    {
+        return jcaContext;
+    }
+}
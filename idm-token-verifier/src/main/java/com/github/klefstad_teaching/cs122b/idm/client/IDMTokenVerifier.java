@@ -0,0 +1,341 @@
+package com.github.klefstad_teaching.cs122b.idm.client;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// verifies IDM access tokens in-process with the public keys the IDM service
+// publishes at /.well-known/jwks.json (ES256 and EdDSA), reporting the same
+// IDMResults as /authenticate. HS256 tokens need the shared secret, see Builder.hmacKey
+public final class IDMTokenVerifier
+{
+    private final URI        jwksUri;
+    private final HttpClient httpClient;
+    private final Duration   jwksRefreshInterval;
+    private final Duration   unknownKidRefreshInterval;
+    private final int        claimsCacheSize;
+
+    private final Map<String, KeyVerifier> hmacVerifiers;
+    private final Map<String, VerifiedAccessToken> claimsCache = new ConcurrentHashMap<>();
+
+    private volatile Map<String, KeyVerifier> verifiers = Map.of();
+    private volatile Instant                  jwksFetchedAt = Instant.EPOCH;
+
+    private IDMTokenVerifier(Builder builder)
+    {
+        this.jwksUri = builder.jwksUri;
+        this.httpClient = builder.httpClient;
+        this.jwksRefreshInterval = builder.jwksRefreshInterval;
+        this.unknownKidRefreshInterval = builder.unknownKidRefreshInterval;
+        this.claimsCacheSize = builder.claimsCacheSize;
+        this.hmacVerifiers = Map.copyOf(builder.hmacVerifiers);
+
+        if (builder.jwkSet != null)
+            this.verifiers = toVerifiers(builder.jwkSet);
+    }
+
+    // returns the decoded claims or throws ResultError with
+    // ACCESS_TOKEN_IS_INVALID / ACCESS_TOKEN_IS_EXPIRED
+    public VerifiedAccessToken verify(String accessToken)
+    {
+        if (accessToken == null)
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+        VerifiedAccessToken cached = claimsCache.get(accessToken);
+
+        if (cached != null) {
+            if (Instant.now().isBefore(cached.getExpireTime()))
+                return cached;
+
+            claimsCache.remove(accessToken, cached);
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_EXPIRED);
+        }
+
+        VerifiedAccessToken verified = verifyAndDecode(accessToken);
+        cache(accessToken, verified);
+
+        return verified;
+    }
+
+    // same as verify but reports the outcome as a result code
+    public Result check(String accessToken)
+    {
+        try {
+            verify(accessToken);
+            return IDMResults.ACCESS_TOKEN_IS_VALID;
+        } catch (ResultError e) {
+            return e.getResult();
+        }
+    }
+
+    private VerifiedAccessToken verifyAndDecode(String accessToken)
+    {
+        try {
+            SignedJWT signedJWT = SignedJWT.parse(accessToken);
+            JWTClaimsSet claimsSet = signedJWT.getJWTClaimsSet();
+            JWSHeader header = signedJWT.getHeader();
+
+            if (header.getKeyID() == null)
+                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+            KeyVerifier verifier = verifierFor(header.getKeyID());
+
+            // the key decides the algorithm, the header only has to agree with it
+            if (verifier == null || !verifier.algorithm.equals(header.getAlgorithm()) ||
+                    claimsSet.getExpirationTime() == null)
+                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+            Instant expireTime = claimsSet.getExpirationTime().toInstant();
+
+            if (Instant.now().isAfter(expireTime))
+                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_EXPIRED);
+
+            if (!signedJWT.verify(verifier.verifier))
+                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+            // same claim layout IDMJwtManager signs
+            Integer userId = claimsSet.getIntegerClaim(JWTManager.CLAIM_ID);
+            List<String> roles = claimsSet.getStringListClaim(JWTManager.CLAIM_ROLES);
+
+            if (userId == null || roles == null || claimsSet.getSubject() == null)
+                throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+            return new VerifiedAccessToken(userId, claimsSet.getSubject(), roles, expireTime);
+
+        } catch (ParseException | JOSEException | IllegalStateException e) {
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+        }
+    }
+
+    private KeyVerifier verifierFor(String kid)
+    {
+        KeyVerifier hmacVerifier = hmacVerifiers.get(kid);
+
+        if (hmacVerifier != null)
+            return hmacVerifier;
+
+        Instant now = Instant.now();
+
+        if (jwksUri != null && now.isAfter(jwksFetchedAt.plus(jwksRefreshInterval)))
+            refreshKeys(now);
+
+        KeyVerifier verifier = verifiers.get(kid);
+
+        // unknown kid usually means the service rotated its key, refetch but
+        // not more than once per interval so forged kids cannot hammer the service
+        if (verifier == null && jwksUri != null &&
+                now.isAfter(jwksFetchedAt.plus(unknownKidRefreshInterval))) {
+            refreshKeys(now);
+            verifier = verifiers.get(kid);
+        }
+
+        return verifier;
+    }
+
+    private synchronized void refreshKeys(Instant now)
+    {
+        // another thread refreshed while this one was waiting
+        if (jwksFetchedAt.isAfter(now))
+            return;
+
+        try {
+            HttpResponse<String> response = httpClient.send(
+                    HttpRequest.newBuilder(jwksUri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            if (response.statusCode() != 200)
+                throw new IOException("Unexpected status " + response.statusCode() + " from " + jwksUri);
+
+            this.verifiers = toVerifiers(JWKSet.parse(response.body()));
+            this.jwksFetchedAt = Instant.now();
+
+        } catch (IOException | ParseException e) {
+            // keep the keys we already have and retry after the short interval
+            this.jwksFetchedAt = now.minus(jwksRefreshInterval).plus(unknownKidRefreshInterval);
+
+            if (verifiers.isEmpty())
+                throw new UncheckedIOException(new IOException("Could not fetch " + jwksUri, e));
+        } catch (IllegalArgumentException e) {
+            // a key this library cannot check, keep the old keys and retry after the short interval
+            this.jwksFetchedAt = now.minus(jwksRefreshInterval).plus(unknownKidRefreshInterval);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // every published key has to be usable. skipping one would report the tokens it
+    // signed as invalid, which hides that the service moved to a key type this
+    // library does not support
+    private static Map<String, KeyVerifier> toVerifiers(JWKSet jwkSet)
+    {
+        Map<String, KeyVerifier> verifiers = new HashMap<>();
+
+        for (JWK jwk : jwkSet.getKeys()) {
+            if (jwk.getKeyID() == null)
+                throw new IllegalArgumentException("JWKS contains a " + jwk.getKeyType() + " key without kid");
+
+            if (verifiers.put(jwk.getKeyID(), toVerifier(jwk)) != null)
+                throw new IllegalArgumentException("JWKS contains kid " + jwk.getKeyID() + " twice");
+        }
+
+        return Map.copyOf(verifiers);
+    }
+
+    private static KeyVerifier toVerifier(JWK jwk)
+    {
+        try {
+            if (jwk instanceof ECKey && Curve.P_256.equals(((ECKey) jwk).getCurve()))
+                return new KeyVerifier(JWSAlgorithm.ES256, new ECDSAVerifier(((ECKey) jwk).toPublicJWK()));
+
+            if (jwk instanceof OctetKeyPair && Curve.Ed25519.equals(((OctetKeyPair) jwk).getCurve()))
+                return new KeyVerifier(JWSAlgorithm.EdDSA, new Ed25519Verifier((OctetKeyPair) jwk));
+        } catch (JOSEException e) {
+            throw new IllegalArgumentException("Invalid key " + jwk.getKeyID(), e);
+        }
+
+        throw new IllegalArgumentException(
+                "JWKS key " + jwk.getKeyID() + " has type " + jwk.getKeyType() +
+                (jwk instanceof ECKey ? " " + ((ECKey) jwk).getCurve() : "") +
+                (jwk instanceof OctetKeyPair ? " " + ((OctetKeyPair) jwk).getCurve() : "") +
+                ", IDMTokenVerifier only verifies ES256 (EC P-256) and EdDSA (Ed25519) keys");
+    }
+
+    private void cache(String accessToken, VerifiedAccessToken verified)
+    {
+        if (claimsCacheSize <= 0)
+            return;
+
+        if (claimsCache.size() >= claimsCacheSize) {
+            Instant now = Instant.now();
+            claimsCache.values().removeIf(token -> !now.isBefore(token.getExpireTime()));
+
+            Iterator<String> iterator = claimsCache.keySet().iterator();
+            int toRemove = claimsCache.size() - claimsCacheSize + Math.max(1, claimsCacheSize / 16);
+
+            while (toRemove-- > 0 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        claimsCache.put(accessToken, verified);
+    }
+
+    // the verifier of one published key and the only algorithm it is used with
+    private static final class KeyVerifier
+    {
+        private final JWSAlgorithm algorithm;
+        private final JWSVerifier  verifier;
+
+        private KeyVerifier(JWSAlgorithm algorithm, JWSVerifier verifier)
+        {
+            this.algorithm = algorithm;
+            this.verifier = verifier;
+        }
+    }
+
+    public static class Builder
+    {
+        private URI        jwksUri;
+        private JWKSet     jwkSet;
+        private HttpClient httpClient                = HttpClient.newHttpClient();
+        private Duration   jwksRefreshInterval       = Duration.ofHours(1);
+        private Duration   unknownKidRefreshInterval = Duration.ofMinutes(1);
+        private int        claimsCacheSize           = 10000;
+
+        private final Map<String, KeyVerifier> hmacVerifiers = new HashMap<>();
+
+        // e.g. http://idm-service:8081/.well-known/jwks.json
+        public Builder jwksUri(String jwksUri)
+        {
+            this.jwksUri = URI.create(jwksUri);
+            return this;
+        }
+
+        // fixed key set, no fetching (useful for tests). throws IllegalArgumentException
+        // from build() if a key cannot be verified
+        public Builder jwkSet(JWKSet jwkSet)
+        {
+            this.jwkSet = jwkSet;
+            return this;
+        }
+
+        // HS256 key of the service (idm.signing.hmac-key-id / hmac-secret). it is never
+        // published, so only consumers trusted with the secret can check those tokens
+        public Builder hmacKey(String kid, byte[] secret)
+        {
+            try {
+                hmacVerifiers.put(Objects.requireNonNull(kid),
+                                  new KeyVerifier(JWSAlgorithm.HS256, new MACVerifier(secret)));
+            } catch (JOSEException e) {
+                throw new IllegalArgumentException("Invalid HS256 secret for kid " + kid, e);
+            }
+            return this;
+        }
+
+        public Builder httpClient(HttpClient httpClient)
+        {
+            this.httpClient = Objects.requireNonNull(httpClient);
+            return this;
+        }
+
+        public Builder jwksRefreshInterval(Duration jwksRefreshInterval)
+        {
+            this.jwksRefreshInterval = Objects.requireNonNull(jwksRefreshInterval);
+            return this;
+        }
+
+        public Builder unknownKidRefreshInterval(Duration unknownKidRefreshInterval)
+        {
+            this.unknownKidRefreshInterval = Objects.requireNonNull(unknownKidRefreshInterval);
+            return this;
+        }
+
+        // 0 disables the cache of decoded claims
+        public Builder claimsCacheSize(int claimsCacheSize)
+        {
+            this.claimsCacheSize = claimsCacheSize;
+            return this;
+        }
+
+        public IDMTokenVerifier build()
+        {
+            if (jwksUri == null && jwkSet == null && hmacVerifiers.isEmpty())
+                throw new IllegalStateException("Either jwksUri, jwkSet or an hmacKey must be set");
+
+            return new IDMTokenVerifier(this);
+        }
+    }
+}
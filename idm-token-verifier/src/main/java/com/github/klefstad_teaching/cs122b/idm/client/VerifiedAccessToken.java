@@ -0,0 +1,41 @@
+package com.github.klefstad_teaching.cs122b.idm.client;
+
+import java.time.Instant;
+import java.util.List;
+
+// claims of an access token that passed verification, decoded once and cached
+public final class VerifiedAccessToken
+{
+    private final Integer      userId;
+    private final String       email;
+    private final List<String> roles;
+    private final Instant      expireTime;
+
+    VerifiedAccessToken(Integer userId, String email, List<String> roles, Instant expireTime)
+    {
+        this.userId = userId;
+        this.email = email;
+        this.roles = List.copyOf(roles);
+        this.expireTime = expireTime;
+    }
+
+    public Integer getUserId()
+    {
+        return userId;
+    }
+
+    public String getEmail()
+    {
+        return email;
+    }
+
+    public List<String> getRoles()
+    {
+        return roles;
+    }
+
+    public Instant getExpireTime()
+    {
+        return expireTime;
+    }
+}
@@ -0,0 +1,404 @@
+package com.github.klefstad_teaching.cs122b.idm.client;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IDMTokenVerifierTest
+{
+    private HttpServer jwksServer;
+
+    @AfterEach
+    public void stopJwksServer()
+    {
+        if (jwksServer != null)
+            jwksServer.stop(0);
+    }
+
+    private static ECKey ecKey(String kid)
+            throws JOSEException
+    {
+        return new ECKeyGenerator(Curve.P_256).keyID(kid).keyUse(KeyUse.SIGNATURE).generate();
+    }
+
+    private static JWTClaimsSet claims(Instant expireTime)
+    {
+        return new JWTClaimsSet.Builder()
+                .subject("Active@example.com")
+                .expirationTime(Date.from(expireTime))
+                .claim(JWTManager.CLAIM_ID, 1)
+                .claim(JWTManager.CLAIM_ROLES, List.of("ADMIN"))
+                .build();
+    }
+
+    private static String sign(JWSSigner signer, JWSHeader header, Instant expireTime)
+            throws JOSEException
+    {
+        SignedJWT signedJWT = new SignedJWT(header, claims(expireTime));
+        signedJWT.sign(signer);
+
+        return signedJWT.serialize();
+    }
+
+    private static String sign(ECKey key, Instant expireTime)
+            throws JOSEException
+    {
+        return sign(new ECDSASigner(key),
+                    new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(key.getKeyID()).type(JWTManager.JWS_TYPE).build(),
+                    expireTime);
+    }
+
+    private static KeyPair ed25519KeyPair()
+            throws GeneralSecurityException
+    {
+        return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    }
+
+    // the raw key is the last 32 bytes of the X.509 encoding
+    private static OctetKeyPair ed25519JWK(KeyPair keyPair, String kid)
+    {
+        byte[] encoded = keyPair.getPublic().getEncoded();
+        byte[] rawKey = Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length);
+
+        return new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(rawKey))
+                .keyID(kid)
+                .keyUse(KeyUse.SIGNATURE)
+                .build();
+    }
+
+    // signs with the JDK like the service's EdDsaSigningKey, nimbus' Ed25519Signer needs tink
+    private static String signEdDSA(KeyPair keyPair, String kid, Instant expireTime)
+            throws GeneralSecurityException
+    {
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.EdDSA).keyID(kid).type(JWTManager.JWS_TYPE).build();
+        String signingInput = header.toBase64URL() + "." + Base64URL.encode(claims(expireTime).toString());
+
+        Signature signer = Signature.getInstance("Ed25519");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+
+        return signingInput + "." + Base64URL.encode(signer.sign());
+    }
+
+    private static IDMTokenVerifier verifierFor(JWK... keys)
+    {
+        return new IDMTokenVerifier.Builder()
+                .jwkSet(new JWKSet(List.of(keys)).toPublicJWKSet())
+                .build();
+    }
+
+    // serves whatever jwks holds and counts the fetches
+    private String serveJwks(AtomicReference<JWKSet> jwks, AtomicInteger fetches)
+            throws IOException
+    {
+        jwksServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        jwksServer.createContext("/.well-known/jwks.json", exchange -> {
+            fetches.incrementAndGet();
+            byte[] body = jwks.get().toPublicJWKSet().toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        jwksServer.start();
+
+        return "http://localhost:" + jwksServer.getAddress().getPort() + "/.well-known/jwks.json";
+    }
+
+    @Test
+    public void validSignatureIsAccepted()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        Instant expireTime = Instant.now().plusSeconds(60);
+
+        VerifiedAccessToken token = verifierFor(key).verify(sign(key, expireTime));
+
+        assertEquals(1, token.getUserId());
+        assertEquals("Active@example.com", token.getEmail());
+        assertEquals(List.of("ADMIN"), token.getRoles());
+        assertEquals(expireTime.getEpochSecond(), token.getExpireTime().getEpochSecond());
+    }
+
+    @Test
+    public void signatureOfAnotherKeyIsRejected()
+            throws Exception
+    {
+        ECKey published = ecKey("a");
+        // same kid, different key pair
+        ECKey forged = ecKey("a");
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID,
+                   verifierFor(published).check(sign(forged, Instant.now().plusSeconds(60))));
+    }
+
+    @Test
+    public void tamperedClaimsAreRejected()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        String[] parts = sign(key, Instant.now().plusSeconds(60)).split("\\.");
+        String otherClaims = sign(key, Instant.now().plusSeconds(3600)).split("\\.")[1];
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID,
+                   verifierFor(key).check(parts[0] + "." + otherClaims + "." + parts[2]));
+    }
+
+    @Test
+    public void expiredTokenIsRejected()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_EXPIRED,
+                   verifierFor(key).check(sign(key, Instant.now().minusSeconds(1))));
+    }
+
+    @Test
+    public void cachedTokenExpires()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        IDMTokenVerifier verifier = verifierFor(key);
+        String token = sign(key, Instant.now().plusSeconds(2));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(token));
+        Thread.sleep(3000);
+        assertSame(IDMResults.ACCESS_TOKEN_IS_EXPIRED, verifier.check(token));
+    }
+
+    @Test
+    public void algorithmOtherThanTheKeysIsRejected()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        // HS256 under the kid of the EC key, keyed with bytes an attacker could know
+        String token = sign(new MACSigner(new byte[32]),
+                            new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("a").type(JWTManager.JWS_TYPE).build(),
+                            Instant.now().plusSeconds(60));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifierFor(key).check(token));
+    }
+
+    @Test
+    public void unsignedTokenIsRejected()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        String[] parts = sign(key, Instant.now().plusSeconds(60)).split("\\.");
+        String noneHeader = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("{\"alg\":\"none\",\"kid\":\"a\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifierFor(key).check(noneHeader + "." + parts[1] + "."));
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifierFor(key).check("not a token"));
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifierFor(key).check(null));
+    }
+
+    @Test
+    public void unsupportedKeyTypeFailsLoudly()
+            throws Exception
+    {
+        JWK rsaKey = new RSAKeyGenerator(2048).keyID("rsa").generate();
+
+        IllegalArgumentException e =
+                assertThrows(IllegalArgumentException.class, () -> verifierFor(ecKey("a"), rsaKey));
+
+        assertTrue(e.getMessage().contains("rsa"), e.getMessage());
+    }
+
+    @Test
+    public void unsupportedCurveFailsLoudly()
+            throws Exception
+    {
+        ECKey p384Key = new ECKeyGenerator(Curve.P_384).keyID("p384").generate();
+
+        assertThrows(IllegalArgumentException.class, () -> verifierFor(p384Key));
+    }
+
+    @Test
+    public void unknownKidRefetchesKeys()
+            throws Exception
+    {
+        ECKey oldKey = ecKey("old");
+        ECKey newKey = ecKey("new");
+
+        AtomicReference<JWKSet> jwks = new AtomicReference<>(new JWKSet(oldKey));
+        AtomicInteger fetches = new AtomicInteger();
+
+        IDMTokenVerifier verifier =
+                new IDMTokenVerifier.Builder()
+                        .jwksUri(serveJwks(jwks, fetches))
+                        .unknownKidRefreshInterval(Duration.ZERO)
+                        .build();
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(sign(oldKey, Instant.now().plusSeconds(60))));
+        assertEquals(1, fetches.get());
+
+        // the service rotated its key
+        jwks.set(new JWKSet(List.of(oldKey, newKey)));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(sign(newKey, Instant.now().plusSeconds(60))));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void unknownKidRefetchIsRateLimited()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        AtomicInteger fetches = new AtomicInteger();
+
+        IDMTokenVerifier verifier =
+                new IDMTokenVerifier.Builder()
+                        .jwksUri(serveJwks(new AtomicReference<>(new JWKSet(key)), fetches))
+                        .unknownKidRefreshInterval(Duration.ofMinutes(1))
+                        .build();
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(sign(key, Instant.now().plusSeconds(60))));
+
+        for (int i = 0; i < 10; i++) {
+            String forged = sign(ecKey("forged-" + i), Instant.now().plusSeconds(60));
+            assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifier.check(forged));
+        }
+
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void fetchedUnsupportedKeyFailsLoudly()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+        AtomicReference<JWKSet> jwks = new AtomicReference<>(new JWKSet(key));
+
+        IDMTokenVerifier verifier =
+                new IDMTokenVerifier.Builder()
+                        .jwksUri(serveJwks(jwks, new AtomicInteger()))
+                        .unknownKidRefreshInterval(Duration.ZERO)
+                        .build();
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(sign(key, Instant.now().plusSeconds(60))));
+
+        jwks.set(new JWKSet(List.of(key, new RSAKeyGenerator(2048).keyID("rsa").generate())));
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> verifier.verify(sign(ecKey("b"), Instant.now().plusSeconds(60))));
+    }
+
+    @Test
+    public void eddsaTokenIsAccepted()
+            throws Exception
+    {
+        KeyPair keyPair = ed25519KeyPair();
+
+        VerifiedAccessToken token =
+                verifierFor(ed25519JWK(keyPair, "ed")).verify(signEdDSA(keyPair, "ed", Instant.now().plusSeconds(60)));
+
+        assertEquals(1, token.getUserId());
+        assertEquals(List.of("ADMIN"), token.getRoles());
+    }
+
+    @Test
+    public void eddsaSignatureOfAnotherKeyIsRejected()
+            throws Exception
+    {
+        IDMTokenVerifier verifier = verifierFor(ed25519JWK(ed25519KeyPair(), "ed"));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID,
+                   verifier.check(signEdDSA(ed25519KeyPair(), "ed", Instant.now().plusSeconds(60))));
+    }
+
+    @Test
+    public void es256AndEddsaKeysCanBePublishedTogether()
+            throws Exception
+    {
+        ECKey ecKey = ecKey("ec");
+        KeyPair keyPair = ed25519KeyPair();
+        IDMTokenVerifier verifier = verifierFor(ecKey, ed25519JWK(keyPair, "ed"));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, verifier.check(sign(ecKey, Instant.now().plusSeconds(60))));
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID,
+                   verifier.check(signEdDSA(keyPair, "ed", Instant.now().plusSeconds(60))));
+        // EdDSA header under the EC kid
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID,
+                   verifier.check(signEdDSA(keyPair, "ec", Instant.now().plusSeconds(60))));
+    }
+
+    @Test
+    public void hmacTokenNeedsTheSharedSecret()
+            throws Exception
+    {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+
+        ECKey ecKey = ecKey("ec");
+        String token = sign(new MACSigner(secret),
+                            new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("hs").type(JWTManager.JWS_TYPE).build(),
+                            Instant.now().plusSeconds(60));
+
+        IDMTokenVerifier trusted =
+                new IDMTokenVerifier.Builder()
+                        .jwkSet(new JWKSet(ecKey).toPublicJWKSet())
+                        .hmacKey("hs", secret)
+                        .build();
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_VALID, trusted.check(token));
+        assertSame(IDMResults.ACCESS_TOKEN_IS_INVALID, verifierFor(ecKey).check(token));
+    }
+
+    @Test
+    public void verifyThrowsResultError()
+            throws Exception
+    {
+        ECKey key = ecKey("a");
+
+        ResultError e = assertThrows(ResultError.class,
+                                     () -> verifierFor(key).verify(sign(key, Instant.now().minusSeconds(1))));
+
+        assertSame(IDMResults.ACCESS_TOKEN_IS_EXPIRED, e.getResult());
+    }
+}
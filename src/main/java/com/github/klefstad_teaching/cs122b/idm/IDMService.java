@@ -1,7 +1,23 @@
 package com.github.klefstad_teaching.cs122b.idm;
 
 import com.github.klefstad_teaching.cs122b.core.spring.StackService;
+import com.github.klefstad_teaching.cs122b.idm.config.AccessTokenCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.AuthenticateBatchConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.BulkheadConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.HashAdmissionConfig;
 import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.JwksConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.LoginLockoutConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.PasswordHashConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RateLimitConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.ReactiveConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshExpiryBufferConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenIndexConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenReaperConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenStorageConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.UserCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.VirtualThreadConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -9,7 +25,23 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 @SpringBootApplication
 @StackService
 @EnableConfigurationProperties({
-    IDMServiceConfig.class
+    IDMServiceConfig.class,
+    AccessTokenCacheConfig.class,
+    AuthenticateBatchConfig.class,
+    JwksConfig.class,
+    SigningConfig.class,
+    PasswordHashConfig.class,
+    LoginLockoutConfig.class,
+    RateLimitConfig.class,
+    HashAdmissionConfig.class,
+    BulkheadConfig.class,
+    VirtualThreadConfig.class,
+    ReactiveConfig.class,
+    RefreshExpiryBufferConfig.class,
+    RefreshTokenIndexConfig.class,
+    RefreshTokenReaperConfig.class,
+    RefreshTokenStorageConfig.class,
+    UserCacheConfig.class
 })
 public class IDMService
 {
@@ -0,0 +1,88 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.idm.config.AuthenticateBatchConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+// verifies a batch of access tokens on a dedicated pool so the signature checks
+// of one batch run on all cores instead of one after the other on the request thread
+@Component
+public class AccessTokenBatchVerifier
+{
+    private final IDMJwtManager jwtManager;
+    private final ForkJoinPool  pool;
+    private final int           maxSize;
+
+    @Autowired
+    public AccessTokenBatchVerifier(IDMJwtManager jwtManager, AuthenticateBatchConfig config)
+    {
+        int parallelism = config.parallelism() > 0 ?
+                config.parallelism() :
+                Runtime.getRuntime().availableProcessors();
+
+        this.jwtManager = jwtManager;
+        this.pool = new ForkJoinPool(parallelism);
+        this.maxSize = config.maxSize();
+    }
+
+    // waits for the whole batch on the calling thread
+    public List<Result> verifyAccessTokens(List<String> accessTokens)
+    {
+        return verifyAccessTokensAsync(accessTokens).join();
+    }
+
+    // completes on the pool once the last token of the batch is verified, nothing waits.
+    // an oversized batch throws right away
+    public CompletableFuture<List<Result>> verifyAccessTokensAsync(List<String> accessTokens)
+    {
+        if (accessTokens == null || accessTokens.size() > maxSize)
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "accessTokens must contain at most " + maxSize + " tokens");
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>(accessTokens.size());
+
+        for (String accessToken : accessTokens)
+            futures.add(CompletableFuture.supplyAsync(() -> verifyAccessToken(accessToken), pool));
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<Result> results = new ArrayList<>(futures.size());
+
+                    // all done, join no longer waits
+                    for (CompletableFuture<Result> future : futures)
+                        results.add(future.join());
+
+                    return results;
+                });
+    }
+
+    private Result verifyAccessToken(String accessToken)
+    {
+        if (accessToken == null)
+            return IDMResults.ACCESS_TOKEN_IS_INVALID;
+
+        try {
+            jwtManager.verifyAccessToken(accessToken);
+            return IDMResults.ACCESS_TOKEN_IS_VALID;
+        } catch (ResultError e) {
+            return e.getResult();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.idm.config.AccessTokenCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenDigestCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// remembers access tokens that already passed signature and claims verification.
+// an entry lives until the token's own exp claim, so a hit never returns a stale "valid".
+// rejected tokens are remembered for a short while too, together with the error they got
+@Component
+public class AccessTokenCache
+{
+    private final TokenDigestCache<Boolean>     cache;
+    private final TokenDigestCache<ResultError> rejected;
+    private final Duration                      rejectedTtl;
+    private final Counter                       hits;
+    private final Counter                       misses;
+    private final Counter                       rejectedHits;
+
+    @Autowired
+    public AccessTokenCache(AccessTokenCacheConfig config, MeterRegistry registry)
+    {
+        this.cache = new TokenDigestCache<>(config.maxSize());
+        this.rejected = new TokenDigestCache<>(config.rejectedMaxSize());
+        this.rejectedTtl = config.rejectedTtl();
+
+        this.hits = Counter.builder("idm.access-token-cache.requests")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("idm.access-token-cache.requests")
+                .tag("result", "miss")
+                .register(registry);
+        this.rejectedHits = Counter.builder("idm.access-token-cache.requests")
+                .tag("result", "rejected")
+                .register(registry);
+
+        Gauge.builder("idm.access-token-cache.size", cache, TokenDigestCache::size)
+                .register(registry);
+        Gauge.builder("idm.access-token-cache.rejected.size", rejected, TokenDigestCache::size)
+                .register(registry);
+    }
+
+    // the error this token was rejected with recently, or null
+    public ResultError rejection(String accessToken)
+    {
+        ResultError error = rejected.get(accessToken);
+
+        if (error != null)
+            rejectedHits.increment();
+
+        return error;
+    }
+
+    public void markRejected(String accessToken, ResultError error)
+    {
+        rejected.put(accessToken, error, System.currentTimeMillis() + rejectedTtl.toMillis());
+    }
+
+    public boolean isVerified(String accessToken)
+    {
+        if (cache.get(accessToken) != null) {
+            hits.increment();
+            return true;
+        }
+
+        misses.increment();
+        return false;
+    }
+
+    public void markVerified(String accessToken, Instant expireTime)
+    {
+        cache.put(accessToken, Boolean.TRUE, expireTime.toEpochMilli());
+    }
+}
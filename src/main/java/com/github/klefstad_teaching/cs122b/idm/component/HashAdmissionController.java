@@ -0,0 +1,122 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.HashAdmissionConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// bounds the number of password hashes computed at once and sheds requests
+// CoDel style: the time spent waiting for a permit is measured, and once it
+// stayed above target-delay for a whole interval the controller goes into
+// dropping mode. while dropping, requests that waited longer than the target
+// and new arrivals that find no free permit are rejected right away instead
+// of queueing behind work that will already miss the client timeout
+@Component
+public class HashAdmissionController
+{
+    private final Semaphore permits;
+    private final long      targetDelayNanos;
+    private final long      intervalNanos;
+    private final long      maxDelayNanos;
+    private final Duration  retryAfter;
+
+    // CoDel state, racy updates only shift the moment dropping starts or stops
+    private volatile long    firstAboveNanos;
+    private volatile boolean dropping;
+
+    private final Timer   queueDelay;
+    private final Counter shedTimeout;
+    private final Counter shedDelay;
+
+    @Autowired
+    public HashAdmissionController(HashAdmissionConfig config, MeterRegistry registry)
+    {
+        int maxConcurrency = config.maxConcurrency() > 0 ?
+                config.maxConcurrency() :
+                Runtime.getRuntime().availableProcessors();
+
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.targetDelayNanos = config.targetDelay().toNanos();
+        this.intervalNanos = config.interval().toNanos();
+        this.maxDelayNanos = config.maxDelay().toNanos();
+        this.retryAfter = config.retryAfter();
+
+        this.queueDelay = Timer.builder("idm.hash-admission.queue-delay")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.shedTimeout = Counter.builder("idm.hash-admission.shed")
+                .tag("reason", "timeout")
+                .register(registry);
+        this.shedDelay = Counter.builder("idm.hash-admission.shed")
+                .tag("reason", "delay")
+                .register(registry);
+
+        Gauge.builder("idm.hash-admission.in-flight", permits, p -> maxConcurrency - p.availablePermits())
+                .register(registry);
+        Gauge.builder("idm.hash-admission.dropping", this, c -> c.dropping ? 1 : 0)
+                .register(registry);
+    }
+
+    // takes a permit or throws ServiceOverloadedException, callers must release()
+    public void acquire()
+    {
+        long enqueued = System.nanoTime();
+
+        if (!permits.tryAcquire()) {
+            if (dropping)
+                shed(shedDelay);
+
+            try {
+                if (!permits.tryAcquire(maxDelayNanos, TimeUnit.NANOSECONDS))
+                    shed(shedTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shed(shedTimeout);
+            }
+        }
+
+        long now = System.nanoTime();
+        long delay = now - enqueued;
+        queueDelay.record(delay, TimeUnit.NANOSECONDS);
+
+        if (!admit(delay, now)) {
+            permits.release();
+            shed(shedDelay);
+        }
+    }
+
+    public void release()
+    {
+        permits.release();
+    }
+
+    private boolean admit(long delay, long now)
+    {
+        if (delay < targetDelayNanos) {
+            firstAboveNanos = 0;
+            dropping = false;
+            return true;
+        }
+
+        if (firstAboveNanos == 0) {
+            firstAboveNanos = now + intervalNanos;
+        } else if (now >= firstAboveNanos) {
+            dropping = true;
+        }
+
+        return !dropping;
+    }
+
+    private void shed(Counter reason)
+    {
+        reason.increment();
+        throw new ServiceOverloadedException("Password hashing is overloaded", retryAfter);
+    }
+}
@@ -3,108 +3,119 @@ package com.github.klefstad_teaching.cs122b.idm.component;
 import com.github.klefstad_teaching.cs122b.core.error.ResultError;
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
 import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
-import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
 
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Base64;
+import java.util.function.Supplier;
 
 @Component
+@Profile("!reactive")
 public class IDMAuthenticationManager
 {
-    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
-    private static final String       HASH_FUNCTION = "PBKDF2WithHmacSHA512";
-
-    private static final int ITERATIONS     = 10000;
-    private static final int KEY_BIT_LENGTH = 512;
-
-    private static final int SALT_BYTE_LENGTH = 4;
-
-    public final IDMRepo repo;
+    public final IDMRepo                  repo;
+    private final PasswordHasher          passwordHasher;
+    private final LoginAttemptTracker     attemptTracker;
+    private final LoginRateLimiter        rateLimiter;
+    private final HashAdmissionController hashAdmission;
+    private final RefreshExpiryBuffer     expiryBuffer;
+    private final RefreshTokenIndex       tokenIndex;
+    private final UserCache               userCache;
 
     @Autowired
-    public IDMAuthenticationManager(IDMRepo repo)
+    public IDMAuthenticationManager(IDMRepo repo,
+                                    PasswordHasher passwordHasher,
+                                    LoginAttemptTracker attemptTracker,
+                                    LoginRateLimiter rateLimiter,
+                                    HashAdmissionController hashAdmission,
+                                    RefreshExpiryBuffer expiryBuffer,
+                                    RefreshTokenIndex tokenIndex,
+                                    UserCache userCache)
     {
         this.repo = repo;
-    }
-
-    private static byte[] hashPassword(final char[] password, String salt)
-    {
-        return hashPassword(password, Base64.getDecoder().decode(salt));
-    }
-
-    private static byte[] hashPassword(final char[] password, final byte[] salt)
-    {
-        try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(HASH_FUNCTION);
-
-            PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_BIT_LENGTH);
-
-            SecretKey key = skf.generateSecret(spec);
-
-            return key.getEncoded();
-
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static byte[] genSalt()
-    {
-        byte[] salt = new byte[SALT_BYTE_LENGTH];
-        SECURE_RANDOM.nextBytes(salt);
-        return salt;
+        this.passwordHasher = passwordHasher;
+        this.attemptTracker = attemptTracker;
+        this.rateLimiter = rateLimiter;
+        this.hashAdmission = hashAdmission;
+        this.expiryBuffer = expiryBuffer;
+        this.tokenIndex = tokenIndex;
+        this.userCache = userCache;
     }
 
     // used for login
     public User selectAndAuthenticateUser(String email, char[] password)
     {
-        // either will return exactly one user or user not found exception will occur and end
-        User user = repo.selectAUser(email);
-
-        // check if password matches
-        byte[] hashedPassword = hashPassword(password, user.getSalt());
-        String base64EncodedHashedPassword = Base64.getEncoder().encodeToString(hashedPassword);
+        rateLimiter.checkEmail(email);
 
-        if (!base64EncodedHashedPassword.equals(user.getHashedPassword()))
-            throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+        // either will return exactly one user or user not found exception will occur and end.
+        // always read from the database, the status check below must not see a cached row.
+        // the cache is still filled for /refresh
+        User user = repo.selectAUser(email);
+        userCache.put(user);
 
-        // check if user locked or banned
+        // check if user locked or banned, or locked / throttled after recent failures,
+        // before any time is spent on hashing
         if (user.getUserStatus() == UserStatus.LOCKED)
             throw new ResultError(IDMResults.USER_IS_LOCKED);
         if (user.getUserStatus() == UserStatus.BANNED)
             throw new ResultError(IDMResults.USER_IS_BANNED);
 
+        attemptTracker.checkAllowed(user.getId());
+
+        // hashing only starts once admitted, overloaded requests fail fast with 503
+        hashAdmission.acquire();
+
+        try {
+            // check if password matches, using the parameters the hash was stored with
+            if (!passwordHasher.matches(user, password)) {
+                attemptTracker.recordFailure(user.getId());
+                throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+            }
+
+            attemptTracker.recordSuccess(user.getId());
+
+            // the password is known to be correct here, so upgrade an outdated hash.
+            // only applied if the stored hash did not change in the meantime
+            if (passwordHasher.needsRehash(user)) {
+                String previousHash = user.getHashedPassword();
+                repo.updateUserPassword(passwordHasher.hash(user, password), previousHash);
+                userCache.invalidate(user.getId());
+            }
+        } finally {
+            hashAdmission.release();
+        }
+
         return user;
     }
 
     // used for register
     public void createAndInsertUser(String email, char[] password)
     {
-        // generate salt and hash the password
-        byte[] salt = genSalt();
-        byte[] hashedPassword = hashPassword(password,salt);
+        rateLimiter.checkEmail(email);
+
+        // generate salt and hash the password with the current parameters
+        User user;
 
-        // turn the salt and hashed password into base64 string
-        String base64EncodedSalt = Base64.getEncoder().encodeToString(salt);
-        String base64EncodedHashedPassword = Base64.getEncoder().encodeToString(hashedPassword);
+        hashAdmission.acquire();
+
+        try {
+            user = passwordHasher.hash(new User().setEmail(email), password);
+        } finally {
+            hashAdmission.release();
+        }
 
         // add to the database
         try {
-            repo.addUserToDB(email, base64EncodedSalt, base64EncodedHashedPassword);
+            repo.addUserToDB(user);
         } catch (DuplicateKeyException e) {
             throw new ResultError(IDMResults.USER_ALREADY_EXISTS);
         }
@@ -119,43 +130,82 @@ public class IDMAuthenticationManager
         Instant maxLifeTime = refreshToken.getMaxLifeTime();
 
         repo.addRefreshTokenToDB(token, userId, tokenStatus, expireTime, maxLifeTime);
+        tokenIndex.put(refreshToken);
     }
 
-    public RefreshToken verifyRefreshTokenExists(String token)
+    // used for refresh, a replacement is only taken from replacements if the token has to be rotated
+    public RefreshResult refreshAccess(String token, Duration expireDuration, Supplier<RefreshToken> replacements)
     {
-        // either will return a refresh token or throw a not found exception
-        RefreshToken refreshToken = repo.selectAToken(token);
-        return refreshToken;
-    }
+        Instant now = Instant.now();
+        Instant expireTime = now.plus(expireDuration);
 
-    public void expireRefreshToken(RefreshToken refreshToken)
-    {
-        // update the refresh token status as EXPIRED
-        refreshToken.setTokenStatus(TokenStatus.EXPIRED);
-        // also update the repo
-        repo.updateRefreshTokenAsExpired(refreshToken);
-        // then throw
-        throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
-    }
+        // expired and revoked are final and max_life_time never moves, so an indexed token
+        // in a final state or past its max life time needs no round trip
+        RefreshToken indexed = tokenIndex.get(token, now);
 
-    public void updateRefreshTokenExpireTime(RefreshToken refreshToken, Duration duration)
-    {
-        // update the refresh token expire time
-        refreshToken.setExpireTime(Instant.now().plus(duration));
-        // also update the repo
-        repo.updateRefreshTokenExpireTime(refreshToken);
-    }
+        if (indexed != null && indexed.getTokenStatus() == TokenStatus.EXPIRED)
+            throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+        if (indexed != null && indexed.getTokenStatus() == TokenStatus.REVOKED)
+            throw new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED);
+
+        // the owner of an indexed token is known up front, a cached owner is not loaded again
+        User cachedUser = indexed == null ? null : userCache.getById(indexed.getUserId());
 
+        // most refreshes extend, so a replacement is only built for an indexed token the extension
+        // would take past its max life time. any other token the procedure has to rotate is left
+        // as it is, and the call repeated with a replacement
+        RefreshToken replacement = expectsRotation(indexed, expireTime) ? replacements.get() : null;
+
+        RefreshResult result = repo.refreshAccess(token, now, expireTime, expiryBuffer.pending(token), replacement,
+                                                  cachedUser == null);
+
+        if (result.getOutcome() == RefreshOutcome.REPLACEMENT_NEEDED) {
+            replacement = replacements.get();
+            result = repo.refreshAccess(token, now, expireTime, expiryBuffer.pending(token), replacement,
+                                        cachedUser == null);
+        }
 
-    public void revokeRefreshToken(RefreshToken refreshToken)
+        fillUser(result, cachedUser);
+
+        switch (result.getOutcome()) {
+            case NOT_FOUND:
+                throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);
+            case EXPIRED:
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.EXPIRED);
+                throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+            case REVOKED:
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.REVOKED);
+                throw new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED);
+            case EXTENDED:
+                // the procedure only checked the token, the new expiry is written behind
+                expiryBuffer.extend(token, result.getStoredExpireTime(), expireTime);
+                return result;
+            default:
+                // rotated, the old token was revoked and the replacement stored
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.REVOKED);
+                tokenIndex.put(replacement.setUserId(result.getUser().getId()));
+                return result;
+        }
+    }
+
+    // same condition idm.refresh_access rotates on
+    static boolean expectsRotation(RefreshToken indexed, Instant expireTime)
     {
-        refreshToken.setTokenStatus(TokenStatus.REVOKED);
-        repo.updateRefreshTokenAsRevoked(refreshToken);
+        return indexed != null && expireTime.isAfter(indexed.getMaxLifeTime());
     }
 
-    public User getUserFromRefreshToken(RefreshToken refreshToken)
+    // the user was only loaded if the cache did not have it, either way the cache is current afterwards
+    private void fillUser(RefreshResult result, User cachedUser)
     {
-        User user = repo.selectUserFromRefreshToken(refreshToken);
-        return user;
+        if (result.getUser() == null)
+            return;
+
+        if (cachedUser != null)
+            result.setUser(cachedUser);
+        else
+            userCache.put(result.getUser());
     }
 }
@@ -4,32 +4,56 @@ import com.github.klefstad_teaching.cs122b.core.error.ResultError;
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
 import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
 import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.security.SigningKey;
+import com.github.klefstad_teaching.cs122b.idm.security.SigningKeys;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.RemoteKeySourceException;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
-import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWKSet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 @Component
 public class IDMJwtManager
 {
-    private final JWTManager jwtManager;
+    // tokens we sign are a few hundred characters, anything far beyond that is garbage
+    private static final int MAX_ACCESS_TOKEN_LENGTH = 2048;
+
+    // thrown for input that fails the pre-screen, shared so garbage does not cost a stack trace
+    private static final ResultError MALFORMED_ACCESS_TOKEN =
+            new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+    // the roles claim for every valid role mask, e.g. ["Admin","Premium"]
+    private static final String[] ROLE_CLAIMS = buildRoleClaims();
+
+    private final JWTManager       jwtManager;
+    private final AccessTokenCache accessTokenCache;
+    private final SigningKeys      signingKeys;
+    private final long             accessTokenExpireMillis;
 
     @Autowired
-    public IDMJwtManager(IDMServiceConfig serviceConfig)
+    public IDMJwtManager(IDMServiceConfig serviceConfig,
+                         SigningConfig signingConfig,
+                         AccessTokenCache accessTokenCache)
     {
+        this.accessTokenCache = accessTokenCache;
         this.jwtManager =
             new JWTManager.Builder()
                 .keyFileName(serviceConfig.keyFileName())
@@ -37,51 +61,112 @@ public class IDMJwtManager
                 .maxRefreshTokenLifeTime(serviceConfig.maxRefreshTokenLifeTime())
                 .refreshTokenExpire(serviceConfig.refreshTokenExpire())
                 .build();
+
+        this.signingKeys = new SigningKeys(signingConfig, jwtManager.getEcKey());
+        this.accessTokenExpireMillis = jwtManager.getAccessTokenExpire().toMillis();
     }
 
     public String buildAccessToken(User user)
             throws JOSEException
     {
-        SignedJWT signedJWT = buildAndSignJWT(user);
+        // one clock read for both iat and exp, seconds like nimbus writes them
+        long nowMillis = System.currentTimeMillis();
+        long issueTime = nowMillis / 1000;
+        long expirationTime = (nowMillis + accessTokenExpireMillis) / 1000;
+
+        // header segment is constant per key, only the claims are encoded per token
+        String signingInput = signingKeys.activeHeaderSegment() + '.' + BASE64_URL.encodeToString(
+                buildClaimsJson(user, issueTime, expirationTime).getBytes(StandardCharsets.UTF_8));
+
+        byte[] signature = signingKeys.activeKey()
+                .sign(signingInput.getBytes(StandardCharsets.US_ASCII));
+
         // serialized the jwt in base 64
         // this is the access token
-        String serializedJWT = signedJWT.serialize();
+        return signingInput + '.' + BASE64_URL.encodeToString(signature);
+    }
+
+    private static String[] buildRoleClaims()
+    {
+        String[] claims = new String[Role.MASK_LIMIT];
+
+        for (int mask = 0; mask < Role.MASK_LIMIT; mask++) {
+            List<Role> roles;
+
+            try {
+                roles = Role.fromMask(mask);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            StringBuilder json = new StringBuilder("[");
+
+            for (int i = 0; i < roles.size(); i++) {
+                if (i > 0)
+                    json.append(',');
+                appendJsonString(json, roles.get(i).getName());
+            }
+
+            claims[mask] = json.append(']').toString();
+        }
 
-        return serializedJWT;
+        return claims;
     }
 
-    private SignedJWT buildAndSignJWT(User user)
-        throws JOSEException
+    // the mask was checked by User.setRoleMask, anything else here is a bug
+    static String roleClaim(long mask)
     {
-        // build jwt (java web token) claims set
-        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
-                .subject(user.getEmail())
-                .expirationTime(
-                        Date.from(
-                            Instant.now().plus(this.jwtManager.getAccessTokenExpire())))
-                .claim(JWTManager.CLAIM_ID, user.getId())
-                .claim(JWTManager.CLAIM_ROLES, user.getRoles())
-                .issueTime(Date.from(Instant.now()))
-                .build();
+        return ROLE_CLAIMS[(int) mask];
+    }
 
-        // build jws (java web signature) header
-        JWSHeader header = new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
-                .keyID(jwtManager.getEcKey().getKeyID())
-                .type(JWTManager.JWS_TYPE)
-                .build();
+    // same claims the JWTClaimsSet.Builder used to produce, written directly from the user
+    private static String buildClaimsJson(User user, long issueTime, long expirationTime)
+    {
+        StringBuilder json = new StringBuilder(128);
+
+        json.append("{\"sub\":");
+        appendJsonString(json, user.getEmail());
+        json.append(",\"exp\":").append(expirationTime);
+        json.append(',');
+        appendJsonString(json, JWTManager.CLAIM_ID);
+        json.append(':').append(user.getId());
+        json.append(',');
+        appendJsonString(json, JWTManager.CLAIM_ROLES);
+        json.append(':').append(roleClaim(user.getRoleMask()));
+        json.append(",\"iat\":").append(issueTime).append('}');
+
+        return json.toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, String value)
+    {
+        json.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
 
-        // create JWT and then sign it
-        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        signedJWT.sign(jwtManager.getSigner());
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
 
-        return signedJWT;
+        json.append('"');
     }
 
     public RefreshToken buildRefreshToken(User user)
+    {
+        return buildRefreshToken().setUserId(user.getId());
+    }
+
+    // without a user, for the replacement idm.refresh_access stores when it rotates a token
+    public RefreshToken buildRefreshToken()
     {
         RefreshToken refreshToken = new RefreshToken()
                 .setToken(generateUUID().toString())
-                .setUserId(user.getId())
                 .setTokenStatus(TokenStatus.ACTIVE)
                 .setExpireTime(Instant.now().plus(jwtManager.getRefreshTokenExpire()))
                 .setMaxLifeTime(Instant.now().plus(jwtManager.getMaxRefreshTokenLifeTime()));
@@ -94,51 +179,125 @@ public class IDMJwtManager
         return UUID.randomUUID();
     }
 
-    public void hasExpiredStatus(RefreshToken refreshToken)
+    // public halves of the accepted asymmetric keys, kids match the ones in the JWS headers
+    public JWKSet getPublicJWKSet()
+    {
+        return signingKeys.publicJWKSet();
+    }
+
+    public Duration getRefreshTokenExpireDuration()
     {
-        // check if token status is expired
-        if (refreshToken.getTokenStatus() == TokenStatus.EXPIRED)
-            throw new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED);
+        return this.jwtManager.getRefreshTokenExpire();
+    }
+
+    public void verifyAccessToken(String accessToken)
+    {
+        // cheap checks on the raw string before hashing or parsing anything,
+        // this also picks the key from the header (alg and kid)
+        SigningKey signingKey = preScreen(accessToken);
+
+        if (signingKey == null)
+            throw MALFORMED_ACCESS_TOKEN;
+
+        // token already passed verification and has not reached its exp yet
+        if (accessTokenCache.isVerified(accessToken))
+            return;
 
+        // token was rejected a moment ago, rethrow the same error
+        ResultError rejection = accessTokenCache.rejection(accessToken);
 
+        if (rejection != null)
+            throw rejection;
+
+        try {
+            verifySignedAccessToken(accessToken, signingKey);
+        } catch (ResultError e) {
+            accessTokenCache.markRejected(accessToken, e);
+            throw e;
+        }
     }
 
-    public void hasRevokedStatus(RefreshToken refreshToken)
+    // header.payload.signature, only base64url characters, and a header segment
+    // identical to the one of an accepted key (alg, kid and typ all match).
+    // returns that key, or null when the token fails any of the checks
+    private SigningKey preScreen(String accessToken)
     {
-        // check if token status if revoked
-        if (refreshToken.getTokenStatus() == TokenStatus.REVOKED)
-            throw new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED);
+        if (accessToken == null || accessToken.length() > MAX_ACCESS_TOKEN_LENGTH)
+            return null;
+
+        int headerLength = accessToken.indexOf('.');
+
+        if (headerLength <= 0)
+            return null;
+
+        SigningKey signingKey = signingKeys.forHeaderSegment(accessToken.substring(0, headerLength));
+
+        if (signingKey == null)
+            return null;
+
+        int dots = 1;
+        int segmentLength = 0;
+
+        for (int i = headerLength + 1; i < accessToken.length(); i++) {
+            char c = accessToken.charAt(i);
+
+            if (c == '.') {
+                if (++dots > 2 || segmentLength == 0)
+                    return null;
+                segmentLength = 0;
+            } else if (isBase64UrlChar(c)) {
+                segmentLength++;
+            } else {
+                return null;
+            }
+        }
+
+        return dots == 2 && segmentLength > 0 ? signingKey : null;
     }
 
-    public Duration getRefreshTokenExpireDuration()
+    private static boolean isBase64UrlChar(char c)
     {
-        return this.jwtManager.getRefreshTokenExpire();
+        return (c >= 'A' && c <= 'Z') ||
+               (c >= 'a' && c <= 'z') ||
+               (c >= '0' && c <= '9') ||
+               c == '-' || c == '_';
     }
 
-    public void verifyAccessToken(String accessToken)
-            throws ParseException, BadJOSEException, JOSEException
+    private void verifySignedAccessToken(String accessToken, SigningKey signingKey)
     {
-        // verify JWT valid or not
-        verifyJWT(accessToken);
+        // parse once, everything below works on this instance
+        SignedJWT signedJWT;
+        JWTClaimsSet claimsSet;
+
+        try {
+            signedJWT = SignedJWT.parse(accessToken);
+            claimsSet = signedJWT.getJWTClaimsSet();
+        } catch (ParseException e) {
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+        }
+
+        // alg and kid were already pinned by the pre-screen, check exp
+        // before doing any signature math
+        Date expirationTime = claimsSet.getExpirationTime();
 
-        // verify expire time
-        SignedJWT rebuiltSingedJWT = SignedJWT.parse(accessToken);
-        Instant expireTime = rebuiltSingedJWT.getJWTClaimsSet().getExpirationTime().toInstant();
+        if (expirationTime == null)
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+
+        Instant expireTime = expirationTime.toInstant();
 
-        if ((Instant.now().isAfter(expireTime)))
+        if (Instant.now().isAfter(expireTime))
             throw new ResultError(IDMResults.ACCESS_TOKEN_IS_EXPIRED);
-    }
 
-    private void verifyJWT(String accessToken)
-            throws JOSEException, BadJOSEException, ParseException {
+        // single signature check, then the remaining claim rules of the processor
+        if (!signingKey.verify(signedJWT.getSigningInput(), signedJWT.getSignature().decode()))
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
 
         try {
-            SignedJWT rebuiltSingedJWT = SignedJWT.parse(accessToken);
-            rebuiltSingedJWT.verify(jwtManager.getVerifier());
-            jwtManager.getJwtProcessor().process(rebuiltSingedJWT, null);
-        } catch (IllegalStateException | JOSEException | BadJOSEException | ParseException e) {
+            jwtManager.getJwtProcessor().getJWTClaimsSetVerifier().verify(claimsSet, null);
+        } catch (BadJOSEException e) {
             throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
         }
 
+        accessTokenCache.markVerified(accessToken, expireTime);
     }
 }
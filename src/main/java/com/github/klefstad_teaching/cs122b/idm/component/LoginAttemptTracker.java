@@ -0,0 +1,218 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.LoginLockoutConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.UserLockWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// counts failed logins per user id so brute forced accounts are rejected before
+// their password is hashed. the table is split into stripes with their own lock so
+// a wave of failures on different accounts does not serialize on a single monitor.
+// an account crossing max-failed-attempts is locked in memory right away and written
+// as LOCKED to idm.user, concurrent lockouts are flushed together in one update
+@Component
+public class LoginAttemptTracker
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoginAttemptTracker.class);
+
+    private static final int STRIPES = 64;
+
+    private final UserLockWriter lockWriter;
+    private final UserCache      userCache;
+
+    private final int  maxFailedAttempts;
+    private final long failureWindowMillis;
+    private final int  throttleAfter;
+    private final long throttleDelayMillis;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // locked in memory but not yet written to idm.user
+    private final Set<Integer>  pendingLocks = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushing     = new AtomicBoolean();
+
+    private final Counter throttled;
+    private final Counter locked;
+
+    @Autowired
+    public LoginAttemptTracker(UserLockWriter lockWriter, UserCache userCache, LoginLockoutConfig config,
+                               MeterRegistry registry)
+    {
+        this.lockWriter = lockWriter;
+        this.userCache = userCache;
+        this.maxFailedAttempts = config.maxFailedAttempts();
+        this.failureWindowMillis = config.failureWindow().toMillis();
+        this.throttleAfter = config.throttleAfter();
+        this.throttleDelayMillis = config.throttleDelay().toMillis();
+
+        int stripeCapacity = Math.max(1, config.maxTrackedAccounts() / STRIPES);
+
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe(stripeCapacity);
+
+        this.throttled = Counter.builder("idm.login.rejected")
+                .tag("reason", "throttled")
+                .register(registry);
+        this.locked = Counter.builder("idm.login.rejected")
+                .tag("reason", "locked")
+                .register(registry);
+    }
+
+    // called before the password is hashed
+    public void checkAllowed(Integer userId)
+    {
+        if (pendingLocks.contains(userId)) {
+            locked.increment();
+            throw new ResultError(IDMResults.USER_IS_LOCKED);
+        }
+
+        Stripe stripe = stripeFor(userId);
+        long now = System.currentTimeMillis();
+
+        synchronized (stripe) {
+            Attempts attempts = stripe.get(userId);
+
+            if (attempts == null || attempts.isStale(now, failureWindowMillis))
+                return;
+
+            if (attempts.locked) {
+                locked.increment();
+                throw new ResultError(IDMResults.USER_IS_LOCKED);
+            }
+
+            // answered like a wrong password so throttling does not confirm the account
+            if (now < attempts.retryAtMillis) {
+                throttled.increment();
+                throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+            }
+        }
+    }
+
+    public void recordFailure(Integer userId)
+    {
+        Stripe stripe = stripeFor(userId);
+        long now = System.currentTimeMillis();
+        boolean crossedThreshold = false;
+
+        synchronized (stripe) {
+            Attempts attempts = stripe.get(userId);
+
+            if (attempts == null || attempts.isStale(now, failureWindowMillis)) {
+                attempts = new Attempts(now);
+                stripe.put(userId, attempts);
+            }
+
+            attempts.failures++;
+
+            if (throttleAfter > 0 && attempts.failures >= throttleAfter) {
+                int doublings = Math.min(attempts.failures - throttleAfter, 16);
+                attempts.retryAtMillis = now + (throttleDelayMillis << doublings);
+            }
+
+            if (maxFailedAttempts > 0 && attempts.failures >= maxFailedAttempts && !attempts.locked) {
+                attempts.locked = true;
+                crossedThreshold = true;
+            }
+        }
+
+        if (crossedThreshold)
+            pendingLocks.add(userId);
+
+        // also retries locks an earlier flush could not write
+        if (!pendingLocks.isEmpty())
+            flushLocks();
+    }
+
+    public void recordSuccess(Integer userId)
+    {
+        Stripe stripe = stripeFor(userId);
+
+        synchronized (stripe) {
+            stripe.remove(userId);
+        }
+    }
+
+    // whoever gets the flag writes every pending lock, threads that cross the
+    // threshold meanwhile only enqueue and are picked up by the loop below.
+    // a failed write is not the caller's error: the users stay in pendingLocks,
+    // where checkAllowed keeps rejecting them, and the next failed login retries
+    private void flushLocks()
+    {
+        while (!pendingLocks.isEmpty() && flushing.compareAndSet(false, true)) {
+            List<Integer> userIds = new ArrayList<>(pendingLocks);
+
+            try {
+                lockWriter.updateUsersAsLocked(userIds);
+
+                // idm.user is the source of truth from now on, so an unlock
+                // done in the database is not shadowed by this table
+                for (Integer userId : userIds) {
+                    userCache.invalidate(userId);
+                    pendingLocks.remove(userId);
+                    recordSuccess(userId);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Could not lock users {}, retrying on the next failed login", userIds, e);
+                return;
+            } finally {
+                flushing.set(false);
+            }
+        }
+    }
+
+    private Stripe stripeFor(Integer userId)
+    {
+        int hash = userId * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static final class Stripe extends LinkedHashMap<Integer, Attempts>
+    {
+        private final int capacity;
+
+        private Stripe(int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Attempts> eldest)
+        {
+            // never forget an account that is locked but not written yet
+            return size() > capacity && !eldest.getValue().locked;
+        }
+    }
+
+    private static final class Attempts
+    {
+        private final long firstFailureMillis;
+        private long       retryAtMillis;
+        private int        failures;
+        private boolean    locked;
+
+        private Attempts(long now)
+        {
+            this.firstFailureMillis = now;
+        }
+
+        private boolean isStale(long now, long failureWindowMillis)
+        {
+            return !locked && now - firstFailureMillis > failureWindowMillis;
+        }
+    }
+}
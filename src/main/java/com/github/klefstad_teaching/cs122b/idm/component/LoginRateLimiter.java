@@ -0,0 +1,80 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RateLimitConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.ClientAddressResolver;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenBucketLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+// token buckets for the endpoints that hash passwords (/login and /register).
+// client addresses are checked by RateLimitFilter (ReactiveRateLimitFilter on the
+// reactive profile) before the body is read, emails by the authentication manager
+// once the request is parsed. the client address is taken from X-Forwarded-For as
+// far as trusted proxies wrote it
+@Component
+public class LoginRateLimiter
+{
+    private final ClientAddressResolver addressResolver;
+    private final TokenBucketLimiter    byAddress;
+    private final TokenBucketLimiter    byEmail;
+    private final Counter               addressRejected;
+    private final Counter               emailRejected;
+
+    @Autowired
+    public LoginRateLimiter(RateLimitConfig config, MeterRegistry registry)
+    {
+        long idleTimeoutMillis = config.idleTimeout().toMillis();
+
+        this.addressResolver = new ClientAddressResolver(config.trustedProxies());
+
+        this.byAddress = new TokenBucketLimiter(
+                config.burst(), config.requestsPerSecond(), config.maxKeys(), idleTimeoutMillis);
+        this.byEmail = new TokenBucketLimiter(
+                config.emailBurst(), config.emailRequestsPerSecond(), config.maxKeys(), idleTimeoutMillis);
+
+        this.addressRejected = Counter.builder("idm.rate-limit.rejected")
+                .tag("key", "address")
+                .register(registry);
+        this.emailRejected = Counter.builder("idm.rate-limit.rejected")
+                .tag("key", "email")
+                .register(registry);
+
+        Gauge.builder("idm.rate-limit.keys", byAddress, TokenBucketLimiter::size)
+                .tag("key", "address")
+                .register(registry);
+        Gauge.builder("idm.rate-limit.keys", byEmail, TokenBucketLimiter::size)
+                .tag("key", "email")
+                .register(registry);
+    }
+
+    // 0 if the request may proceed, otherwise milliseconds until it may retry.
+    // forwardedFor holds the X-Forwarded-For headers in the order received
+    public long acquireForAddress(String remoteAddress, List<String> forwardedFor)
+    {
+        long retryAfterMillis = byAddress.tryAcquire(addressResolver.resolve(remoteAddress, forwardedFor));
+
+        if (retryAfterMillis > 0)
+            addressRejected.increment();
+
+        return retryAfterMillis;
+    }
+
+    // throws RateLimitedException once the email is over its rate
+    public void checkEmail(String email)
+    {
+        long retryAfterMillis = email == null ? 0 : byEmail.tryAcquire(email.toLowerCase(Locale.ROOT));
+
+        if (retryAfterMillis == 0)
+            return;
+
+        emailRejected.increment();
+        throw new RateLimitedException("Too many requests for this email", Duration.ofMillis(retryAfterMillis));
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.PasswordHashConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
+import com.github.klefstad_teaching.cs122b.idm.security.Pbkdf2HmacSha512;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// owns the password hash format. new hashes are always written with CURRENT_VERSION
+// and the iteration count calibrated at startup, stored hashes are checked with
+// whatever version and iteration count they were written with
+@Component
+public class PasswordHasher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PasswordHasher.class);
+
+    public static final PasswordHashVersion CURRENT_VERSION = PasswordHashVersion.PBKDF2_SHA512;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private static final int KEY_BYTE_LENGTH = 64;
+
+    // calibration runs, the fastest one is used so a gc pause does not skew the result
+    private static final int CALIBRATION_RUNS = 5;
+    // iteration counts are rounded so hosts with similar speed agree on the same value
+    private static final int ITERATION_STEP   = 1000;
+
+    private final int iterations;
+
+    @Autowired
+    public PasswordHasher(PasswordHashConfig config)
+    {
+        this.iterations = calibrate(config);
+
+        LOG.info("Password hashes use {} with {} iterations (target {} ms)",
+                 CURRENT_VERSION, iterations, config.targetLatency().toMillis());
+    }
+
+    private static int calibrate(PasswordHashConfig config)
+    {
+        int probeIterations = Math.max(config.minIterations(), ITERATION_STEP);
+        char[] probePassword = "calibration".toCharArray();
+        byte[] probeSalt = new byte[CURRENT_VERSION.saltByteLength()];
+
+        long fastestNanos = Long.MAX_VALUE;
+
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            Pbkdf2HmacSha512.deriveKey(probePassword, probeSalt, probeIterations, KEY_BYTE_LENGTH);
+            fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+        }
+
+        return scaledIterations(probeIterations, fastestNanos, config);
+    }
+
+    // the iteration count that takes targetLatency when probeIterations took probeNanos,
+    // rounded to ITERATION_STEP and clamped to min / max
+    static int scaledIterations(int probeIterations, long probeNanos, PasswordHashConfig config)
+    {
+        double scaled = (double) probeIterations * config.targetLatency().toNanos() / Math.max(1, probeNanos);
+        long rounded = Math.round(scaled / ITERATION_STEP) * ITERATION_STEP;
+
+        return (int) Math.max(config.minIterations(), Math.min(config.maxIterations(), rounded));
+    }
+
+    public int iterations()
+    {
+        return iterations;
+    }
+
+    // hashes the password with the current parameters and stores salt, hash,
+    // version and iteration count on the user
+    public User hash(User user, char[] password)
+    {
+        byte[] salt = new byte[CURRENT_VERSION.saltByteLength()];
+        SECURE_RANDOM.nextBytes(salt);
+
+        byte[] hashedPassword = Pbkdf2HmacSha512.deriveKey(password, salt, iterations, KEY_BYTE_LENGTH);
+
+        return user.setSalt(Base64.getEncoder().encodeToString(salt))
+                   .setHashedPassword(Base64.getEncoder().encodeToString(hashedPassword))
+                   .setHashVersion(CURRENT_VERSION)
+                   .setHashIterations(iterations);
+    }
+
+    // checks the password against the stored hash, compared as raw bytes in constant time
+    public boolean matches(User user, char[] password)
+    {
+        byte[] salt = Base64.getDecoder().decode(user.getSalt());
+        byte[] hashedPassword = Pbkdf2HmacSha512.deriveKey(password, salt, storedIterations(user), KEY_BYTE_LENGTH);
+        byte[] storedPassword = Base64.getDecoder().decode(user.getHashedPassword());
+
+        return MessageDigest.isEqual(hashedPassword, storedPassword);
+    }
+
+    // only ever upgrade, a slower host calibrating to fewer iterations
+    // should not weaken hashes written by a faster one
+    public boolean needsRehash(User user)
+    {
+        return user.getHashVersion() != CURRENT_VERSION || storedIterations(user) < iterations;
+    }
+
+    private static int storedIterations(User user)
+    {
+        PasswordHashVersion version = user.getHashVersion();
+
+        return version.fixedIterations() > 0 ? version.fixedIterations() : user.getHashIterations();
+    }
+}
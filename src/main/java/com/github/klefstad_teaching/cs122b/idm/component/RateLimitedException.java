@@ -0,0 +1,21 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import java.time.Duration;
+
+// thrown when a client is over its rate, mapped to 429 with Retry-After by OverloadHandler.
+// thrown for every request of a flood, so it skips capturing a stack trace
+public class RateLimitedException extends RuntimeException
+{
+    private final Duration retryAfter;
+
+    public RateLimitedException(String message, Duration retryAfter)
+    {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
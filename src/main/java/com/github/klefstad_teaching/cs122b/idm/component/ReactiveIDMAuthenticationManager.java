@@ -0,0 +1,202 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.repo.ReactiveIDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+// IDMAuthenticationManager for the "reactive" profile. database calls stay on
+// the event loop, hashing runs on the bounded hash scheduler under the same
+// admission control, attempt tracking and rate limits as the blocking stack
+@Component
+@Profile("reactive")
+public class ReactiveIDMAuthenticationManager
+{
+    private final ReactiveIDMRepo         repo;
+    private final PasswordHasher          passwordHasher;
+    private final LoginAttemptTracker     attemptTracker;
+    private final LoginRateLimiter        rateLimiter;
+    private final HashAdmissionController hashAdmission;
+    private final RefreshExpiryBuffer     expiryBuffer;
+    private final RefreshTokenIndex       tokenIndex;
+    private final UserCache               userCache;
+    private final ReactiveSchedulers      schedulers;
+
+    @Autowired
+    public ReactiveIDMAuthenticationManager(ReactiveIDMRepo repo,
+                                            PasswordHasher passwordHasher,
+                                            LoginAttemptTracker attemptTracker,
+                                            LoginRateLimiter rateLimiter,
+                                            HashAdmissionController hashAdmission,
+                                            RefreshExpiryBuffer expiryBuffer,
+                                            RefreshTokenIndex tokenIndex,
+                                            UserCache userCache,
+                                            ReactiveSchedulers schedulers)
+    {
+        this.repo = repo;
+        this.passwordHasher = passwordHasher;
+        this.attemptTracker = attemptTracker;
+        this.rateLimiter = rateLimiter;
+        this.hashAdmission = hashAdmission;
+        this.expiryBuffer = expiryBuffer;
+        this.tokenIndex = tokenIndex;
+        this.userCache = userCache;
+        this.schedulers = schedulers;
+    }
+
+    // used for login
+    public Mono<User> selectAndAuthenticateUser(String email, char[] password)
+    {
+        return Mono.fromRunnable(() -> rateLimiter.checkEmail(email))
+                // never from the cache, same as the blocking stack
+                .then(Mono.defer(() -> repo.selectAUser(email).doOnNext(userCache::put)))
+                .flatMap(user -> {
+                    // same order as the blocking stack, nothing is hashed for locked accounts
+                    if (user.getUserStatus() == UserStatus.LOCKED)
+                        return Mono.error(new ResultError(IDMResults.USER_IS_LOCKED));
+                    if (user.getUserStatus() == UserStatus.BANNED)
+                        return Mono.error(new ResultError(IDMResults.USER_IS_BANNED));
+
+                    attemptTracker.checkAllowed(user.getId());
+
+                    String previousHash = user.getHashedPassword();
+
+                    return schedulers.hash(() -> checkPassword(user, password))
+                            .flatMap(rehashed -> rehashed ?
+                                    repo.updateUserPassword(user, previousHash)
+                                            .doOnSuccess(ignored -> userCache.invalidate(user.getId()))
+                                            .thenReturn(user) :
+                                    Mono.just(user));
+                });
+    }
+
+    // true if the user was rehashed and has to be written back
+    private boolean checkPassword(User user, char[] password)
+    {
+        hashAdmission.acquire();
+
+        try {
+            if (!passwordHasher.matches(user, password)) {
+                attemptTracker.recordFailure(user.getId());
+                throw new ResultError(IDMResults.INVALID_CREDENTIALS);
+            }
+
+            attemptTracker.recordSuccess(user.getId());
+
+            if (!passwordHasher.needsRehash(user))
+                return false;
+
+            passwordHasher.hash(user, password);
+            return true;
+        } finally {
+            hashAdmission.release();
+        }
+    }
+
+    // used for register
+    public Mono<Void> createAndInsertUser(String email, char[] password)
+    {
+        return Mono.fromRunnable(() -> rateLimiter.checkEmail(email))
+                .then(schedulers.hash(() -> {
+                    hashAdmission.acquire();
+
+                    try {
+                        return passwordHasher.hash(new User().setEmail(email), password);
+                    } finally {
+                        hashAdmission.release();
+                    }
+                }))
+                .flatMap(repo::addUserToDB)
+                .onErrorMap(DataIntegrityViolationException.class,
+                            e -> new ResultError(IDMResults.USER_ALREADY_EXISTS));
+    }
+
+    public Mono<Void> insertRefreshToken(RefreshToken refreshToken)
+    {
+        return repo.addRefreshTokenToDB(refreshToken)
+                .doOnSuccess(ignored -> tokenIndex.put(refreshToken));
+    }
+
+    // used for refresh, see IDMAuthenticationManager.refreshAccess
+    public Mono<RefreshResult> refreshAccess(String token, Duration expireDuration, Supplier<RefreshToken> replacements)
+    {
+        Instant now = Instant.now();
+        Instant expireTime = now.plus(expireDuration);
+        RefreshToken indexed = tokenIndex.get(token, now);
+
+        if (indexed != null && indexed.getTokenStatus() == TokenStatus.EXPIRED)
+            return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED));
+        if (indexed != null && indexed.getTokenStatus() == TokenStatus.REVOKED)
+            return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED));
+
+        User cachedUser = indexed == null ? null : userCache.getById(indexed.getUserId());
+
+        RefreshToken expected = IDMAuthenticationManager.expectsRotation(indexed, expireTime) ? replacements.get() : null;
+
+        return repo.refreshAccess(token, now, expireTime, expiryBuffer.pending(token), expected, cachedUser == null)
+                .flatMap(result -> {
+                    if (result.getOutcome() != RefreshOutcome.REPLACEMENT_NEEDED)
+                        return handleOutcome(token, expireTime, result, expected, cachedUser);
+
+                    RefreshToken replacement = replacements.get();
+
+                    return repo.refreshAccess(token, now, expireTime, expiryBuffer.pending(token), replacement,
+                                              cachedUser == null)
+                            .flatMap(retried -> handleOutcome(token, expireTime, retried, replacement, cachedUser));
+                });
+    }
+
+    private Mono<RefreshResult> handleOutcome(String token, Instant expireTime, RefreshResult result,
+                                              RefreshToken replacement, User cachedUser)
+    {
+        fillUser(result, cachedUser);
+
+        switch (result.getOutcome()) {
+            case NOT_FOUND:
+                return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND));
+            case EXPIRED:
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.EXPIRED);
+                return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_EXPIRED));
+            case REVOKED:
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.REVOKED);
+                return Mono.error(new ResultError(IDMResults.REFRESH_TOKEN_IS_REVOKED));
+            case EXTENDED:
+                expiryBuffer.extend(token, result.getStoredExpireTime(), expireTime);
+                return Mono.just(result);
+            default:
+                // rotated, the old token was revoked and the replacement stored
+                expiryBuffer.discard(token);
+                tokenIndex.updateStatus(token, TokenStatus.REVOKED);
+                tokenIndex.put(replacement.setUserId(result.getUser().getId()));
+                return Mono.just(result);
+        }
+    }
+
+    // see IDMAuthenticationManager.fillUser
+    private void fillUser(RefreshResult result, User cachedUser)
+    {
+        if (result.getUser() == null)
+            return;
+
+        if (cachedUser != null)
+            result.setUser(cachedUser);
+        else
+            userCache.put(result.getUser());
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.HashAdmissionConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.ReactiveConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+// bounded schedulers that keep PBKDF2 and token signing off the netty event loop
+@Component
+@Profile("reactive")
+public class ReactiveSchedulers
+{
+    private final Scheduler hashScheduler;
+    private final Scheduler signScheduler;
+    private final HashAdmissionConfig admissionConfig;
+
+    @Autowired
+    public ReactiveSchedulers(ReactiveConfig config, HashAdmissionConfig admissionConfig)
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        this.hashScheduler = Schedulers.newBoundedElastic(
+                config.hashThreads() > 0 ? config.hashThreads() : cores,
+                config.hashQueueSize(),
+                "idm-hash");
+        this.signScheduler = Schedulers.newParallel(
+                "idm-sign",
+                config.signThreads() > 0 ? config.signThreads() : cores);
+        this.admissionConfig = admissionConfig;
+    }
+
+    // a full hash queue is answered like any other shed request
+    public <T> Mono<T> hash(Callable<T> work)
+    {
+        return Mono.fromCallable(work)
+                .subscribeOn(hashScheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> new ServiceOverloadedException(
+                        "Password hashing queue is full", admissionConfig.retryAfter()));
+    }
+
+    public <T> Mono<T> sign(Callable<T> work)
+    {
+        return Mono.fromCallable(work).subscribeOn(signScheduler);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        hashScheduler.dispose();
+        signScheduler.dispose();
+    }
+}
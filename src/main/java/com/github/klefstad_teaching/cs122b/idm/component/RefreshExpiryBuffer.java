@@ -0,0 +1,172 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshExpiryBufferConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.RefreshExpiryWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// sliding refresh token expiries are written behind: every /refresh records the
+// new expire time here, later extensions of the same token overwrite earlier ones,
+// and the latest value per token is flushed in batches every flush-interval and
+// on shutdown. an extension that moves the stored expiry by less than slack is not
+// written at all, so a client refreshing every few seconds costs one write per slack.
+// the stored expiry can therefore lag by up to slack + flush-interval, which only
+// matters if the service stops without flushing. at most max-pending tokens are
+// held, a new token beyond that is written through so an unreachable database
+// cannot grow the buffer without bound
+@Component
+public class RefreshExpiryBuffer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshExpiryBuffer.class);
+
+    private final RefreshExpiryWriter      writer;
+    private final Duration                 slack;
+    private final int                      batchSize;
+    private final int                      maxPending;
+    private final Map<String, Instant>     pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private final Counter skipped;
+    private final Counter coalesced;
+    private final Counter writtenThrough;
+    private final Counter written;
+    private final Counter flushFailures;
+
+    @Autowired
+    public RefreshExpiryBuffer(RefreshExpiryWriter writer, RefreshExpiryBufferConfig config, MeterRegistry registry)
+    {
+        this.writer = writer;
+        this.slack = config.slack();
+        this.batchSize = config.batchSize();
+        this.maxPending = config.maxPending();
+
+        this.skipped = Counter.builder("idm.refresh-expiry-buffer.extensions")
+                .tag("result", "skipped")
+                .register(registry);
+        this.coalesced = Counter.builder("idm.refresh-expiry-buffer.extensions")
+                .tag("result", "coalesced")
+                .register(registry);
+        this.writtenThrough = Counter.builder("idm.refresh-expiry-buffer.extensions")
+                .tag("result", "written-through")
+                .register(registry);
+        this.written = Counter.builder("idm.refresh-expiry-buffer.writes")
+                .register(registry);
+        this.flushFailures = Counter.builder("idm.refresh-expiry-buffer.flush.failures")
+                .register(registry);
+
+        Gauge.builder("idm.refresh-expiry-buffer.pending", pending, Map::size)
+                .register(registry);
+
+        long intervalMillis = config.flushInterval().toMillis();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idm-refresh-expiry-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // the expire time recorded but not written yet, or null
+    public Instant pending(String token)
+    {
+        return pending.get(token);
+    }
+
+    public void extend(String token, Instant storedExpireTime, Instant expireTime)
+    {
+        if (Duration.between(storedExpireTime, expireTime).compareTo(slack) < 0) {
+            skipped.increment();
+            return;
+        }
+
+        // the size is only a bound, concurrent callers may overshoot it by a few entries.
+        // a failed write-through is thrown to the caller, nothing is kept for it
+        if (pending.size() >= maxPending && !pending.containsKey(token)) {
+            writer.updateRefreshTokenExpireTimes(Map.of(token, expireTime));
+            writtenThrough.increment();
+            written.increment();
+            return;
+        }
+
+        // the function runs once per call, atomically for the token
+        pending.compute(token, (key, previous) -> {
+            if (previous == null)
+                return expireTime;
+
+            // one write now covers both extensions
+            coalesced.increment();
+            return previous.isAfter(expireTime) ? previous : expireTime;
+        });
+    }
+
+    // the token was expired, revoked or rotated, a late extension must not be written.
+    // one already taken into a batch being written is stopped by the writer, which
+    // only moves the expiry of active tokens
+    public void discard(String token)
+    {
+        pending.remove(token);
+    }
+
+    public synchronized void flush()
+    {
+        Iterator<Map.Entry<String, Instant>> iterator = pending.entrySet().iterator();
+        Map<String, Instant> batch = new LinkedHashMap<>();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Instant> entry = iterator.next();
+            batch.put(entry.getKey(), entry.getValue());
+
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+
+        if (!batch.isEmpty())
+            write(batch);
+    }
+
+    // entries are only dropped once written, and only if no newer extension arrived meanwhile
+    private void write(Map<String, Instant> batch)
+    {
+        writer.updateRefreshTokenExpireTimes(batch);
+        written.increment(batch.size());
+
+        batch.forEach((token, expireTime) -> pending.remove(token, expireTime));
+    }
+
+    // failed entries are kept in pending and retried on the next run
+    void flushQuietly()
+    {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            LOG.warn("Refresh expiry flush of {} pending tokens failed, retrying on the next run", pending.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        flusher.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,286 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenIndexConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+// refresh tokens this instance issued or saw, kept off heap in fixed 32 byte slots
+// keyed by the two longs of the token's UUID. segments are open addressing tables
+// with linear probing over at most MAX_PROBE slots; when all of them are taken the
+// slot whose max life time ends first is overwritten, so the index never grows and
+// never needs a rehash. it only holds what can be trusted without asking the database,
+// even if another instance touched the row: the owner, the max life time, which never
+// changes, and the terminal states (expired, revoked), which never change back.
+// a /refresh it can answer skips the round trip, for any other the owner is known
+// and a cached user does not have to be loaded again
+@Component
+public class RefreshTokenIndex
+{
+    private static final int MAX_PROBE  = 16;
+    private static final int SLOT_BYTES = 32;
+
+    // slot layout
+    private static final int MSB      = 0;
+    private static final int LSB      = 8;
+    private static final int USER_ID  = 16;
+    private static final int STATUS   = 20;
+    private static final int MAX_LIFE = 24;
+
+    private final Segment[] segments;
+    private final int       segmentShift;
+    private final AtomicLong size = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public RefreshTokenIndex(RefreshTokenIndexConfig config, MeterRegistry registry)
+    {
+        int segmentCount = ceilPowerOfTwo(config.segments());
+        int slotsPerSegment = config.capacity() <= 0 ? 0 :
+                              Math.max(MAX_PROBE, ceilPowerOfTwo(config.capacity() / segmentCount));
+
+        if ((long) slotsPerSegment * SLOT_BYTES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("idm.refresh-token-index.capacity is too large for " +
+                                               segmentCount + " segments");
+
+        this.segments = new Segment[slotsPerSegment == 0 ? 0 : segmentCount];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(slotsPerSegment);
+
+        this.hits = Counter.builder("idm.refresh-token-index.requests")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("idm.refresh-token-index.requests")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("idm.refresh-token-index.size", size, AtomicLong::get)
+                .register(registry);
+    }
+
+    private static int ceilPowerOfTwo(int n)
+    {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    // the indexed state of the token as of now, or null. a token past its max life time
+    // is expired whatever its status, the same check idm.refresh_access makes. the
+    // expire time is not indexed. hits are the lookups answered without the database
+    public RefreshToken get(String token, Instant now)
+    {
+        UUID key = toKey(token);
+
+        if (key == null)
+            return null;
+
+        long hash = hash(key);
+        RefreshToken refreshToken = segmentFor(hash).get(key.getMostSignificantBits(),
+                                                         key.getLeastSignificantBits(),
+                                                         (int) hash);
+
+        if (refreshToken == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (refreshToken.getTokenStatus() == TokenStatus.ACTIVE && now.isAfter(refreshToken.getMaxLifeTime()))
+            refreshToken.setTokenStatus(TokenStatus.EXPIRED);
+
+        if (refreshToken.getTokenStatus() == TokenStatus.ACTIVE)
+            misses.increment();
+        else
+            hits.increment();
+
+        return refreshToken.setToken(token);
+    }
+
+    public void put(RefreshToken refreshToken)
+    {
+        UUID key = toKey(refreshToken.getToken());
+
+        if (key == null)
+            return;
+
+        long hash = hash(key);
+        segmentFor(hash).put(key.getMostSignificantBits(), key.getLeastSignificantBits(), (int) hash,
+                             refreshToken.getUserId(),
+                             refreshToken.getTokenStatus().id(),
+                             refreshToken.getMaxLifeTime().toEpochMilli());
+    }
+
+    // only updates a token that is already indexed
+    public void updateStatus(String token, TokenStatus status)
+    {
+        UUID key = toKey(token);
+
+        if (key != null) {
+            long hash = hash(key);
+            segmentFor(hash).updateStatus(key.getMostSignificantBits(), key.getLeastSignificantBits(), (int) hash,
+                                          status.id());
+        }
+    }
+
+    public long size()
+    {
+        return size.get();
+    }
+
+    // tokens are UUIDs, anything else (and the all zero UUID that marks a free slot) is never indexed
+    private UUID toKey(String token)
+    {
+        if (segments.length == 0 || token == null || token.length() != 36)
+            return null;
+
+        try {
+            UUID key = UUID.fromString(token);
+            return key.getMostSignificantBits() == 0 && key.getLeastSignificantBits() == 0 ? null : key;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // clients choose the tokens they send, so the bits are mixed rather than trusted to be random
+    static long hash(UUID key)
+    {
+        long h = key.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ key.getLeastSignificantBits();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+
+    private Segment segmentFor(long hash)
+    {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    private final class Segment
+    {
+        private final ByteBuffer  slots;
+        private final int         mask;
+        private final StampedLock lock = new StampedLock();
+
+        private Segment(int slotCount)
+        {
+            this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES);
+            this.mask = slotCount - 1;
+        }
+
+        private RefreshToken get(long msb, long lsb, int hash)
+        {
+            long stamp = lock.tryOptimisticRead();
+            RefreshToken refreshToken = read(msb, lsb, hash);
+
+            if (lock.validate(stamp))
+                return refreshToken;
+
+            stamp = lock.readLock();
+            try {
+                return read(msb, lsb, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // may see a torn slot under an optimistic read, the caller validates the stamp
+        private RefreshToken read(long msb, long lsb, int hash)
+        {
+            int offset = find(msb, lsb, hash);
+
+            if (offset < 0 || !holds(offset, msb, lsb))
+                return null;
+
+            int status = slots.getInt(offset + STATUS);
+
+            if (status < TokenStatus.ACTIVE.id() || status > TokenStatus.REVOKED.id())
+                return null;
+
+            return new RefreshToken()
+                    .setUserId(slots.getInt(offset + USER_ID))
+                    .setTokenStatus(TokenStatus.fromId(status))
+                    .setMaxLifeTime(Instant.ofEpochMilli(slots.getLong(offset + MAX_LIFE)));
+        }
+
+        private void put(long msb, long lsb, int hash, int userId, int status, long maxLifeTime)
+        {
+            long stamp = lock.writeLock();
+            try {
+                int offset = find(msb, lsb, hash);
+
+                if (offset < 0)
+                    offset = victim(hash);
+
+                if (!holds(offset, msb, lsb) && holds(offset, 0, 0))
+                    size.incrementAndGet();
+
+                slots.putLong(offset + MSB, msb);
+                slots.putLong(offset + LSB, lsb);
+                slots.putInt(offset + USER_ID, userId);
+                slots.putInt(offset + STATUS, status);
+                slots.putLong(offset + MAX_LIFE, maxLifeTime);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void updateStatus(long msb, long lsb, int hash, int status)
+        {
+            long stamp = lock.writeLock();
+            try {
+                int offset = find(msb, lsb, hash);
+
+                if (offset >= 0 && holds(offset, msb, lsb))
+                    slots.putInt(offset + STATUS, status);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private boolean holds(int offset, long msb, long lsb)
+        {
+            return slots.getLong(offset + MSB) == msb && slots.getLong(offset + LSB) == lsb;
+        }
+
+        // offset of the slot holding the key, or of the first free slot, -1 if neither is within reach
+        private int find(long msb, long lsb, int hash)
+        {
+            for (int probe = 0; probe < MAX_PROBE; probe++) {
+                int offset = ((hash + probe) & mask) * SLOT_BYTES;
+                if (holds(offset, msb, lsb) || holds(offset, 0, 0))
+                    return offset;
+            }
+
+            return -1;
+        }
+
+        // all slots within reach are taken, give up the one whose max life time ends first
+        private int victim(int hash)
+        {
+            int victim = (hash & mask) * SLOT_BYTES;
+
+            for (int probe = 1; probe < MAX_PROBE; probe++) {
+                int offset = ((hash + probe) & mask) * SLOT_BYTES;
+
+                if (slots.getLong(offset + MAX_LIFE) < slots.getLong(victim + MAX_LIFE))
+                    victim = offset;
+            }
+
+            return victim;
+        }
+    }
+}
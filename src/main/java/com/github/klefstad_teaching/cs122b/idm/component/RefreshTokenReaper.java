@@ -0,0 +1,144 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshExpiryBufferConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenReaperConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.RefreshTokenReclaimer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// deletes refresh tokens that expired more than grace ago. rows go in chunks of
+// chunk-size ordered by expire_time, with a pause between chunks at least as long
+// as the chunk itself took, so the reaper never holds locks for more than half of
+// the time and stops after max-chunks-per-run until the next run. with the
+// partitioned layout a run drops whole partitions by max_life_time instead
+@Component
+public class RefreshTokenReaper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshTokenReaper.class);
+
+    private final RefreshTokenReclaimer reclaimer;
+    private final Duration              grace;
+    private final int                   chunkSize;
+    private final Duration              chunkPause;
+    private final int                   maxChunksPerRun;
+    private final boolean               partitioned;
+    private final Duration              partitionLead;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Counter reclaimed;
+    private final Timer   runs;
+
+    @Autowired
+    public RefreshTokenReaper(RefreshTokenReclaimer reclaimer,
+                              RefreshTokenReaperConfig config,
+                              RefreshExpiryBufferConfig expiryBufferConfig,
+                              IDMServiceConfig serviceConfig,
+                              MeterRegistry registry)
+    {
+        // an extension can sit unwritten in RefreshExpiryBuffer for up to slack + flush-interval
+        if (config.grace().compareTo(expiryBufferConfig.slack().plus(expiryBufferConfig.flushInterval())) <= 0)
+            throw new IllegalArgumentException(
+                    "idm.refresh-token-reaper.grace must be longer than the refresh expiry buffer's slack + flush-interval");
+
+        this.reclaimer = reclaimer;
+        this.grace = config.grace();
+        this.chunkSize = config.chunkSize();
+        this.chunkPause = config.chunkPause();
+        this.maxChunksPerRun = config.maxChunksPerRun();
+        this.partitioned = config.partitioned();
+        // tokens issued before the next run may live this long, their partitions must exist already
+        this.partitionLead = serviceConfig.maxRefreshTokenLifeTime().plus(config.interval().multipliedBy(2));
+
+        this.reclaimed = Counter.builder("idm.refresh-token-reaper.reclaimed")
+                .register(registry);
+        this.runs = Timer.builder("idm.refresh-token-reaper.runs")
+                .register(registry);
+
+        if (!config.enabled()) {
+            this.scheduler = null;
+            return;
+        }
+
+        long intervalMillis = config.interval().toMillis();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idm-refresh-token-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::runQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // returns the rows reclaimed
+    public long run()
+            throws InterruptedException
+    {
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        Instant cutoff = now.minus(grace);
+        long total = 0;
+
+        try {
+            if (partitioned) {
+                total = reclaimer.rotateRefreshTokenPartitions(cutoff, now.plus(partitionLead));
+                return total;
+            }
+
+            for (int chunk = 0; chunk < maxChunksPerRun; chunk++) {
+                long chunkStart = System.nanoTime();
+                int deleted = reclaimer.deleteDeadRefreshTokens(cutoff, chunkSize);
+
+                total += deleted;
+                reclaimed.increment(deleted);
+
+                if (deleted < chunkSize)
+                    break;
+
+                long chunkMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - chunkStart);
+                Thread.sleep(Math.max(chunkPause.toMillis(), chunkMillis));
+            }
+
+            return total;
+        } finally {
+            if (partitioned)
+                reclaimed.increment(total);
+
+            runs.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            if (total > 0)
+                LOG.info("Reclaimed {} refresh tokens that expired before {}", total, cutoff);
+        }
+    }
+
+    private void runQuietly()
+    {
+        try {
+            run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOG.warn("Refresh token reaper run failed, retrying on the next run", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import java.time.Duration;
+
+// thrown when a request is shed, mapped to 503 with Retry-After by OverloadHandler.
+// thrown on hot paths under load, so it skips capturing a stack trace
+public class ServiceOverloadedException extends RuntimeException
+{
+    private final Duration retryAfter;
+
+    public ServiceOverloadedException(String message, Duration retryAfter)
+    {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
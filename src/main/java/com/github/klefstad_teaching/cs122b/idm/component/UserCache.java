@@ -0,0 +1,143 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.UserCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// users with their password hash and role mask, by id. filled from every query
+// that loads a whole user (login, refresh), so /refresh of an indexed token has
+// idm.refresh_access skip the user and its roles. /refresh only reads the email
+// and roles for the access token, it never gated on user status. /login does not
+// read from here: its LOCKED / BANNED check has to see the row as it is now, and
+// a login that loaded the row before a lock can put it back after the invalidate.
+// callers get a copy, never the cached instance. invalidate after changing a
+// user's status, password or roles; changes made elsewhere (another instance,
+// directly in the database) are picked up after ttl
+@Component
+public class UserCache
+{
+    private final Map<Integer, Entry> byId = new ConcurrentHashMap<>();
+    private final int                 maxSize;
+    private final long                ttlMillis;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public UserCache(UserCacheConfig config, MeterRegistry registry)
+    {
+        this.maxSize = config.maxSize();
+        this.ttlMillis = config.ttl().toMillis();
+
+        this.hits = Counter.builder("idm.user-cache.requests")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("idm.user-cache.requests")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("idm.user-cache.size", byId, Map::size)
+                .register(registry);
+    }
+
+    // a copy of the cached user, or null
+    public User getById(Integer userId)
+    {
+        Entry entry = maxSize <= 0 || userId == null ? null : live(byId.get(userId));
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return copy(entry.user);
+    }
+
+    public void put(User user)
+    {
+        if (maxSize <= 0)
+            return;
+
+        if (byId.size() >= maxSize)
+            evict();
+
+        byId.put(user.getId(), new Entry(copy(user), System.currentTimeMillis() + ttlMillis));
+    }
+
+    public void invalidate(Integer userId)
+    {
+        byId.remove(userId);
+    }
+
+    public void invalidateAll()
+    {
+        byId.clear();
+    }
+
+    private Entry live(Entry entry)
+    {
+        if (entry != null && entry.expireAtMillis <= System.currentTimeMillis()) {
+            remove(entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    // only this entry, a newer put for the same id stays
+    private void remove(Entry entry)
+    {
+        byId.remove(entry.user.getId(), entry);
+    }
+
+    // same policy as TokenDigestCache: expired entries first, then an arbitrary slice
+    private void evict()
+    {
+        long now = System.currentTimeMillis();
+
+        for (Entry entry : byId.values()) {
+            if (entry.expireAtMillis <= now)
+                remove(entry);
+        }
+
+        int toRemove = byId.size() - maxSize + Math.max(1, maxSize / 16);
+        Iterator<Entry> iterator = byId.values().iterator();
+
+        while (toRemove-- > 0 && iterator.hasNext())
+            remove(iterator.next());
+    }
+
+    private static User copy(User user)
+    {
+        return new User()
+                .setId(user.getId())
+                .setEmail(user.getEmail())
+                .setUserStatus(user.getUserStatus())
+                .setSalt(user.getSalt())
+                .setHashedPassword(user.getHashedPassword())
+                .setHashVersion(user.getHashVersion())
+                .setHashIterations(user.getHashIterations())
+                .setRoleMask(user.getRoleMask());
+    }
+
+    private static final class Entry
+    {
+        private final User user;
+        private final long expireAtMillis;
+
+        private Entry(User user, long expireAtMillis)
+        {
+            this.user = user;
+            this.expireAtMillis = expireAtMillis;
+        }
+    }
+}
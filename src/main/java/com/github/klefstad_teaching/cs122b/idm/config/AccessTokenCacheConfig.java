@@ -0,0 +1,42 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.access-token-cache")
+public class AccessTokenCacheConfig
+{
+    // 0 disables the cache
+    private final Integer  maxSize;
+    // 0 disables the cache of rejected tokens
+    private final Integer  rejectedMaxSize;
+    private final Duration rejectedTtl;
+
+    public AccessTokenCacheConfig(Integer maxSize,
+                                  Integer rejectedMaxSize,
+                                  Duration rejectedTtl)
+    {
+        this.maxSize = Objects.requireNonNull(maxSize);
+        this.rejectedMaxSize = Objects.requireNonNull(rejectedMaxSize);
+        this.rejectedTtl = Objects.requireNonNull(rejectedTtl);
+    }
+
+    public Integer maxSize()
+    {
+        return maxSize;
+    }
+
+    public Integer rejectedMaxSize()
+    {
+        return rejectedMaxSize;
+    }
+
+    public Duration rejectedTtl()
+    {
+        return rejectedTtl;
+    }
+}
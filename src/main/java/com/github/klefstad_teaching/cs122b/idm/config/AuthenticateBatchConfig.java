@@ -0,0 +1,31 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.authenticate-batch")
+public class AuthenticateBatchConfig
+{
+    private final Integer maxSize;
+    // 0 uses one thread per available core
+    private final Integer parallelism;
+
+    public AuthenticateBatchConfig(Integer maxSize, Integer parallelism)
+    {
+        this.maxSize = Objects.requireNonNull(maxSize);
+        this.parallelism = Objects.requireNonNull(parallelism);
+    }
+
+    public Integer maxSize()
+    {
+        return maxSize;
+    }
+
+    public Integer parallelism()
+    {
+        return parallelism;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.bulkhead")
+public class BulkheadConfig
+{
+    // /login and /register, the endpoints that hash passwords
+    private final Limit credentials;
+    // /authenticate, /authenticate/batch and /refresh
+    private final Limit tokens;
+
+    public BulkheadConfig(Limit credentials, Limit tokens)
+    {
+        this.credentials = Objects.requireNonNull(credentials);
+        this.tokens = Objects.requireNonNull(tokens);
+    }
+
+    public Limit credentials()
+    {
+        return credentials;
+    }
+
+    public Limit tokens()
+    {
+        return tokens;
+    }
+
+    public static class Limit
+    {
+        // requests running at once, 0 disables the bulkhead
+        private final Integer  maxConcurrent;
+        // requests waiting for a slot, each of them holds a tomcat thread too
+        private final Integer  maxQueue;
+        private final Duration maxWait;
+
+        public Limit(Integer maxConcurrent, Integer maxQueue, Duration maxWait)
+        {
+            this.maxConcurrent = Objects.requireNonNull(maxConcurrent);
+            this.maxQueue = Objects.requireNonNull(maxQueue);
+            this.maxWait = Objects.requireNonNull(maxWait);
+        }
+
+        public Integer maxConcurrent()
+        {
+            return maxConcurrent;
+        }
+
+        public Integer maxQueue()
+        {
+            return maxQueue;
+        }
+
+        public Duration maxWait()
+        {
+            return maxWait;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.hash-admission")
+public class HashAdmissionConfig
+{
+    // password hashes computed at once, 0 uses the number of cores
+    private final Integer  maxConcurrency;
+    // queueing delay that is considered healthy (CoDel target)
+    private final Duration targetDelay;
+    // how long the delay has to stay above target before requests are shed (CoDel interval)
+    private final Duration interval;
+    // no request waits longer than this for a permit
+    private final Duration maxDelay;
+    private final Duration retryAfter;
+
+    public HashAdmissionConfig(Integer maxConcurrency,
+                               Duration targetDelay,
+                               Duration interval,
+                               Duration maxDelay,
+                               Duration retryAfter)
+    {
+        this.maxConcurrency = Objects.requireNonNull(maxConcurrency);
+        this.targetDelay = Objects.requireNonNull(targetDelay);
+        this.interval = Objects.requireNonNull(interval);
+        this.maxDelay = Objects.requireNonNull(maxDelay);
+        this.retryAfter = Objects.requireNonNull(retryAfter);
+    }
+
+    public Integer maxConcurrency()
+    {
+        return maxConcurrency;
+    }
+
+    public Duration targetDelay()
+    {
+        return targetDelay;
+    }
+
+    public Duration interval()
+    {
+        return interval;
+    }
+
+    public Duration maxDelay()
+    {
+        return maxDelay;
+    }
+
+    public Duration retryAfter()
+    {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.jwks")
+public class JwksConfig
+{
+    // how long consumers may cache the key set before fetching it again
+    private final Duration maxAge;
+
+    public JwksConfig(Duration maxAge)
+    {
+        this.maxAge = Objects.requireNonNull(maxAge);
+    }
+
+    public Duration maxAge()
+    {
+        return maxAge;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.login-lockout")
+public class LoginLockoutConfig
+{
+    // failed attempts within failure-window that lock the account, 0 disables locking
+    private final Integer  maxFailedAttempts;
+    private final Duration failureWindow;
+    // after this many failures every further attempt has to wait throttle-delay,
+    // doubled for each additional failure
+    private final Integer  throttleAfter;
+    private final Duration throttleDelay;
+    // accounts tracked in memory at once, least recently failed are dropped first
+    private final Integer  maxTrackedAccounts;
+
+    public LoginLockoutConfig(Integer maxFailedAttempts,
+                              Duration failureWindow,
+                              Integer throttleAfter,
+                              Duration throttleDelay,
+                              Integer maxTrackedAccounts)
+    {
+        this.maxFailedAttempts = Objects.requireNonNull(maxFailedAttempts);
+        this.failureWindow = Objects.requireNonNull(failureWindow);
+        this.throttleAfter = Objects.requireNonNull(throttleAfter);
+        this.throttleDelay = Objects.requireNonNull(throttleDelay);
+        this.maxTrackedAccounts = Objects.requireNonNull(maxTrackedAccounts);
+    }
+
+    public Integer maxFailedAttempts()
+    {
+        return maxFailedAttempts;
+    }
+
+    public Duration failureWindow()
+    {
+        return failureWindow;
+    }
+
+    public Integer throttleAfter()
+    {
+        return throttleAfter;
+    }
+
+    public Duration throttleDelay()
+    {
+        return throttleDelay;
+    }
+
+    public Integer maxTrackedAccounts()
+    {
+        return maxTrackedAccounts;
+    }
+}
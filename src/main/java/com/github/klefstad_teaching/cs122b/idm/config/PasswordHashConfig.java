@@ -0,0 +1,41 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.password-hash")
+public class PasswordHashConfig
+{
+    // time one hash should take on this host, the iteration count is calibrated at startup
+    private final Duration targetLatency;
+    private final Integer  minIterations;
+    private final Integer  maxIterations;
+
+    public PasswordHashConfig(Duration targetLatency,
+                              Integer minIterations,
+                              Integer maxIterations)
+    {
+        this.targetLatency = Objects.requireNonNull(targetLatency);
+        this.minIterations = Objects.requireNonNull(minIterations);
+        this.maxIterations = Objects.requireNonNull(maxIterations);
+    }
+
+    public Duration targetLatency()
+    {
+        return targetLatency;
+    }
+
+    public Integer minIterations()
+    {
+        return minIterations;
+    }
+
+    public Integer maxIterations()
+    {
+        return maxIterations;
+    }
+}
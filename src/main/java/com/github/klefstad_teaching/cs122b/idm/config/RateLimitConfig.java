@@ -0,0 +1,77 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.rate-limit")
+public class RateLimitConfig
+{
+    // requests a client address may make to /login and /register at once, 0 disables
+    private final Integer      burst;
+    private final Double       requestsPerSecond;
+    // same per email address, checked after the body is parsed, 0 disables
+    private final Integer      emailBurst;
+    private final Double       emailRequestsPerSecond;
+    private final Integer      maxKeys;
+    private final Duration     idleTimeout;
+    // addresses / CIDR blocks of the gateway and load balancers. X-Forwarded-For
+    // is only believed as far as these wrote it, empty uses the connection's address
+    private final List<String> trustedProxies;
+
+    public RateLimitConfig(Integer burst,
+                           Double requestsPerSecond,
+                           Integer emailBurst,
+                           Double emailRequestsPerSecond,
+                           Integer maxKeys,
+                           Duration idleTimeout,
+                           List<String> trustedProxies)
+    {
+        this.burst = Objects.requireNonNull(burst);
+        this.requestsPerSecond = Objects.requireNonNull(requestsPerSecond);
+        this.emailBurst = Objects.requireNonNull(emailBurst);
+        this.emailRequestsPerSecond = Objects.requireNonNull(emailRequestsPerSecond);
+        this.maxKeys = Objects.requireNonNull(maxKeys);
+        this.idleTimeout = Objects.requireNonNull(idleTimeout);
+        this.trustedProxies = trustedProxies == null ? List.of() : trustedProxies;
+    }
+
+    public Integer burst()
+    {
+        return burst;
+    }
+
+    public Double requestsPerSecond()
+    {
+        return requestsPerSecond;
+    }
+
+    public Integer emailBurst()
+    {
+        return emailBurst;
+    }
+
+    public Double emailRequestsPerSecond()
+    {
+        return emailRequestsPerSecond;
+    }
+
+    public Integer maxKeys()
+    {
+        return maxKeys;
+    }
+
+    public Duration idleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public List<String> trustedProxies()
+    {
+        return trustedProxies;
+    }
+}
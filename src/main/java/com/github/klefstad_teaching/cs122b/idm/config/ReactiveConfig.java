@@ -0,0 +1,42 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.reactive")
+public class ReactiveConfig
+{
+    // threads hashing passwords, 0 uses the number of cores
+    private final Integer hashThreads;
+    // hash tasks waiting for a thread before new ones are rejected with 503
+    private final Integer hashQueueSize;
+    // threads signing access tokens, 0 uses the number of cores
+    private final Integer signThreads;
+
+    public ReactiveConfig(Integer hashThreads,
+                          Integer hashQueueSize,
+                          Integer signThreads)
+    {
+        this.hashThreads = Objects.requireNonNull(hashThreads);
+        this.hashQueueSize = Objects.requireNonNull(hashQueueSize);
+        this.signThreads = Objects.requireNonNull(signThreads);
+    }
+
+    public Integer hashThreads()
+    {
+        return hashThreads;
+    }
+
+    public Integer hashQueueSize()
+    {
+        return hashQueueSize;
+    }
+
+    public Integer signThreads()
+    {
+        return signThreads;
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.refresh-expiry-buffer")
+public class RefreshExpiryBufferConfig
+{
+    // extensions that move the stored expire time by less than this are not written
+    private final Duration slack;
+    private final Duration flushInterval;
+    // rows per JDBC batch
+    private final Integer  batchSize;
+    // tokens held before new extensions are written through
+    private final Integer  maxPending;
+
+    public RefreshExpiryBufferConfig(Duration slack,
+                                     Duration flushInterval,
+                                     Integer batchSize,
+                                     Integer maxPending)
+    {
+        this.slack = Objects.requireNonNull(slack);
+        this.flushInterval = Objects.requireNonNull(flushInterval);
+        this.batchSize = Objects.requireNonNull(batchSize);
+        this.maxPending = Objects.requireNonNull(maxPending);
+    }
+
+    public Duration slack()
+    {
+        return slack;
+    }
+
+    public Duration flushInterval()
+    {
+        return flushInterval;
+    }
+
+    public Integer batchSize()
+    {
+        return batchSize;
+    }
+
+    public Integer maxPending()
+    {
+        return maxPending;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.refresh-token-index")
+public class RefreshTokenIndexConfig
+{
+    // slots in total, 32 bytes of direct memory each. 0 disables the index
+    private final Integer capacity;
+    // rounded up to a power of two, every segment has its own lock
+    private final Integer segments;
+
+    public RefreshTokenIndexConfig(Integer capacity,
+                                   Integer segments)
+    {
+        this.capacity = Objects.requireNonNull(capacity);
+        this.segments = Objects.requireNonNull(segments);
+    }
+
+    public Integer capacity()
+    {
+        return capacity;
+    }
+
+    public Integer segments()
+    {
+        return segments;
+    }
+}
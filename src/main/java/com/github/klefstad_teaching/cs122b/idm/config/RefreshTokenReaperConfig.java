@@ -0,0 +1,75 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.refresh-token-reaper")
+public class RefreshTokenReaperConfig
+{
+    private final Boolean  enabled;
+    private final Duration interval;
+    // dead rows are kept this long so clients still get "expired" / "revoked" instead of "not found"
+    private final Duration grace;
+    private final Integer  chunkSize;
+    // pause between two chunks, stretched to the chunk's own duration if that took longer
+    private final Duration chunkPause;
+    private final Integer  maxChunksPerRun;
+    // drop whole partitions instead of deleting rows, needs db/idm-refresh-token-partitioning.sql
+    private final Boolean  partitioned;
+
+    public RefreshTokenReaperConfig(Boolean enabled,
+                                    Duration interval,
+                                    Duration grace,
+                                    Integer chunkSize,
+                                    Duration chunkPause,
+                                    Integer maxChunksPerRun,
+                                    Boolean partitioned)
+    {
+        this.enabled = Objects.requireNonNull(enabled);
+        this.interval = Objects.requireNonNull(interval);
+        this.grace = Objects.requireNonNull(grace);
+        this.chunkSize = Objects.requireNonNull(chunkSize);
+        this.chunkPause = Objects.requireNonNull(chunkPause);
+        this.maxChunksPerRun = Objects.requireNonNull(maxChunksPerRun);
+        this.partitioned = Objects.requireNonNull(partitioned);
+    }
+
+    public Boolean enabled()
+    {
+        return enabled;
+    }
+
+    public Duration interval()
+    {
+        return interval;
+    }
+
+    public Duration grace()
+    {
+        return grace;
+    }
+
+    public Integer chunkSize()
+    {
+        return chunkSize;
+    }
+
+    public Duration chunkPause()
+    {
+        return chunkPause;
+    }
+
+    public Integer maxChunksPerRun()
+    {
+        return maxChunksPerRun;
+    }
+
+    public Boolean partitioned()
+    {
+        return partitioned;
+    }
+}
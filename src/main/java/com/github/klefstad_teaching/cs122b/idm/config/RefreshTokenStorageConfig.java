@@ -0,0 +1,26 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.refresh-token-storage")
+public class RefreshTokenStorageConfig
+{
+    // keep writing the plain token next to its digest and match rows that have no
+    // digest yet. only between steps 2 and 4 of the migration in db/idm-migration.sql,
+    // needs the token column that new installs do not have
+    private final Boolean plainTokens;
+
+    public RefreshTokenStorageConfig(Boolean plainTokens)
+    {
+        this.plainTokens = Objects.requireNonNull(plainTokens);
+    }
+
+    public Boolean plainTokens()
+    {
+        return plainTokens;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.util.List;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.signing")
+public class SigningConfig
+{
+    // ES256, EdDSA or HS256, used for every new token
+    private final String       algorithm;
+    // tokens signed with any of these are still accepted, by kid (key transitions)
+    private final List<String> acceptedAlgorithms;
+    // OKP (Ed25519) JWK on the classpath, only needed for EdDSA
+    private final String       ed25519KeyFileName;
+    // base64 shared secret of at least 32 bytes, only needed for HS256
+    private final String       hmacSecret;
+    private final String       hmacKeyId;
+    // JWKs (EC P-256, Ed25519 or oct) on the classpath that tokens are still accepted
+    // from after a rotation, by kid. the new key takes the place of the old file
+    private final List<String> retiredKeyFileNames;
+
+    public SigningConfig(String algorithm,
+                         List<String> acceptedAlgorithms,
+                         String ed25519KeyFileName,
+                         String hmacSecret,
+                         String hmacKeyId,
+                         List<String> retiredKeyFileNames)
+    {
+        this.algorithm = Objects.requireNonNull(algorithm);
+        this.acceptedAlgorithms = Objects.requireNonNull(acceptedAlgorithms);
+        this.ed25519KeyFileName = ed25519KeyFileName;
+        this.hmacSecret = hmacSecret;
+        this.hmacKeyId = hmacKeyId;
+        this.retiredKeyFileNames = retiredKeyFileNames == null ? List.of() : retiredKeyFileNames;
+    }
+
+    public String algorithm()
+    {
+        return algorithm;
+    }
+
+    public List<String> acceptedAlgorithms()
+    {
+        return acceptedAlgorithms;
+    }
+
+    public String ed25519KeyFileName()
+    {
+        return ed25519KeyFileName;
+    }
+
+    public String hmacSecret()
+    {
+        return hmacSecret;
+    }
+
+    public String hmacKeyId()
+    {
+        return hmacKeyId;
+    }
+
+    public List<String> retiredKeyFileNames()
+    {
+        return retiredKeyFileNames;
+    }
+}
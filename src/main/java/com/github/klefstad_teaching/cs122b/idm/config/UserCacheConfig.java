@@ -0,0 +1,35 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.user-cache")
+public class UserCacheConfig
+{
+    // 0 disables the cache
+    private final Integer  maxSize;
+    // longest time an email or role change made directly in idm.user / idm.user_role
+    // takes to reach refreshed tokens, /login always reads the user itself
+    private final Duration ttl;
+
+    public UserCacheConfig(Integer maxSize,
+                           Duration ttl)
+    {
+        this.maxSize = Objects.requireNonNull(maxSize);
+        this.ttl = Objects.requireNonNull(ttl);
+    }
+
+    public Integer maxSize()
+    {
+        return maxSize;
+    }
+
+    public Duration ttl()
+    {
+        return ttl;
+    }
+}
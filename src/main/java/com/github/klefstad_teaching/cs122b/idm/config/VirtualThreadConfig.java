@@ -0,0 +1,43 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+@ConstructorBinding
+@ConfigurationProperties(prefix = "idm.virtual-threads")
+public class VirtualThreadConfig
+{
+    // run tomcat request handling on virtual threads (needs a Java 21 runtime)
+    private final Boolean  enabled;
+    // callers holding a JDBC connection at once, 0 uses the connection pool size.
+    // only applied when virtual threads are in use
+    private final Integer  jdbcMaxConcurrency;
+    private final Duration jdbcMaxWait;
+
+    public VirtualThreadConfig(Boolean enabled,
+                               Integer jdbcMaxConcurrency,
+                               Duration jdbcMaxWait)
+    {
+        this.enabled = Objects.requireNonNull(enabled);
+        this.jdbcMaxConcurrency = Objects.requireNonNull(jdbcMaxConcurrency);
+        this.jdbcMaxWait = Objects.requireNonNull(jdbcMaxWait);
+    }
+
+    public Boolean enabled()
+    {
+        return enabled;
+    }
+
+    public Integer jdbcMaxConcurrency()
+    {
+        return jdbcMaxConcurrency;
+    }
+
+    public Duration jdbcMaxWait()
+    {
+        return jdbcMaxWait;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.klefstad_teaching.cs122b.idm.config;
+
+import com.github.klefstad_teaching.cs122b.idm.util.ConcurrencyLimitedDataSource;
+import com.github.klefstad_teaching.cs122b.idm.util.VirtualThreads;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+// idm.virtual-threads.enabled runs every request, and with it every IDMRepo call,
+// on its own virtual thread instead of the fixed tomcat worker pool. the data
+// source is then wrapped so no more callers than the pool has connections reach it
+@Configuration
+public class VirtualThreadConfiguration
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    private static boolean isActive(VirtualThreadConfig config)
+    {
+        return config.enabled() && VirtualThreads.isAvailable();
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadExecutor(VirtualThreadConfig config)
+    {
+        if (config.enabled() && !VirtualThreads.isAvailable())
+            LOG.warn("idm.virtual-threads.enabled is set but this JVM has no virtual threads, " +
+                     "using the platform thread pool");
+
+        return protocolHandler -> {
+            if (isActive(config))
+                protocolHandler.setExecutor(VirtualThreads.newExecutor());
+        };
+    }
+
+    @Bean
+    public static BeanPostProcessor jdbcConcurrencyLimiter(ObjectProvider<VirtualThreadConfig> configProvider,
+                                                           ObjectProvider<MeterRegistry> registryProvider)
+    {
+        return new BeanPostProcessor()
+        {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName)
+            {
+                if (!(bean instanceof DataSource) || bean instanceof ConcurrencyLimitedDataSource)
+                    return bean;
+
+                VirtualThreadConfig config = configProvider.getObject();
+
+                if (!isActive(config))
+                    return bean;
+
+                int maxConcurrency = config.jdbcMaxConcurrency();
+
+                if (maxConcurrency <= 0 && bean instanceof HikariDataSource)
+                    maxConcurrency = ((HikariDataSource) bean).getMaximumPoolSize();
+
+                if (maxConcurrency <= 0)
+                    return bean;
+
+                return new ConcurrencyLimitedDataSource((DataSource) bean, maxConcurrency, config.jdbcMaxWait(),
+                                                        registryProvider.getObject());
+            }
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.klefstad_teaching.cs122b.idm.model.request;
+
+import java.util.List;
+
+public class AuthBatchRequest {
+    private List<String> accessTokens;
+
+    public List<String> getAccessTokens() {
+        return accessTokens;
+    }
+
+    public AuthBatchRequest setAccessTokens(List<String> accessTokens) {
+        this.accessTokens = accessTokens;
+        return this;
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.klefstad_teaching.cs122b.idm.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AuthBatchResponse {
+    // one result per access token, in the same order as the request
+    private List<Result> results;
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public AuthBatchResponse setResults(List<Result> results) {
+        this.results = results;
+        return this;
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.klefstad_teaching.cs122b.idm.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+
+// body of an error response, same shape as the result of every other response
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResultResponse {
+    private Result result;
+
+    public Result getResult() {
+        return result;
+    }
+
+    public ResultResponse setResult(Result result) {
+        this.result = result;
+        return this;
+    }
+}
@@ -2,15 +2,21 @@ package com.github.klefstad_teaching.cs122b.idm.repo;
 
 import com.github.klefstad_teaching.cs122b.core.error.ResultError;
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenStorageConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenDigestCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Component;
 
 import java.sql.Ref;
@@ -18,154 +24,153 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 @Component
-public class IDMRepo
+@Profile("!reactive")
+public class IDMRepo implements UserLockWriter, RefreshExpiryWriter, RefreshTokenReclaimer
 {
-    private final NamedParameterJdbcTemplate template;
+    private final InstrumentedJdbcTemplate template;
+    private final boolean                  plainTokens;
 
     @Autowired
-    public IDMRepo(NamedParameterJdbcTemplate template)
+    public IDMRepo(InstrumentedJdbcTemplate template, RefreshTokenStorageConfig storageConfig)
     {
         this.template = template;
+        this.plainTokens = storageConfig.plainTokens();
     }
 
-    // create a user with the email, salt, and hashedPassword.
+    // create a user with the email, salt, hashedPassword and the hash parameters.
     // UserStatus is ACTIVE by default.
     // salt and password are both encoded to base64. password is also hashed
     // could potentially DuplicateKeyException whcih will be caught by the caller
-    public void addUserToDB(String email, String salt, String password)
+    public void addUserToDB(User user)
             throws DuplicateKeyException
     {
         this.template.update(
-                "INSERT INTO idm.user (email, user_status_id, salt, hashed_password)" +
-                        "VALUES (:email, :userStatusId, :salt, :hashedPassword)",
+                "addUserToDB",
+                "INSERT INTO idm.user (email, user_status_id, salt, hashed_password, hash_version, hash_iterations)" +
+                        "VALUES (:email, :userStatusId, :salt, :hashedPassword, :hashVersion, :hashIterations)",
                 new MapSqlParameterSource()
-                        .addValue("email", email)
+                        .addValue("email", user.getEmail())
                         .addValue("userStatusId", UserStatus.ACTIVE.id())
-                        .addValue("salt", salt)
-                        .addValue("hashedPassword", password)
+                        .addValue("salt", user.getSalt())
+                        .addValue("hashedPassword", user.getHashedPassword())
+                        .addValue("hashVersion", user.getHashVersion().id())
+                        .addValue("hashIterations", user.getHashIterations())
         );
     }
 
-    // select a user with the matching email
-    // if such email exists, return exactly ONE object
-    // if not, throw an exception
-    public User selectAUser(String email)
+    // replace the password hash of a user, but only if it is still the one that
+    // was verified (a concurrent password change wins over a rehash)
+    public void updateUserPassword(User user, String previousHashedPassword)
     {
-        try {
-            User user = this.template.queryForObject(
-                    "SELECT id, email, user_status_id, salt, hashed_password " +
-                            "FROM idm.user " +
-                            "WHERE email = :email",
-
-                    new MapSqlParameterSource()
-                            .addValue("email", email, Types.VARCHAR),
+        this.template.update(
+                "updateUserPassword",
+                "UPDATE idm.user " +
+                "SET salt = :salt, hashed_password = :hashedPassword, " +
+                "hash_version = :hashVersion, hash_iterations = :hashIterations " +
+                "WHERE id = :id AND hashed_password = :previousHashedPassword",
 
-                    (rs, rowNum) ->
-                            new User()
-                                    .setId(rs.getInt("id"))
-                                    .setEmail(rs.getString("email"))
-                                    .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
-                                    .setSalt(rs.getString("salt"))
-                                    .setHashedPassword(rs.getString("hashed_password"))
-            );
-            return user;
-        } catch (EmptyResultDataAccessException e) {
-            throw new ResultError(IDMResults.USER_NOT_FOUND);
-        }
+                new MapSqlParameterSource()
+                        .addValue("salt", user.getSalt())
+                        .addValue("hashedPassword", user.getHashedPassword())
+                        .addValue("hashVersion", user.getHashVersion().id())
+                        .addValue("hashIterations", user.getHashIterations())
+                        .addValue("id", user.getId())
+                        .addValue("previousHashedPassword", previousHashedPassword)
+        );
     }
 
-    public void addRefreshTokenToDB(String token, Integer userId, TokenStatus tokenStatus, Instant expireTime, Instant maxLifeTime)
+    // lock every listed user that is still active in a single statement
+    @Override
+    public void updateUsersAsLocked(List<Integer> userIds)
     {
         this.template.update(
-                "INSERT INTO idm.refresh_token (token, user_id, token_status_id, expire_time, max_life_time) " +
-                        "VALUES (:token, :userId, :tokenStatus, :expireTime, :maxLifeTime)",
+                "updateUsersAsLocked",
+                "UPDATE idm.user " +
+                "SET user_status_id = :locked " +
+                "WHERE id IN (:ids) AND user_status_id = :active",
 
                 new MapSqlParameterSource()
-                        .addValue("token", token)
-                        .addValue("userId", userId)
-                        .addValue("tokenStatus", tokenStatus.id())
-                        .addValue("expireTime", Timestamp.from(expireTime))
-                        .addValue("maxLifeTime", Timestamp.from(maxLifeTime))
+                        .addValue("locked", UserStatus.LOCKED.id())
+                        .addValue("active", UserStatus.ACTIVE.id())
+                        .addValue("ids", userIds)
         );
     }
 
-    public RefreshToken selectAToken(String token)
+    // written behind by RefreshExpiryBuffer, never revives a token or moves its expiry back
+    @Override
+    public void updateRefreshTokenExpireTimes(Map<String, Instant> expireTimes)
     {
-        try {
-            RefreshToken refreshToken = this.template.queryForObject(
-                    "SELECT id, token, user_id, token_status_id, expire_time, max_life_time " +
-                    "FROM idm.refresh_token " +
-                    "WHERE token = :token",
+        SqlParameterSource[] batch = expireTimes.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("tokenHash", tokenHash(entry.getKey()))
+                        .addValue("expireTime", Timestamp.from(entry.getValue()))
+                        .addValue("active", TokenStatus.ACTIVE.id()))
+                .toArray(SqlParameterSource[]::new);
 
-                    new MapSqlParameterSource()
-                            .addValue("token", token, Types.VARCHAR),
-
-                    (rs, rowCount) ->
-                            new RefreshToken()
-                                    .setId(rs.getInt("id"))
-                                    .setToken(rs.getString("token"))
-                                    .setUserId(rs.getInt("user_id"))
-                                    .setTokenStatus(TokenStatus.fromId(rs.getInt("token_status_id")))
-                                    .setExpireTime(rs.getTimestamp("expire_time").toInstant())
-                                    .setMaxLifeTime(rs.getTimestamp("max_life_time").toInstant())
-            );
-            return refreshToken;
-        } catch (EmptyResultDataAccessException e) {
-            throw new ResultError(IDMResults.REFRESH_TOKEN_NOT_FOUND);
-        }
-    }
-
-    public void updateRefreshTokenAsExpired(RefreshToken refreshToken)
-    {
-        this.template.update(
+        this.template.batchUpdate(
+                "updateRefreshTokenExpireTimes",
                 "UPDATE idm.refresh_token " +
-                "SET token_status_id = :status " +
-                "WHERE id = :id",
-
-                new MapSqlParameterSource()
-                        .addValue("status", refreshToken.getTokenStatus().id())
-                        .addValue("id", refreshToken.getId())
+                "SET expire_time = :expireTime " +
+                "WHERE token_hash = :tokenHash AND token_status_id = :active AND expire_time < :expireTime",
+                batch
         );
     }
 
-    public void updateRefreshTokenExpireTime(RefreshToken refreshToken)
+    // RefreshTokenReaper, ordered so each chunk walks the expire_time index from the oldest row
+    @Override
+    public int deleteDeadRefreshTokens(Instant cutoff, int limit)
     {
-        this.template.update(
-                "UPDATE idm.refresh_token " +
-                "SET expire_time = :expireTime " +
-                "WHERE id = :id",
+        return this.template.update(
+                "deleteDeadRefreshTokens",
+                "DELETE FROM idm.refresh_token " +
+                "WHERE expire_time < :cutoff " +
+                "ORDER BY expire_time " +
+                "LIMIT :limit",
 
                 new MapSqlParameterSource()
-                        .addValue("expireTime", Timestamp.from(refreshToken.getExpireTime()))
-                        .addValue("id", refreshToken.getId())
+                        .addValue("cutoff", Timestamp.from(cutoff))
+                        .addValue("limit", limit)
         );
     }
 
-    public void updateRefreshTokenAsRevoked(RefreshToken refreshToken)
+    @Override
+    public long rotateRefreshTokenPartitions(Instant cutoff, Instant until)
     {
-        this.template.update(
-                "UPDATE idm.refresh_token " +
-                "SET token_status_id = :status " +
-                "WHERE id = :id",
+        Long dropped = this.template.queryForObject(
+                "rotateRefreshTokenPartitions",
+                "CALL idm.rotate_refresh_token_partitions(:cutoff, :until)",
 
                 new MapSqlParameterSource()
-                        .addValue("status", refreshToken.getTokenStatus().id())
-                        .addValue("id", refreshToken.getId())
+                        .addValue("cutoff", Timestamp.from(cutoff))
+                        .addValue("until", Timestamp.from(until)),
+
+                Long.class
         );
+
+        return dropped == null ? 0 : dropped;
     }
 
-    public User selectUserFromRefreshToken(RefreshToken refreshToken)
+    // select a user with the matching email, together with their roles
+    // if such email exists, return exactly ONE object
+    // if not, throw an exception
+    public User selectAUser(String email)
     {
         try {
             User user = this.template.queryForObject(
-                    "SELECT id, email, user_status_id, salt, hashed_password " +
-                    "FROM idm.user " +
-                    "WHERE id = :id",
+                    "selectAUser",
+                    "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, " +
+                            "u.hash_version, u.hash_iterations, CAST(BIT_OR(1 << ur.role_id) AS SIGNED) AS role_mask " +
+                            "FROM idm.user u " +
+                            "LEFT JOIN idm.user_role ur ON ur.user_id = u.id " +
+                            "WHERE u.email = :email " +
+                            "GROUP BY u.id",
 
                     new MapSqlParameterSource()
-                            .addValue("id", refreshToken.getUserId(), Types.INTEGER),
+                            .addValue("email", email, Types.VARCHAR),
 
                     (rs, rowNum) ->
                             new User()
@@ -174,10 +179,91 @@ public class IDMRepo
                                     .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
                                     .setSalt(rs.getString("salt"))
                                     .setHashedPassword(rs.getString("hashed_password"))
+                                    .setHashVersion(PasswordHashVersion.fromId(rs.getInt("hash_version")))
+                                    .setHashIterations(rs.getInt("hash_iterations"))
+                                    .setRoleMask(rs.getLong("role_mask"))
             );
             return user;
         } catch (EmptyResultDataAccessException e) {
             throw new ResultError(IDMResults.USER_NOT_FOUND);
         }
     }
-}
\ No newline at end of file
+
+    public void addRefreshTokenToDB(String token, Integer userId, TokenStatus tokenStatus, Instant expireTime, Instant maxLifeTime)
+    {
+        this.template.update(
+                "addRefreshTokenToDB",
+                plainTokens ?
+                "INSERT INTO idm.refresh_token (token, token_hash, user_id, token_status_id, expire_time, max_life_time) " +
+                        "VALUES (:token, :tokenHash, :userId, :tokenStatus, :expireTime, :maxLifeTime)" :
+                "INSERT INTO idm.refresh_token (token_hash, user_id, token_status_id, expire_time, max_life_time) " +
+                        "VALUES (:tokenHash, :userId, :tokenStatus, :expireTime, :maxLifeTime)",
+
+                new MapSqlParameterSource()
+                        .addValue("token", plainTokens ? token : null, Types.VARCHAR)
+                        .addValue("tokenHash", tokenHash(token))
+                        .addValue("userId", userId)
+                        .addValue("tokenStatus", tokenStatus.id())
+                        .addValue("expireTime", Timestamp.from(expireTime))
+                        .addValue("maxLifeTime", Timestamp.from(maxLifeTime))
+        );
+    }
+
+    // checks, extends or rotates a refresh token and loads its user in one call,
+    // see idm.refresh_access in db/idm-schema.sql. the user is null when the token was not found
+    // pendingExpireTime is the extension RefreshExpiryBuffer has not written yet, may be null.
+    // without loadUser the user only has its id. replacement may be null, a token that has to
+    // rotate is then left unchanged with REPLACEMENT_NEEDED
+    public RefreshResult refreshAccess(String token, Instant now, Instant expireTime, Instant pendingExpireTime,
+                                       RefreshToken replacement, boolean loadUser)
+    {
+        return this.template.queryForObject(
+                "refreshAccess",
+                "CALL idm.refresh_access(:token, :tokenHash, :now, :expireTime, :pendingExpireTime, " +
+                ":newToken, :newTokenHash, :newExpireTime, :newMaxLifeTime, :loadUser)",
+
+                new MapSqlParameterSource()
+                        .addValue("token", plainTokens ? token : null, Types.VARCHAR)
+                        .addValue("tokenHash", tokenHash(token))
+                        .addValue("now", Timestamp.from(now))
+                        .addValue("expireTime", Timestamp.from(expireTime))
+                        .addValue("pendingExpireTime",
+                                  pendingExpireTime == null ? null : Timestamp.from(pendingExpireTime),
+                                  Types.TIMESTAMP)
+                        .addValue("newToken", plainTokens && replacement != null ? replacement.getToken() : null,
+                                  Types.VARCHAR)
+                        .addValue("newTokenHash", replacement == null ? null : tokenHash(replacement.getToken()),
+                                  Types.BINARY)
+                        .addValue("newExpireTime", replacement == null ? null : Timestamp.from(replacement.getExpireTime()),
+                                  Types.TIMESTAMP)
+                        .addValue("newMaxLifeTime", replacement == null ? null : Timestamp.from(replacement.getMaxLifeTime()),
+                                  Types.TIMESTAMP)
+                        .addValue("loadUser", loadUser),
+
+                (rs, rowNum) ->
+                        new RefreshResult()
+                                .setOutcome(RefreshOutcome.fromId(rs.getInt("outcome")))
+                                .setRefreshToken(RefreshOutcome.fromId(rs.getInt("outcome")) == RefreshOutcome.ROTATED ?
+                                                 replacement.getToken() : token)
+                                .setStoredExpireTime(rs.getTimestamp("stored_expire_time") == null ? null :
+                                                             rs.getTimestamp("stored_expire_time").toInstant())
+                                .setUser(rs.getObject("id") == null ? null :
+                                         rs.getObject("email") == null ? new User().setId(rs.getInt("id")) :
+                                        new User()
+                                                .setId(rs.getInt("id"))
+                                                .setEmail(rs.getString("email"))
+                                                .setUserStatus(UserStatus.fromId(rs.getInt("user_status_id")))
+                                                .setSalt(rs.getString("salt"))
+                                                .setHashedPassword(rs.getString("hashed_password"))
+                                                .setHashVersion(PasswordHashVersion.fromId(rs.getInt("hash_version")))
+                                                .setHashIterations(rs.getInt("hash_iterations"))
+                                                .setRoleMask(rs.getLong("role_mask")))
+        );
+    }
+
+    // the SHA-256 digest tokens are stored and looked up by, same as UNHEX(SHA2(token, 256))
+    static byte[] tokenHash(String token)
+    {
+        return TokenDigestCache.digest(token).array();
+    }
+}
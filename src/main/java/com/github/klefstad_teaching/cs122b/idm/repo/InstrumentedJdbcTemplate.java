@@ -0,0 +1,117 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// the NamedParameterJdbcTemplate calls IDMRepo makes, each under a statement name
+// (the repo method). every call is timed as idm.jdbc.statement{statement, exception}
+// and its row count recorded as idm.jdbc.statement.rows{statement}. the time covers
+// borrowing the connection, waiting on row locks and reading the result; the pool
+// wait alone is hikaricp.connections.acquire, which spring boot registers for hikari
+@Component
+@Profile("!reactive")
+public class InstrumentedJdbcTemplate
+{
+    private static final String NO_EXCEPTION = "none";
+
+    private final NamedParameterJdbcTemplate template;
+    private final MeterRegistry              registry;
+
+    private final Map<String, DistributionSummary> rows   = new ConcurrentHashMap<>();
+    private final Map<String, Timer>               timers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public InstrumentedJdbcTemplate(NamedParameterJdbcTemplate template, MeterRegistry registry)
+    {
+        this.template = template;
+        this.registry = registry;
+    }
+
+    public int update(String statement, String sql, SqlParameterSource params)
+    {
+        return record(statement, () -> template.update(sql, params), Integer::longValue);
+    }
+
+    public int[] batchUpdate(String statement, String sql, SqlParameterSource[] batch)
+    {
+        return record(statement, () -> template.batchUpdate(sql, batch), InstrumentedJdbcTemplate::sum);
+    }
+
+    public <T> T queryForObject(String statement, String sql, SqlParameterSource params, RowMapper<T> rowMapper)
+    {
+        return record(statement, () -> template.queryForObject(sql, params, rowMapper), result -> 1L);
+    }
+
+    public <T> T queryForObject(String statement, String sql, SqlParameterSource params, Class<T> requiredType)
+    {
+        return record(statement, () -> template.queryForObject(sql, params, requiredType), result -> 1L);
+    }
+
+    private <T> T record(String statement, Supplier<T> call, RowCount<T> rowCount)
+    {
+        long start = System.nanoTime();
+        String exception = NO_EXCEPTION;
+        long rowsAffected = 0;
+
+        try {
+            T result = call.get();
+            rowsAffected = rowCount.of(result);
+            return result;
+        } catch (EmptyResultDataAccessException e) {
+            // a lookup that found nothing, not a failure
+            throw e;
+        } catch (RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            timer(statement, exception).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            rows.computeIfAbsent(statement, this::rowSummary).record(rowsAffected);
+        }
+    }
+
+    private Timer timer(String statement, String exception)
+    {
+        return timers.computeIfAbsent(statement + '/' + exception, key ->
+                Timer.builder("idm.jdbc.statement")
+                        .tag("statement", statement)
+                        .tag("exception", exception)
+                        .register(registry));
+    }
+
+    private DistributionSummary rowSummary(String statement)
+    {
+        return DistributionSummary.builder("idm.jdbc.statement.rows")
+                .tag("statement", statement)
+                .register(registry);
+    }
+
+    // batch entries may be SUCCESS_NO_INFO (-2), those count as no rows
+    private static long sum(int[] counts)
+    {
+        long sum = 0;
+
+        for (int count : counts)
+            sum += Math.max(0, count);
+
+        return sum;
+    }
+
+    @FunctionalInterface
+    private interface RowCount<T>
+    {
+        long of(T result);
+    }
+}
@@ -0,0 +1,250 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenStorageConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// the IDMRepo queries on R2DBC, used by the "reactive" profile.
+// timestamps are converted in the JVM zone, same as java.sql.Timestamp does in IDMRepo
+@Component
+@Profile("reactive")
+public class ReactiveIDMRepo implements UserLockWriter, RefreshExpiryWriter, RefreshTokenReclaimer
+{
+
+    private final DatabaseClient client;
+    private final boolean        plainTokens;
+
+    @Autowired
+    public ReactiveIDMRepo(DatabaseClient client, RefreshTokenStorageConfig storageConfig)
+    {
+        this.client = client;
+        this.plainTokens = storageConfig.plainTokens();
+    }
+
+    public Mono<Void> addUserToDB(User user)
+    {
+        return client.sql(
+                "INSERT INTO idm.user (email, user_status_id, salt, hashed_password, hash_version, hash_iterations) " +
+                "VALUES (:email, :userStatusId, :salt, :hashedPassword, :hashVersion, :hashIterations)")
+                .bind("email", user.getEmail())
+                .bind("userStatusId", UserStatus.ACTIVE.id())
+                .bind("salt", user.getSalt())
+                .bind("hashedPassword", user.getHashedPassword())
+                .bind("hashVersion", user.getHashVersion().id())
+                .bind("hashIterations", user.getHashIterations())
+                .then();
+    }
+
+    public Mono<Void> updateUserPassword(User user, String previousHashedPassword)
+    {
+        return client.sql(
+                "UPDATE idm.user " +
+                "SET salt = :salt, hashed_password = :hashedPassword, " +
+                "hash_version = :hashVersion, hash_iterations = :hashIterations " +
+                "WHERE id = :id AND hashed_password = :previousHashedPassword")
+                .bind("salt", user.getSalt())
+                .bind("hashedPassword", user.getHashedPassword())
+                .bind("hashVersion", user.getHashVersion().id())
+                .bind("hashIterations", user.getHashIterations())
+                .bind("id", user.getId())
+                .bind("previousHashedPassword", previousHashedPassword)
+                .then();
+    }
+
+    // LoginAttemptTracker calls this from the hash scheduler, never from the event loop
+    @Override
+    public void updateUsersAsLocked(List<Integer> userIds)
+    {
+        client.sql(
+                "UPDATE idm.user " +
+                "SET user_status_id = :locked " +
+                "WHERE id IN (:ids) AND user_status_id = :active")
+                .bind("locked", UserStatus.LOCKED.id())
+                .bind("active", UserStatus.ACTIVE.id())
+                .bind("ids", userIds)
+                .then()
+                .block();
+    }
+
+    // RefreshExpiryBuffer flushes from its own thread, same statement as IDMRepo
+    @Override
+    public void updateRefreshTokenExpireTimes(Map<String, Instant> expireTimes)
+    {
+        client.inConnectionMany(connection -> {
+            Statement statement = connection.createStatement(
+                    "UPDATE idm.refresh_token " +
+                    "SET expire_time = ? " +
+                    "WHERE token_hash = ? AND token_status_id = ? AND expire_time < ?");
+
+            Iterator<Map.Entry<String, Instant>> iterator = expireTimes.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, Instant> entry = iterator.next();
+                LocalDateTime expireTime = toDateTime(entry.getValue());
+
+                statement.bind(0, expireTime)
+                         .bind(1, IDMRepo.tokenHash(entry.getKey()))
+                         .bind(2, TokenStatus.ACTIVE.id())
+                         .bind(3, expireTime);
+
+                if (iterator.hasNext())
+                    statement.add();
+            }
+
+            return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+        }).then().block();
+    }
+
+    // RefreshTokenReaper runs on its own thread, same statements as IDMRepo
+    @Override
+    public int deleteDeadRefreshTokens(Instant cutoff, int limit)
+    {
+        Integer deleted = client.sql(
+                "DELETE FROM idm.refresh_token " +
+                "WHERE expire_time < :cutoff " +
+                "ORDER BY expire_time " +
+                "LIMIT :limit")
+                .bind("cutoff", toDateTime(cutoff))
+                .bind("limit", limit)
+                .fetch()
+                .rowsUpdated()
+                .block();
+
+        return deleted == null ? 0 : deleted;
+    }
+
+    @Override
+    public long rotateRefreshTokenPartitions(Instant cutoff, Instant until)
+    {
+        Long dropped = client.sql("CALL idm.rotate_refresh_token_partitions(:cutoff, :until)")
+                .bind("cutoff", toDateTime(cutoff))
+                .bind("until", toDateTime(until))
+                .map((row, metadata) -> row.get(0, Long.class))
+                .one()
+                .block();
+
+        return dropped == null ? 0 : dropped;
+    }
+
+    public Mono<User> selectAUser(String email)
+    {
+        return client.sql(
+                "SELECT u.id, u.email, u.user_status_id, u.salt, u.hashed_password, " +
+                "u.hash_version, u.hash_iterations, CAST(BIT_OR(1 << ur.role_id) AS SIGNED) AS role_mask " +
+                "FROM idm.user u " +
+                "LEFT JOIN idm.user_role ur ON ur.user_id = u.id " +
+                "WHERE u.email = :email " +
+                "GROUP BY u.id")
+                .bind("email", email)
+                .map((row, metadata) -> toUser(row))
+                .one()
+                .switchIfEmpty(Mono.error(() -> new ResultError(IDMResults.USER_NOT_FOUND)));
+    }
+
+    public Mono<Void> addRefreshTokenToDB(RefreshToken refreshToken)
+    {
+        DatabaseClient.GenericExecuteSpec spec = plainTokens ?
+                client.sql("INSERT INTO idm.refresh_token (token, token_hash, user_id, token_status_id, expire_time, max_life_time) " +
+                           "VALUES (:token, :tokenHash, :userId, :tokenStatus, :expireTime, :maxLifeTime)")
+                        .bind("token", refreshToken.getToken()) :
+                client.sql("INSERT INTO idm.refresh_token (token_hash, user_id, token_status_id, expire_time, max_life_time) " +
+                           "VALUES (:tokenHash, :userId, :tokenStatus, :expireTime, :maxLifeTime)");
+
+        return spec
+                .bind("tokenHash", IDMRepo.tokenHash(refreshToken.getToken()))
+                .bind("userId", refreshToken.getUserId())
+                .bind("tokenStatus", refreshToken.getTokenStatus().id())
+                .bind("expireTime", toDateTime(refreshToken.getExpireTime()))
+                .bind("maxLifeTime", toDateTime(refreshToken.getMaxLifeTime()))
+                .then();
+    }
+
+    // same call as IDMRepo.refreshAccess
+    public Mono<RefreshResult> refreshAccess(String token, Instant now, Instant expireTime, Instant pendingExpireTime,
+                                             RefreshToken replacement, boolean loadUser)
+    {
+        DatabaseClient.GenericExecuteSpec spec = client.sql(
+                "CALL idm.refresh_access(:token, :tokenHash, :now, :expireTime, :pendingExpireTime, " +
+                ":newToken, :newTokenHash, :newExpireTime, :newMaxLifeTime, :loadUser)");
+
+        spec = bindNullable(spec, "token", plainTokens ? token : null, String.class);
+        spec = bindNullable(spec, "newToken", plainTokens && replacement != null ? replacement.getToken() : null,
+                            String.class);
+        spec = bindNullable(spec, "pendingExpireTime",
+                            pendingExpireTime == null ? null : toDateTime(pendingExpireTime), LocalDateTime.class);
+        spec = bindNullable(spec, "newTokenHash",
+                            replacement == null ? null : IDMRepo.tokenHash(replacement.getToken()), byte[].class);
+        spec = bindNullable(spec, "newExpireTime",
+                            replacement == null ? null : toDateTime(replacement.getExpireTime()), LocalDateTime.class);
+        spec = bindNullable(spec, "newMaxLifeTime",
+                            replacement == null ? null : toDateTime(replacement.getMaxLifeTime()), LocalDateTime.class);
+
+        return spec
+                .bind("tokenHash", IDMRepo.tokenHash(token))
+                .bind("now", toDateTime(now))
+                .bind("expireTime", toDateTime(expireTime))
+                .bind("loadUser", loadUser)
+                .map((row, metadata) ->
+                        new RefreshResult()
+                                .setOutcome(RefreshOutcome.fromId(row.get("outcome", Integer.class)))
+                                .setRefreshToken(RefreshOutcome.fromId(row.get("outcome", Integer.class)) ==
+                                                 RefreshOutcome.ROTATED ? replacement.getToken() : token)
+                                .setStoredExpireTime(toInstant(row.get("stored_expire_time", LocalDateTime.class)))
+                                .setUser(row.get("id") == null ? null :
+                                         row.get("email") == null ? new User().setId(row.get("id", Integer.class)) :
+                                         toUser(row)))
+                .one();
+    }
+
+    private static User toUser(Row row)
+    {
+        return new User()
+                .setId(row.get("id", Integer.class))
+                .setEmail(row.get("email", String.class))
+                .setUserStatus(UserStatus.fromId(row.get("user_status_id", Integer.class)))
+                .setSalt(row.get("salt", String.class))
+                .setHashedPassword(row.get("hashed_password", String.class))
+                .setHashVersion(PasswordHashVersion.fromId(row.get("hash_version", Integer.class)))
+                .setHashIterations(row.get("hash_iterations", Integer.class))
+                .setRoleMask(row.get("role_mask") == null ? 0 : row.get("role_mask", Long.class));
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec,
+                                                                  String name, Object value, Class<?> type)
+    {
+        return value == null ? spec.bindNull(name, type) : spec.bind(name, value);
+    }
+
+    private static LocalDateTime toDateTime(Instant instant)
+    {
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+
+    private static Instant toInstant(LocalDateTime dateTime)
+    {
+        return dateTime == null ? null : dateTime.atZone(ZoneId.systemDefault()).toInstant();
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import java.time.Instant;
+import java.util.Map;
+
+// the batch write RefreshExpiryBuffer flushes with, implemented by both repositories
+public interface RefreshExpiryWriter
+{
+    // token -> new expire time, only moves the expiry of active tokens forward
+    void updateRefreshTokenExpireTimes(Map<String, Instant> expireTimes);
+}
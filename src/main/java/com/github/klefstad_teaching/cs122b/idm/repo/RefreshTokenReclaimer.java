@@ -0,0 +1,14 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import java.time.Instant;
+
+// the deletes RefreshTokenReaper runs, implemented by both repositories
+public interface RefreshTokenReclaimer
+{
+    // deletes at most limit rows whose expire time is before cutoff, returns the rows deleted
+    int deleteDeadRefreshTokens(Instant cutoff, int limit);
+
+    // drops the partitions that only hold rows whose max life time is before cutoff and
+    // adds partitions up to until, returns the (estimated) rows dropped
+    long rotateRefreshTokenPartitions(Instant cutoff, Instant until);
+}
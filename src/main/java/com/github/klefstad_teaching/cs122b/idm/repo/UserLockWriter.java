@@ -0,0 +1,11 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import java.util.List;
+
+// the one write LoginAttemptTracker needs, implemented by both the blocking
+// and the reactive repository so the tracker works in either deployment mode
+public interface UserLockWriter
+{
+    // lock every listed user that is still active
+    void updateUsersAsLocked(List<Integer> userIds);
+}
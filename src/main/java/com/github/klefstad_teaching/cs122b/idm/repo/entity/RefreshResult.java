@@ -0,0 +1,60 @@
+package com.github.klefstad_teaching.cs122b.idm.repo.entity;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
+
+import java.time.Instant;
+
+// the single row idm.refresh_access returns
+public class RefreshResult
+{
+    private RefreshOutcome outcome;
+    // the refresh token the client should keep, the new one after a rotation
+    private String         refreshToken;
+    // expire_time as stored, before any buffered extension, null if the token was not found
+    private Instant        storedExpireTime;
+    private User           user;
+
+    public RefreshOutcome getOutcome()
+    {
+        return outcome;
+    }
+
+    public RefreshResult setOutcome(RefreshOutcome outcome)
+    {
+        this.outcome = outcome;
+        return this;
+    }
+
+    public String getRefreshToken()
+    {
+        return refreshToken;
+    }
+
+    public RefreshResult setRefreshToken(String refreshToken)
+    {
+        this.refreshToken = refreshToken;
+        return this;
+    }
+
+    public Instant getStoredExpireTime()
+    {
+        return storedExpireTime;
+    }
+
+    public RefreshResult setStoredExpireTime(Instant storedExpireTime)
+    {
+        this.storedExpireTime = storedExpireTime;
+        return this;
+    }
+
+    public User getUser()
+    {
+        return user;
+    }
+
+    public RefreshResult setUser(User user)
+    {
+        this.user = user;
+        return this;
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.klefstad_teaching.cs122b.idm.repo.entity;
 
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
 import org.springframework.jdbc.core.RowMapper;
@@ -20,6 +21,11 @@ public class User
     private String     salt;
     private String     hashedPassword;
 
+    private PasswordHashVersion hashVersion;
+    private Integer             hashIterations;
+
+    // roles as loaded, turned into the list on first use of getRoles
+    private long       roleMask;
     private List<Role> roles;
 
     public Integer getId()
@@ -77,15 +83,52 @@ public class User
         return this;
     }
 
+    public PasswordHashVersion getHashVersion()
+    {
+        return hashVersion;
+    }
+
+    public User setHashVersion(PasswordHashVersion hashVersion)
+    {
+        this.hashVersion = hashVersion;
+        return this;
+    }
+
+    public Integer getHashIterations()
+    {
+        return hashIterations;
+    }
+
+    public User setHashIterations(Integer hashIterations)
+    {
+        this.hashIterations = hashIterations;
+        return this;
+    }
+
     public List<Role> getRoles()
     {
         if (roles == null) {
-            this.roles = new ArrayList<>();
+            this.roles = new ArrayList<>(Role.fromMask(roleMask));
         }
 
         return roles;
     }
 
+    public long getRoleMask()
+    {
+        return roles == null ? roleMask : Role.toMask(roles);
+    }
+
+    public User setRoleMask(long roleMask)
+    {
+        // fails for a role id this build does not know
+        Role.fromMask(roleMask);
+
+        this.roleMask = roleMask;
+        this.roles = null;
+        return this;
+    }
+
     public User setRoles(Role... roles)
     {
         getRoles().addAll(Arrays.asList(roles));
@@ -0,0 +1,38 @@
+package com.github.klefstad_teaching.cs122b.idm.repo.entity.type;
+
+public enum PasswordHashVersion
+{
+    // original format, PBKDF2WithHmacSHA512 with fixed iterations and a 4 byte salt
+    PBKDF2_SHA512_FIXED(1, 10000, 4),
+    // iteration count calibrated per deployment and stored in hash_iterations
+    PBKDF2_SHA512(2, 0, 16);
+
+    private final int id;
+    private final int fixedIterations;
+    private final int saltByteLength;
+
+    PasswordHashVersion(int id, int fixedIterations, int saltByteLength)
+    {
+        this.id = id;
+        this.fixedIterations = fixedIterations;
+        this.saltByteLength = saltByteLength;
+    }
+
+    public int id() { return id; }
+
+    // 0 when the iteration count is stored per user
+    public int fixedIterations() { return fixedIterations; }
+
+    public int saltByteLength() { return saltByteLength; }
+
+    public static PasswordHashVersion fromId(int id)
+    {
+        for (PasswordHashVersion type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException("Id not found");
+    }
+}
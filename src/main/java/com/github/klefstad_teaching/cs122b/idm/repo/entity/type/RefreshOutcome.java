@@ -0,0 +1,33 @@
+package com.github.klefstad_teaching.cs122b.idm.repo.entity.type;
+
+// what idm.refresh_access did with the refresh token, see db/idm-schema.sql
+public enum RefreshOutcome
+{
+    NOT_FOUND(1),
+    EXPIRED(2),
+    REVOKED(3),
+    EXTENDED(4),
+    ROTATED(5),
+    // has to be rotated but no replacement was passed, nothing was changed
+    REPLACEMENT_NEEDED(6);
+
+    private final int id;
+
+    RefreshOutcome(int id)
+    {
+        this.id = id;
+    }
+
+    public int id() { return id; }
+
+    public static RefreshOutcome fromId(int id)
+    {
+        for (RefreshOutcome type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException("Id not found");
+    }
+}
@@ -3,12 +3,53 @@ package com.github.klefstad_teaching.cs122b.idm.repo.entity.type;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public enum Role
 {
     ADMIN(1, "Admin", "Role for admin access", 5),
     EMPLOYEE(2, "Employee", "Role for internal employees", 10),
     PREMIUM(3, "Premium", "Role for premium users", 15);
 
+    // a set of roles as one number, bit id set for every role (BIT_OR(1 << role_id) in sql)
+    public static final int MASK_LIMIT;
+
+    private static final Role[]            BY_ID;
+    private static final Map<String, Role> BY_NAME = new HashMap<>();
+    private static final List<List<Role>>  BY_MASK = new ArrayList<>();
+
+    static {
+        int maxId = 0;
+
+        for (Role type : values())
+            maxId = Math.max(maxId, type.id);
+
+        BY_ID = new Role[maxId + 1];
+        MASK_LIMIT = 1 << (maxId + 1);
+
+        for (Role type : values()) {
+            BY_ID[type.id] = type;
+            BY_NAME.put(type.name, type);
+        }
+
+        for (int mask = 0; mask < MASK_LIMIT; mask++) {
+            List<Role> roles = new ArrayList<>();
+
+            for (int id = 0; id < BY_ID.length; id++) {
+                if ((mask & 1 << id) != 0)
+                    roles.add(BY_ID[id]);
+            }
+
+            // a bit without a role makes the whole mask invalid
+            BY_MASK.add(roles.contains(null) ? null : Collections.unmodifiableList(roles));
+        }
+    }
+
     private final int    id;
     private final String name;
     private final String description;
@@ -30,27 +71,46 @@ public enum Role
     @JsonCreator
     public static Role creator(String name)
     {
-        for (Role type : values()) {
-            if (type.name.equals(name)) {
-                return type;
-            }
-        }
+        Role type = BY_NAME.get(name);
+
+        if (type == null)
+            throw new IllegalArgumentException("Role not found");
 
-        throw new IllegalArgumentException("Role not found");
+        return type;
     }
 
     public String getDescription() { return description; }
 
     public int getPrecedence() { return precedence; }
 
+    public long mask() { return 1L << id; }
+
     public static Role fromId(int id)
     {
-        for (Role type : values()) {
-            if (type.id == id) {
-                return type;
-            }
-        }
+        if (id < 0 || id >= BY_ID.length || BY_ID[id] == null)
+            throw new IllegalArgumentException("Id not found");
+
+        return BY_ID[id];
+    }
+
+    // the roles in the mask ordered by id, the list is shared and unmodifiable
+    public static List<Role> fromMask(long mask)
+    {
+        List<Role> roles = mask < 0 || mask >= MASK_LIMIT ? null : BY_MASK.get((int) mask);
+
+        if (roles == null)
+            throw new IllegalArgumentException("Role mask not found");
+
+        return roles;
+    }
+
+    public static long toMask(Collection<Role> roles)
+    {
+        long mask = 0;
+
+        for (Role role : roles)
+            mask |= role.mask();
 
-        throw new IllegalArgumentException("Id not found");
+        return mask;
     }
 }
@@ -0,0 +1,79 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.config.BulkheadConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.Bulkhead;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+// splits the shared tomcat pool into bulkheads: the password hashing endpoints
+// are capped so a burst of them always leaves threads for the token endpoints
+// every downstream service calls. runs after RateLimitFilter so clients over
+// their rate never take a slot
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@Profile("!reactive")
+public class BulkheadFilter extends OncePerRequestFilter
+{
+    private final Map<String, Bulkhead> bulkheads;
+
+    @Autowired
+    public BulkheadFilter(BulkheadConfig config, MeterRegistry registry)
+    {
+        Bulkhead credentials = create("credentials", config.credentials(), registry);
+        Bulkhead tokens = create("tokens", config.tokens(), registry);
+
+        this.bulkheads = Map.of(
+                "/login", credentials,
+                "/register", credentials,
+                "/authenticate", tokens,
+                "/authenticate/batch", tokens,
+                "/refresh", tokens
+        );
+    }
+
+    private static Bulkhead create(String name, BulkheadConfig.Limit limit, MeterRegistry registry)
+    {
+        return new Bulkhead(name, limit.maxConcurrent(), limit.maxQueue(), limit.maxWait(), registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+        return !bulkheads.containsKey(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        Bulkhead bulkhead = bulkheads.get(request.getServletPath());
+
+        if (!bulkhead.tryEnter()) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            bulkhead.exit();
+        }
+    }
+}
@@ -1,48 +1,63 @@
 package com.github.klefstad_teaching.cs122b.idm.rest;
 
 import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenBatchVerifier;
 import com.github.klefstad_teaching.cs122b.idm.component.IDMAuthenticationManager;
 import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.config.JwksConfig;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthBatchRequest;
 import com.github.klefstad_teaching.cs122b.idm.model.request.AuthRequest;
 import com.github.klefstad_teaching.cs122b.idm.model.request.LoginRequest;
 import com.github.klefstad_teaching.cs122b.idm.model.request.RefreshRequest;
 import com.github.klefstad_teaching.cs122b.idm.model.request.RegisterRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthBatchResponse;
 import com.github.klefstad_teaching.cs122b.idm.model.response.AuthResponse;
 import com.github.klefstad_teaching.cs122b.idm.model.response.LoginResponse;
 import com.github.klefstad_teaching.cs122b.idm.model.response.RefreshResponse;
 import com.github.klefstad_teaching.cs122b.idm.model.response.RegisterResponse;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
 import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
 import com.github.klefstad_teaching.cs122b.idm.util.Validate;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.proc.BadJOSEException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.text.ParseException;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.List;
 
 @RestController
+@Profile("!reactive")
 public class IDMController
 {
     private final IDMAuthenticationManager authManager;
     private final IDMJwtManager            jwtManager;
+    private final AccessTokenBatchVerifier batchVerifier;
     private final Validate                 validate;
+    private final CacheControl             jwksCacheControl;
 
 
     @Autowired
     public IDMController(IDMAuthenticationManager authManager,
                          IDMJwtManager jwtManager,
-                         Validate validate, NamedParameterJdbcTemplate template)
+                         AccessTokenBatchVerifier batchVerifier,
+                         Validate validate, NamedParameterJdbcTemplate template,
+                         JwksConfig jwksConfig)
     {
         this.authManager = authManager;
         this.jwtManager = jwtManager;
+        this.batchVerifier = batchVerifier;
         this.validate = validate;
+        this.jwksCacheControl = CacheControl.maxAge(jwksConfig.maxAge()).cachePublic();
     }
 
     @PostMapping("/register")
@@ -116,59 +131,21 @@ public class IDMController
         // needs to be UUID formatted string
         validate.validateRefreshTokenFormat(request.getRefreshToken());
 
-        // check if token exists
-        // if not, throw
-        RefreshToken refreshToken = authManager.verifyRefreshTokenExists(request.getRefreshToken());
-
-        // check if token status is EXPIRED
-        // if yes, then throw
-        jwtManager.hasExpiredStatus(refreshToken);
-
-        // check if token status is REVOKED
-        // if yes, then throw
-        jwtManager.hasRevokedStatus(refreshToken);
-
-        // check if current time is after expired time
-        // if so, change token status to EXPIRED then throw
-        if (Instant.now().isAfter(refreshToken.getExpireTime()) ||
-                Instant.now().isAfter(refreshToken.getMaxLifeTime()))
-        {
-            authManager.expireRefreshToken(refreshToken);
-        }
-
-        // update refresh token expire time
-        Duration expireDuration = jwtManager.getRefreshTokenExpireDuration();
-        authManager.updateRefreshTokenExpireTime(refreshToken, expireDuration);
-
-        // check if the new expire time is after the max expire time
-        // if so, change token status to REVOKED, and then return new refreshToken and accessToken
-        if (refreshToken.getExpireTime().isAfter(refreshToken.getMaxLifeTime()))
-        {
-            authManager.revokeRefreshToken(refreshToken);
-            User user = authManager.getUserFromRefreshToken(refreshToken);
-            RefreshToken newRefreshToken = jwtManager.buildRefreshToken(user);
-            String newAccessToken = jwtManager.buildAccessToken(user);
-            authManager.insertRefreshToken(newRefreshToken);
-
-            RefreshResponse response = new RefreshResponse()
-                    .setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN)
-                    .setAccessToken(newAccessToken)
-                    .setRefreshToken(newRefreshToken.getToken());
-            // return the object
-            return ResponseEntity
-                    .status(response.getResult().status())
-                    .body(response);
-        }
-
-        // final condition
+        // check if token exists, is expired or revoked, then extend it, or revoke and
+        // replace it once past its max life time. all in one call to the database,
+        // concurrent refreshes of the same token are serialized there
+        RefreshResult result = authManager.refreshAccess(
+                request.getRefreshToken(),
+                jwtManager.getRefreshTokenExpireDuration(),
+                jwtManager::buildRefreshToken);
+
         // no more error after this part
-        User user = authManager.getUserFromRefreshToken(refreshToken);
-        String newAccessToken = jwtManager.buildAccessToken(user);
+        String newAccessToken = jwtManager.buildAccessToken(result.getUser());
 
         RefreshResponse response = new RefreshResponse()
                 .setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN)
                 .setAccessToken(newAccessToken)
-                .setRefreshToken(refreshToken.getToken());
+                .setRefreshToken(result.getRefreshToken());
         // return the object
         return ResponseEntity
                 .status(response.getResult().status())
@@ -177,7 +154,6 @@ public class IDMController
 
     @PostMapping("/authenticate")
     public ResponseEntity<AuthResponse> authenticate(@RequestBody AuthRequest request)
-            throws BadJOSEException, ParseException, JOSEException
     {
         // verify if token is invalid or expired
         // if yes, then throw exception
@@ -190,4 +166,29 @@ public class IDMController
                 .status(response.getResult().status())
                 .body(response);
     }
-}
\ No newline at end of file
+
+    @PostMapping("/authenticate/batch")
+    public ResponseEntity<AuthBatchResponse> authenticateBatch(@RequestBody AuthBatchRequest request)
+    {
+        // every token gets the same result code /authenticate would have returned for it
+        List<Result> results = batchVerifier.verifyAccessTokens(request.getAccessTokens());
+
+        AuthBatchResponse response = new AuthBatchResponse()
+                .setResults(results);
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(response);
+    }
+
+    @GetMapping("/.well-known/jwks.json")
+    public ResponseEntity<String> jwks()
+    {
+        // only the public key is serialized, consumers use it to verify
+        // access tokens locally instead of calling /authenticate
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(jwksCacheControl)
+                .body(jwtManager.getPublicJWKSet().toString());
+    }
+}
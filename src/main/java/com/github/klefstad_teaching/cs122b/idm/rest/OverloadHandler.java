@@ -0,0 +1,39 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.component.RateLimitedException;
+import com.github.klefstad_teaching.cs122b.idm.component.ServiceOverloadedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.time.Duration;
+
+// shed requests get an empty 503, rate limited ones an empty 429 like RateLimitFilter
+// sends, both with Retry-After in whole seconds
+@RestControllerAdvice
+public class OverloadHandler
+{
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<Void> overloaded(ServiceOverloadedException e)
+    {
+        return retryAfter(HttpStatus.SERVICE_UNAVAILABLE, e.getRetryAfter());
+    }
+
+    @ExceptionHandler(RateLimitedException.class)
+    public ResponseEntity<Void> rateLimited(RateLimitedException e)
+    {
+        return retryAfter(HttpStatus.TOO_MANY_REQUESTS, e.getRetryAfter());
+    }
+
+    private static ResponseEntity<Void> retryAfter(HttpStatus status, Duration retryAfter)
+    {
+        long retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+
+        return ResponseEntity
+                .status(status)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .build();
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.component.LoginRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+// rejects clients that exceed their rate on /login and /register before
+// the body is read or the controller is reached: 429, Retry-After, no body
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@Profile("!reactive")
+public class RateLimitFilter extends OncePerRequestFilter
+{
+    private static final Set<String> LIMITED_PATHS = Set.of("/login", "/register");
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final LoginRateLimiter rateLimiter;
+
+    @Autowired
+    public RateLimitFilter(LoginRateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+        return !LIMITED_PATHS.contains(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        long retryAfterMillis = rateLimiter.acquireForAddress(
+                request.getRemoteAddr(), Collections.list(request.getHeaders(FORWARDED_FOR)));
+
+        if (retryAfterMillis > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString((retryAfterMillis + 999) / 1000));
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+}
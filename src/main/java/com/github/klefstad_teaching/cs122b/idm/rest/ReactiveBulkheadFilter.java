@@ -0,0 +1,73 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.config.BulkheadConfig;
+import com.github.klefstad_teaching.cs122b.idm.util.Bulkhead;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+// BulkheadFilter for the reactive profile. there is no worker thread to hold on
+// netty, the bulkheads cap the requests of each group in flight, so a burst of
+// /login still leaves hash and database capacity for the token endpoints.
+// the event loop must not wait, so a full bulkhead rejects at once (max-queue
+// and max-wait only apply to the servlet stack)
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@Profile("reactive")
+public class ReactiveBulkheadFilter implements WebFilter
+{
+    private final Map<String, Bulkhead> bulkheads;
+
+    @Autowired
+    public ReactiveBulkheadFilter(BulkheadConfig config, MeterRegistry registry)
+    {
+        Bulkhead credentials = create("credentials", config.credentials(), registry);
+        Bulkhead tokens = create("tokens", config.tokens(), registry);
+
+        this.bulkheads = Map.of(
+                "/login", credentials,
+                "/register", credentials,
+                "/authenticate", tokens,
+                "/authenticate/batch", tokens,
+                "/refresh", tokens
+        );
+    }
+
+    private static Bulkhead create(String name, BulkheadConfig.Limit limit, MeterRegistry registry)
+    {
+        return new Bulkhead(name, limit.maxConcurrent(), limit.maxQueue(), limit.maxWait(), registry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+    {
+        Bulkhead bulkhead = bulkheads.get(exchange.getRequest().getPath().pathWithinApplication().value());
+
+        if (bulkhead == null)
+            return chain.filter(exchange);
+
+        return Mono.defer(() -> {
+            if (!bulkhead.tryEnterNow()) {
+                ServerHttpResponse response = exchange.getResponse();
+                response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+                return response.setComplete();
+            }
+
+            // completes, fails or is cancelled when the client goes away
+            return chain.filter(exchange).doFinally(signal -> bulkhead.exit());
+        });
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenBatchVerifier;
+import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.component.ReactiveIDMAuthenticationManager;
+import com.github.klefstad_teaching.cs122b.idm.component.ReactiveSchedulers;
+import com.github.klefstad_teaching.cs122b.idm.config.JwksConfig;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthBatchRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.request.AuthRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.request.LoginRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.request.RefreshRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.request.RegisterRequest;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthBatchResponse;
+import com.github.klefstad_teaching.cs122b.idm.model.response.AuthResponse;
+import com.github.klefstad_teaching.cs122b.idm.model.response.LoginResponse;
+import com.github.klefstad_teaching.cs122b.idm.model.response.RefreshResponse;
+import com.github.klefstad_teaching.cs122b.idm.model.response.RegisterResponse;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.util.Validate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+
+// the IDMController endpoints on WebFlux, active with the "reactive" profile
+@RestController
+@Profile("reactive")
+public class ReactiveIDMController
+{
+    private final ReactiveIDMAuthenticationManager authManager;
+    private final IDMJwtManager                    jwtManager;
+    private final AccessTokenBatchVerifier         batchVerifier;
+    private final ReactiveSchedulers               schedulers;
+    private final Validate                         validate;
+    private final CacheControl                     jwksCacheControl;
+
+    @Autowired
+    public ReactiveIDMController(ReactiveIDMAuthenticationManager authManager,
+                                 IDMJwtManager jwtManager,
+                                 AccessTokenBatchVerifier batchVerifier,
+                                 ReactiveSchedulers schedulers,
+                                 Validate validate,
+                                 JwksConfig jwksConfig)
+    {
+        this.authManager = authManager;
+        this.jwtManager = jwtManager;
+        this.batchVerifier = batchVerifier;
+        this.schedulers = schedulers;
+        this.validate = validate;
+        this.jwksCacheControl = CacheControl.maxAge(jwksConfig.maxAge()).cachePublic();
+    }
+
+    @PostMapping("/register")
+    public Mono<ResponseEntity<RegisterResponse>> register(@RequestBody RegisterRequest request)
+    {
+        validate.validatePassword(request.getPassword());
+        validate.validateEmail(request.getEmail());
+
+        return authManager.createAndInsertUser(request.getEmail(), request.getPassword())
+                .then(Mono.fromSupplier(() -> {
+                    RegisterResponse response = new RegisterResponse()
+                            .setResult(IDMResults.USER_REGISTERED_SUCCESSFULLY);
+                    return ResponseEntity
+                            .status(response.getResult().status())
+                            .body(response);
+                }));
+    }
+
+    @PostMapping("/login")
+    public Mono<ResponseEntity<LoginResponse>> login(@RequestBody LoginRequest request)
+    {
+        validate.validatePassword(request.getPassword());
+        validate.validateEmail(request.getEmail());
+
+        return authManager.selectAndAuthenticateUser(request.getEmail(), request.getPassword())
+                .flatMap(user -> {
+                    RefreshToken refreshToken = jwtManager.buildRefreshToken(user);
+
+                    return schedulers.sign(() -> jwtManager.buildAccessToken(user))
+                            .flatMap(accessToken -> authManager.insertRefreshToken(refreshToken)
+                                    .thenReturn(new LoginResponse()
+                                            .setResult(IDMResults.USER_LOGGED_IN_SUCCESSFULLY)
+                                            .setAccessToken(accessToken)
+                                            .setRefreshToken(refreshToken.getToken())));
+                })
+                .map(response -> ResponseEntity
+                        .status(response.getResult().status())
+                        .body(response));
+    }
+
+    @PostMapping("/refresh")
+    public Mono<ResponseEntity<RefreshResponse>> refresh(@RequestBody RefreshRequest request)
+    {
+        validate.validateRefreshTokenLength(request.getRefreshToken());
+        validate.validateRefreshTokenFormat(request.getRefreshToken());
+
+        return authManager.refreshAccess(
+                        request.getRefreshToken(),
+                        jwtManager.getRefreshTokenExpireDuration(),
+                        jwtManager::buildRefreshToken)
+                .flatMap(result -> schedulers.sign(() -> jwtManager.buildAccessToken(result.getUser()))
+                        .map(accessToken -> new RefreshResponse()
+                                .setResult(IDMResults.RENEWED_FROM_REFRESH_TOKEN)
+                                .setAccessToken(accessToken)
+                                .setRefreshToken(result.getRefreshToken())))
+                .map(response -> ResponseEntity
+                        .status(response.getResult().status())
+                        .body(response));
+    }
+
+    @PostMapping("/authenticate")
+    public Mono<ResponseEntity<AuthResponse>> authenticate(@RequestBody AuthRequest request)
+    {
+        // usually a cache hit, a miss verifies the signature on the sign scheduler
+        return schedulers.sign(() -> {
+                    jwtManager.verifyAccessToken(request.getAccessToken());
+                    return new AuthResponse().setResult(IDMResults.ACCESS_TOKEN_IS_VALID);
+                })
+                .map(response -> ResponseEntity
+                        .status(response.getResult().status())
+                        .body(response));
+    }
+
+    @PostMapping("/authenticate/batch")
+    public Mono<ResponseEntity<AuthBatchResponse>> authenticateBatch(@RequestBody AuthBatchRequest request)
+    {
+        // the batch verifier fans out on its own pool and completes the future there,
+        // no thread waits for the batch
+        return Mono.defer(() -> Mono.fromFuture(batchVerifier.verifyAccessTokensAsync(request.getAccessTokens())))
+                .map(results -> new AuthBatchResponse().setResults(results))
+                .map(response -> ResponseEntity
+                        .status(HttpStatus.OK)
+                        .body(response));
+    }
+
+    @GetMapping("/.well-known/jwks.json")
+    public ResponseEntity<String> jwks()
+    {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(jwksCacheControl)
+                .body(jwtManager.getPublicJWKSet().toString());
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.component.LoginRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+// RateLimitFilter for the reactive profile: 429, Retry-After, no body, before
+// the body is read. the limiter never blocks, so it runs on the event loop
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@Profile("reactive")
+public class ReactiveRateLimitFilter implements WebFilter
+{
+    private static final Set<String> LIMITED_PATHS = Set.of("/login", "/register");
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final LoginRateLimiter rateLimiter;
+
+    @Autowired
+    public ReactiveRateLimitFilter(LoginRateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+    {
+        ServerHttpRequest request = exchange.getRequest();
+
+        if (!LIMITED_PATHS.contains(request.getPath().pathWithinApplication().value()))
+            return chain.filter(exchange);
+
+        long retryAfterMillis = rateLimiter.acquireForAddress(
+                remoteAddress(request), request.getHeaders().getOrEmpty(FORWARDED_FOR));
+
+        if (retryAfterMillis > 0) {
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString((retryAfterMillis + 999) / 1000));
+            return response.setComplete();
+        }
+
+        return chain.filter(exchange);
+    }
+
+    // what getRemoteAddr() returns on the servlet stack
+    private static String remoteAddress(ServerHttpRequest request)
+    {
+        InetSocketAddress address = request.getRemoteAddress();
+
+        if (address == null)
+            return "";
+
+        return address.getAddress() == null ? address.getHostString() : address.getAddress().getHostAddress();
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.idm.model.response.ResultResponse;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+// the servlet stack gets its ResultError handling from the core library,
+// on WebFlux the errors are turned into the same status and body here
+@RestControllerAdvice
+@Profile("reactive")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReactiveResultErrorHandler
+{
+    @ExceptionHandler(ResultError.class)
+    public ResponseEntity<ResultResponse> resultError(ResultError e)
+    {
+        ResultResponse response = new ResultResponse()
+                .setResult(e.getResult());
+        return ResponseEntity
+                .status(response.getResult().status())
+                .body(response);
+    }
+}
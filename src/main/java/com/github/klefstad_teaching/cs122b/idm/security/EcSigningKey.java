@@ -0,0 +1,130 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.idm.util.InstancePool;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.impl.ECDSA;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+
+// ES256 (ECDSA P-256 / SHA-256)
+public final class EcSigningKey implements SigningKey
+{
+    // R || S, 32 bytes each for P-256
+    private static final int SIGNATURE_LENGTH = 64;
+
+    private final ECKey        ecKey;
+    private final ECPrivateKey privateKey;
+    private final ECPublicKey  publicKey;
+
+    // java.security.Signature is not thread safe, one is taken from the pool per call
+    private final InstancePool<Signature> signers;
+    private final InstancePool<Signature> verifiers;
+
+    public EcSigningKey(ECKey ecKey)
+    {
+        try {
+            this.ecKey = ecKey;
+            this.privateKey = ecKey.isPrivate() ? ecKey.toECPrivateKey() : null;
+            this.publicKey = ecKey.toECPublicKey();
+        } catch (JOSEException e) {
+            throw new IllegalArgumentException("Invalid EC key " + ecKey.getKeyID(), e);
+        }
+
+        this.signers = new InstancePool<>(this::newSigner);
+        this.verifiers = new InstancePool<>(this::newVerifier);
+    }
+
+    @Override
+    public String keyId()
+    {
+        return ecKey.getKeyID();
+    }
+
+    @Override
+    public JWSAlgorithm algorithm()
+    {
+        return JWSAlgorithm.ES256;
+    }
+
+    @Override
+    public byte[] sign(byte[] signingInput)
+            throws JOSEException
+    {
+        Signature signer = signers.acquire();
+        byte[] signature;
+
+        try {
+            signer.update(signingInput);
+            signature = signer.sign();
+        } catch (GeneralSecurityException e) {
+            // not released, its state is unknown
+            throw new JOSEException(e.getMessage(), e);
+        }
+
+        // sign() leaves the signer ready for the next token
+        signers.release(signer);
+
+        // DER output transcoded to the fixed length form JWS expects
+        return ECDSA.transcodeSignatureToConcat(signature, SIGNATURE_LENGTH);
+    }
+
+    @Override
+    public boolean verify(byte[] signingInput, byte[] signature)
+    {
+        if (signature.length != SIGNATURE_LENGTH)
+            return false;
+
+        byte[] derSignature;
+
+        try {
+            derSignature = ECDSA.transcodeSignatureToDER(signature);
+        } catch (JOSEException e) {
+            return false;
+        }
+
+        Signature verifier = verifiers.acquire();
+
+        try {
+            verifier.update(signingInput);
+            boolean valid = verifier.verify(derSignature);
+            verifiers.release(verifier);
+            return valid;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public JWK publicJWK()
+    {
+        return ecKey.toPublicJWK();
+    }
+
+    private Signature newSigner()
+    {
+        try {
+            Signature signature = Signature.getInstance("SHA256withECDSA");
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create ES256 signer", e);
+        }
+    }
+
+    private Signature newVerifier()
+    {
+        try {
+            Signature signature = Signature.getInstance("SHA256withECDSA");
+            signature.initVerify(publicKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create ES256 verifier", e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.idm.util.InstancePool;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+// EdDSA over Ed25519 using the JDK provider (java 15+), so no extra crypto library is needed
+public final class EdDsaSigningKey implements SigningKey
+{
+    private static final int KEY_LENGTH       = 32;
+    private static final int SIGNATURE_LENGTH = 64;
+
+    // fixed DER prefixes of Ed25519 keys, the raw 32 key bytes follow them
+    private static final byte[] PKCS8_PREFIX = {
+            0x30, 0x2e, 0x02, 0x01, 0x00, 0x30, 0x05, 0x06,
+            0x03, 0x2b, 0x65, 0x70, 0x04, 0x22, 0x04, 0x20
+    };
+    private static final byte[] X509_PREFIX  = {
+            0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65,
+            0x70, 0x03, 0x21, 0x00
+    };
+
+    private final String     keyId;
+    private final PrivateKey privateKey;
+    private final PublicKey  publicKey;
+    private final byte[]     rawPublicKey;
+
+    private final InstancePool<Signature> signers;
+    private final InstancePool<Signature> verifiers;
+
+    public EdDsaSigningKey(String keyId, PrivateKey privateKey, PublicKey publicKey)
+    {
+        byte[] encoded = publicKey.getEncoded();
+
+        this.keyId = keyId;
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        this.rawPublicKey = Arrays.copyOfRange(encoded, encoded.length - KEY_LENGTH, encoded.length);
+
+        this.signers = new InstancePool<>(this::newSigner);
+        this.verifiers = new InstancePool<>(this::newVerifier);
+    }
+
+    public static EdDsaSigningKey fromJWK(OctetKeyPair jwk)
+    {
+        if (!Curve.Ed25519.equals(jwk.getCurve()))
+            throw new IllegalArgumentException("Only Ed25519 keys are supported, got " + jwk.getCurve());
+
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance("Ed25519");
+
+            PrivateKey privateKey = jwk.isPrivate() ?
+                    keyFactory.generatePrivate(
+                            new PKCS8EncodedKeySpec(concat(PKCS8_PREFIX, jwk.getD().decode()))) :
+                    null;
+            PublicKey publicKey = keyFactory.generatePublic(
+                    new X509EncodedKeySpec(concat(X509_PREFIX, jwk.getX().decode())));
+
+            return new EdDsaSigningKey(jwk.getKeyID(), privateKey, publicKey);
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid Ed25519 key " + jwk.getKeyID(), e);
+        }
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] key)
+    {
+        byte[] encoded = Arrays.copyOf(prefix, prefix.length + key.length);
+        System.arraycopy(key, 0, encoded, prefix.length, key.length);
+        return encoded;
+    }
+
+    @Override
+    public String keyId()
+    {
+        return keyId;
+    }
+
+    @Override
+    public JWSAlgorithm algorithm()
+    {
+        return JWSAlgorithm.EdDSA;
+    }
+
+    @Override
+    public byte[] sign(byte[] signingInput)
+            throws JOSEException
+    {
+        Signature signer = signers.acquire();
+
+        try {
+            signer.update(signingInput);
+            byte[] signature = signer.sign();
+            signers.release(signer);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new JOSEException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean verify(byte[] signingInput, byte[] signature)
+    {
+        if (signature.length != SIGNATURE_LENGTH)
+            return false;
+
+        Signature verifier = verifiers.acquire();
+
+        try {
+            verifier.update(signingInput);
+            boolean valid = verifier.verify(signature);
+            verifiers.release(verifier);
+            return valid;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public JWK publicJWK()
+    {
+        return new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(rawPublicKey))
+                .keyID(keyId)
+                .keyUse(KeyUse.SIGNATURE)
+                .build();
+    }
+
+    private Signature newSigner()
+    {
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create Ed25519 signer", e);
+        }
+    }
+
+    private Signature newVerifier()
+    {
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initVerify(publicKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create Ed25519 verifier", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.idm.util.InstancePool;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+// HS256, only for consumers that are trusted with the shared secret.
+// the secret is never published on the JWKS endpoint
+public final class HmacSigningKey implements SigningKey
+{
+    private static final String MAC_ALGORITHM     = "HmacSHA256";
+    private static final int    MIN_SECRET_LENGTH = 32;
+
+    private final String        keyId;
+    private final SecretKeySpec secret;
+
+    private final InstancePool<Mac> macs;
+
+    public HmacSigningKey(String keyId, byte[] secret)
+    {
+        if (secret.length < MIN_SECRET_LENGTH)
+            throw new IllegalArgumentException("HS256 secret must be at least " + MIN_SECRET_LENGTH + " bytes");
+
+        this.keyId = keyId;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.macs = new InstancePool<>(this::newMac);
+    }
+
+    @Override
+    public String keyId()
+    {
+        return keyId;
+    }
+
+    @Override
+    public JWSAlgorithm algorithm()
+    {
+        return JWSAlgorithm.HS256;
+    }
+
+    @Override
+    public byte[] sign(byte[] signingInput)
+    {
+        Mac mac = macs.acquire();
+        byte[] signature = mac.doFinal(signingInput);
+
+        // doFinal resets the Mac to its keyed state, ready for the next token
+        macs.release(mac);
+        return signature;
+    }
+
+    @Override
+    public boolean verify(byte[] signingInput, byte[] signature)
+    {
+        return MessageDigest.isEqual(sign(signingInput), signature);
+    }
+
+    @Override
+    public JWK publicJWK()
+    {
+        return null;
+    }
+
+    private Mac newMac()
+    {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create HS256 mac", e);
+        }
+    }
+}
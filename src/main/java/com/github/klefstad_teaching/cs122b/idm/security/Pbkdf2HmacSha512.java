@@ -0,0 +1,272 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.idm.util.InstancePool;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// PBKDF2 (RFC 8018) with HMAC-SHA512, producing the same bytes as the JDK's
+// "PBKDF2WithHmacSHA512" SecretKeyFactory (password encoded as UTF-8).
+//
+// the HMAC inner and outer pads are compressed once per password. every iteration
+// then only compresses one block for the inner hash and one for the outer hash,
+// working on 64-bit words without any allocation, where re-keying a Mac costs four
+// compressions plus byte conversions. engines are pooled, buffers are reused
+public final class Pbkdf2HmacSha512
+{
+    private static final int BLOCK_LENGTH = 128;
+    private static final int HASH_LENGTH  = 64;
+    private static final int HASH_WORDS   = 8;
+
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+    };
+
+    // length in bits of pad block + one 64 byte hash, the only message the iterations hash
+    private static final long PAD_AND_HASH_BITS = (BLOCK_LENGTH + HASH_LENGTH) * 8L;
+
+    private static final InstancePool<Pbkdf2HmacSha512> ENGINES = new InstancePool<>(Pbkdf2HmacSha512::new);
+
+    private final MessageDigest sha512;
+
+    private final long[] innerPadState = new long[HASH_WORDS];
+    private final long[] outerPadState = new long[HASH_WORDS];
+    private final long[] state         = new long[HASH_WORDS];
+    private final long[] u             = new long[HASH_WORDS];
+    private final long[] t             = new long[HASH_WORDS];
+    private final long[] w             = new long[80];
+    private final byte[] block         = new byte[BLOCK_LENGTH];
+
+    private Pbkdf2HmacSha512()
+    {
+        try {
+            this.sha512 = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] deriveKey(char[] password, byte[] salt, int iterations, int keyByteLength)
+    {
+        Pbkdf2HmacSha512 engine = ENGINES.acquire();
+        // derive() clears every buffer, even when it throws
+        byte[] derivedKey = engine.derive(password, salt, iterations, keyByteLength);
+        ENGINES.release(engine);
+        return derivedKey;
+    }
+
+    private byte[] derive(char[] password, byte[] salt, int iterations, int keyByteLength)
+    {
+        byte[] key = encode(password);
+
+        try {
+            initPads(key);
+
+            byte[] derivedKey = new byte[keyByteLength];
+
+            for (int index = 1, offset = 0; offset < keyByteLength; index++, offset += HASH_LENGTH) {
+                deriveBlock(salt, index, iterations);
+                writeWords(t, derivedKey, offset, Math.min(HASH_LENGTH, keyByteLength - offset));
+            }
+
+            return derivedKey;
+
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(block, (byte) 0);
+            Arrays.fill(innerPadState, 0);
+            Arrays.fill(outerPadState, 0);
+            Arrays.fill(state, 0);
+            Arrays.fill(u, 0);
+            Arrays.fill(t, 0);
+            Arrays.fill(w, 0);
+        }
+    }
+
+    private static byte[] encode(char[] password)
+    {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] key = Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit());
+        Arrays.fill(encoded.array(), (byte) 0);
+        return key;
+    }
+
+    private void initPads(byte[] key)
+    {
+        // keys longer than a block are hashed first, as HMAC specifies
+        byte[] hmacKey = key.length > BLOCK_LENGTH ? sha512.digest(key) : key;
+
+        Arrays.fill(block, (byte) 0);
+        System.arraycopy(hmacKey, 0, block, 0, hmacKey.length);
+
+        if (hmacKey != key)
+            Arrays.fill(hmacKey, (byte) 0);
+
+        for (int i = 0; i < BLOCK_LENGTH; i++)
+            block[i] ^= 0x36;
+        System.arraycopy(IV, 0, innerPadState, 0, HASH_WORDS);
+        compress(innerPadState, block, 0);
+
+        // 0x36 ^ 0x5c == 0x6a, turns the inner pad into the outer pad
+        for (int i = 0; i < BLOCK_LENGTH; i++)
+            block[i] ^= 0x6a;
+        System.arraycopy(IV, 0, outerPadState, 0, HASH_WORDS);
+        compress(outerPadState, block, 0);
+    }
+
+    // T_index = U_1 ^ U_2 ^ ... ^ U_c, left in t
+    private void deriveBlock(byte[] salt, int index, int iterations)
+    {
+        // U_1 = HMAC(P, S || INT(index)), the only message of arbitrary length
+        byte[] message = Arrays.copyOf(salt, salt.length + 4);
+        message[salt.length] = (byte) (index >>> 24);
+        message[salt.length + 1] = (byte) (index >>> 16);
+        message[salt.length + 2] = (byte) (index >>> 8);
+        message[salt.length + 3] = (byte) index;
+
+        System.arraycopy(innerPadState, 0, state, 0, HASH_WORDS);
+        hashRemainder(state, message);
+        System.arraycopy(state, 0, u, 0, HASH_WORDS);
+        hmacOuter();
+
+        System.arraycopy(u, 0, t, 0, HASH_WORDS);
+
+        // U_j = HMAC(P, U_j-1)
+        for (int j = 1; j < iterations; j++) {
+            System.arraycopy(innerPadState, 0, state, 0, HASH_WORDS);
+            compressHash(state, u);
+            System.arraycopy(state, 0, u, 0, HASH_WORDS);
+            hmacOuter();
+
+            for (int i = 0; i < HASH_WORDS; i++)
+                t[i] ^= u[i];
+        }
+    }
+
+    // u holds the inner hash, replaced by the outer hash
+    private void hmacOuter()
+    {
+        System.arraycopy(outerPadState, 0, state, 0, HASH_WORDS);
+        compressHash(state, u);
+        System.arraycopy(state, 0, u, 0, HASH_WORDS);
+    }
+
+    // finishes a hash that already consumed the 128 byte pad block, message of any length
+    private void hashRemainder(long[] hashState, byte[] message)
+    {
+        long bitLength = (BLOCK_LENGTH + (long) message.length) * 8L;
+        int paddedLength = ((message.length + 1 + 16 + BLOCK_LENGTH - 1) / BLOCK_LENGTH) * BLOCK_LENGTH;
+
+        byte[] padded = Arrays.copyOf(message, paddedLength);
+        padded[message.length] = (byte) 0x80;
+
+        for (int i = 0; i < 8; i++)
+            padded[paddedLength - 1 - i] = (byte) (bitLength >>> (8 * i));
+
+        for (int offset = 0; offset < paddedLength; offset += BLOCK_LENGTH)
+            compress(hashState, padded, offset);
+
+        Arrays.fill(padded, (byte) 0);
+    }
+
+    // finishes a hash that already consumed the pad block with a 64 byte message given
+    // as words: message, 0x80 marker and length all fit in a single block
+    private void compressHash(long[] hashState, long[] message)
+    {
+        System.arraycopy(message, 0, w, 0, HASH_WORDS);
+        w[8] = 0x8000000000000000L;
+        for (int i = 9; i < 15; i++)
+            w[i] = 0;
+        w[15] = PAD_AND_HASH_BITS;
+
+        compressWords(hashState);
+    }
+
+    private void compress(long[] hashState, byte[] data, int offset)
+    {
+        for (int i = 0; i < 16; i++) {
+            long word = 0;
+            for (int b = 0; b < 8; b++)
+                word = (word << 8) | (data[offset + i * 8 + b] & 0xff);
+            w[i] = word;
+        }
+
+        compressWords(hashState);
+    }
+
+    // SHA-512 compression function (FIPS 180-4) over w[0..15]
+    private void compressWords(long[] h)
+    {
+        for (int i = 16; i < 80; i++) {
+            long w15 = w[i - 15];
+            long w2 = w[i - 2];
+            long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+            long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        long a = h[0], b = h[1], c = h[2], d = h[3];
+        long e = h[4], f = h[5], g = h[6], hh = h[7];
+
+        for (int i = 0; i < 80; i++) {
+            long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+            long ch = (e & f) ^ (~e & g);
+            long t1 = hh + s1 + ch + K[i] + w[i];
+            long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+            long maj = (a & b) ^ (a & c) ^ (b & c);
+            long t2 = s0 + maj;
+
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+
+    private static void writeWords(long[] words, byte[] out, int offset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            out[offset + i] = (byte) (words[i / 8] >>> (56 - 8 * (i % 8)));
+    }
+}
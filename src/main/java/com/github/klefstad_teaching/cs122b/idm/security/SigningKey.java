@@ -0,0 +1,32 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+
+// one key that can sign and verify access tokens with a single JWS algorithm
+public interface SigningKey
+{
+    String keyId();
+
+    JWSAlgorithm algorithm();
+
+    byte[] sign(byte[] signingInput)
+            throws JOSEException;
+
+    boolean verify(byte[] signingInput, byte[] signature);
+
+    // public half for the JWKS endpoint, null for symmetric keys
+    JWK publicJWK();
+
+    // header every token signed with this key carries
+    default JWSHeader header()
+    {
+        return new JWSHeader.Builder(algorithm())
+                .keyID(keyId())
+                .type(JWTManager.JWS_TYPE)
+                .build();
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// the key new tokens are signed with plus every key tokens are still accepted from,
+// one per kid so a key can be rotated without changing algorithm. keys are looked up
+// by the encoded header segment, which pins alg, kid and typ at once
+public final class SigningKeys
+{
+    private final SigningKey              activeKey;
+    private final String                  activeHeaderSegment;
+    private final Map<String, SigningKey> keysByHeaderSegment;
+    private final JWKSet                  publicJWKSet;
+
+    public SigningKeys(SigningConfig config, ECKey ecKey)
+    {
+        JWSAlgorithm activeAlgorithm = JWSAlgorithm.parse(config.algorithm());
+
+        Set<JWSAlgorithm> algorithms = new LinkedHashSet<>();
+        algorithms.add(activeAlgorithm);
+        config.acceptedAlgorithms().forEach(algorithm -> algorithms.add(JWSAlgorithm.parse(algorithm)));
+
+        SigningKey activeKey = loadKey(activeAlgorithm, config, ecKey);
+
+        Map<String, SigningKey> keys = new HashMap<>();
+        addKey(keys, activeKey);
+        for (JWSAlgorithm algorithm : algorithms)
+            if (!algorithm.equals(activeAlgorithm))
+                addKey(keys, loadKey(algorithm, config, ecKey));
+
+        // keys rotated out, still accepted and published until their tokens expired
+        for (String fileName : config.retiredKeyFileNames())
+            addKey(keys, toSigningKey(readJWK(fileName)));
+
+        this.activeKey = activeKey;
+        this.activeHeaderSegment = activeKey.header().toBase64URL().toString();
+
+        Map<String, SigningKey> keysByHeaderSegment = new HashMap<>();
+        List<JWK> publicJWKs = new ArrayList<>();
+
+        for (SigningKey key : keys.values()) {
+            keysByHeaderSegment.put(key.header().toBase64URL().toString(), key);
+
+            if (key.publicJWK() != null)
+                publicJWKs.add(key.publicJWK());
+        }
+
+        this.keysByHeaderSegment = Map.copyOf(keysByHeaderSegment);
+        this.publicJWKSet = new JWKSet(publicJWKs);
+    }
+
+    private static void addKey(Map<String, SigningKey> keys, SigningKey key)
+    {
+        if (key.keyId() == null)
+            throw new IllegalStateException(key.algorithm() + " signing key has no kid");
+
+        if (keys.putIfAbsent(key.keyId(), key) != null)
+            throw new IllegalStateException("Two signing keys have kid " + key.keyId());
+    }
+
+    private static SigningKey loadKey(JWSAlgorithm algorithm, SigningConfig config, ECKey ecKey)
+    {
+        if (JWSAlgorithm.ES256.equals(algorithm))
+            return new EcSigningKey(ecKey);
+
+        if (JWSAlgorithm.EdDSA.equals(algorithm)) {
+            if (config.ed25519KeyFileName() == null)
+                throw new IllegalStateException("idm.signing.ed25519-key-file-name is required for EdDSA");
+
+            JWK jwk = readJWK(config.ed25519KeyFileName());
+
+            if (!(jwk instanceof OctetKeyPair))
+                throw new IllegalStateException(config.ed25519KeyFileName() + " is not an OKP key");
+
+            return EdDsaSigningKey.fromJWK((OctetKeyPair) jwk);
+        }
+
+        if (JWSAlgorithm.HS256.equals(algorithm)) {
+            if (config.hmacSecret() == null || config.hmacKeyId() == null)
+                throw new IllegalStateException("idm.signing.hmac-secret and hmac-key-id are required for HS256");
+
+            return new HmacSigningKey(config.hmacKeyId(), Base64.getDecoder().decode(config.hmacSecret()));
+        }
+
+        throw new IllegalStateException("Unsupported signing algorithm " + algorithm);
+    }
+
+    // the algorithm of a retired key follows from its type
+    private static SigningKey toSigningKey(JWK jwk)
+    {
+        if (jwk instanceof ECKey)
+            return new EcSigningKey((ECKey) jwk);
+
+        if (jwk instanceof OctetKeyPair)
+            return EdDsaSigningKey.fromJWK((OctetKeyPair) jwk);
+
+        if (jwk instanceof OctetSequenceKey)
+            return new HmacSigningKey(jwk.getKeyID(), ((OctetSequenceKey) jwk).toByteArray());
+
+        throw new IllegalStateException("Unsupported signing key type " + jwk.getKeyType() + " for kid " + jwk.getKeyID());
+    }
+
+    private static JWK readJWK(String fileName)
+    {
+        try (InputStream in = new ClassPathResource(fileName).getInputStream()) {
+            return JWK.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("Could not read key " + fileName, e);
+        }
+    }
+
+    public SigningKey activeKey()
+    {
+        return activeKey;
+    }
+
+    public String activeHeaderSegment()
+    {
+        return activeHeaderSegment;
+    }
+
+    // null when the header does not belong to any accepted key
+    public SigningKey forHeaderSegment(String headerSegment)
+    {
+        return keysByHeaderSegment.get(headerSegment);
+    }
+
+    public JWKSet publicJWKSet()
+    {
+        return publicJWKSet;
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// caps the requests of one group of endpoints running and waiting at once, so
+// that group can never hold more than maxConcurrent + maxQueue worker threads
+public final class Bulkhead
+{
+    private final Semaphore     permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final int           maxConcurrent;
+    private final int           maxQueue;
+    private final long          maxWaitNanos;
+
+    private final Counter queueFull;
+    private final Counter timedOut;
+
+    // maxConcurrent <= 0 disables the bulkhead
+    public Bulkhead(String name, int maxConcurrent, int maxQueue, Duration maxWait, MeterRegistry registry)
+    {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.permits = new Semaphore(Math.max(0, maxConcurrent), true);
+
+        this.queueFull = Counter.builder("idm.bulkhead.rejected")
+                .tag("bulkhead", name)
+                .tag("reason", "queue-full")
+                .register(registry);
+        this.timedOut = Counter.builder("idm.bulkhead.rejected")
+                .tag("bulkhead", name)
+                .tag("reason", "timeout")
+                .register(registry);
+
+        Gauge.builder("idm.bulkhead.queue-depth", waiting, AtomicInteger::get)
+                .tag("bulkhead", name)
+                .register(registry);
+        Gauge.builder("idm.bulkhead.active", permits, p -> Math.max(0, this.maxConcurrent - p.availablePermits()))
+                .tag("bulkhead", name)
+                .register(registry);
+    }
+
+    // true if the caller got a slot and has to call exit()
+    public boolean tryEnter()
+    {
+        if (maxConcurrent <= 0 || permits.tryAcquire())
+            return true;
+
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            queueFull.increment();
+            return false;
+        }
+
+        try {
+            if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS))
+                return true;
+
+            timedOut.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            timedOut.increment();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    // for event loop threads that must never block: a slot is free right now or
+    // the request is rejected, there is no queue to wait in
+    public boolean tryEnterNow()
+    {
+        if (maxConcurrent <= 0 || permits.tryAcquire())
+            return true;
+
+        queueFull.increment();
+        return false;
+    }
+
+    public void exit()
+    {
+        if (maxConcurrent > 0)
+            permits.release();
+    }
+}
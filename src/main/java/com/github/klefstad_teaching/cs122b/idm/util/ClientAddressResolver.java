@@ -0,0 +1,180 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the address of the client behind the trusted proxies (gateway, load balancers).
+// X-Forwarded-For is only read when the connection comes from a trusted proxy, and
+// then right to left only as far as trusted proxies wrote it, so an entry a client
+// put there itself is never used. IPv6 clients are keyed by their /64, the block a
+// single host usually gets, so one host cannot show up as countless clients
+public final class ClientAddressResolver
+{
+    private static final Pattern IPV4 =
+            Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})(?::\\d{1,5})?");
+    private static final Pattern BRACKETED_IPV6 = Pattern.compile("\\[([0-9a-fA-F:.%\\w]+)](?::\\d{1,5})?");
+
+    private static final int IPV6_CLIENT_PREFIX_BYTES = 8;
+
+    private final List<Block> trustedProxies;
+
+    // addresses or CIDR blocks, e.g. 10.0.0.0/8 or ::1
+    public ClientAddressResolver(List<String> trustedProxies)
+    {
+        List<Block> blocks = new ArrayList<>();
+
+        for (String proxy : trustedProxies)
+            blocks.add(Block.parse(proxy.trim()));
+
+        this.trustedProxies = List.copyOf(blocks);
+    }
+
+    // remoteAddress is the peer of the connection, forwardedFor every X-Forwarded-For
+    // header in the order received (may be empty). returns the key to limit on
+    public String resolve(String remoteAddress, List<String> forwardedFor)
+    {
+        byte[] client = parse(remoteAddress);
+
+        if (client == null)
+            return remoteAddress;
+
+        if (isTrusted(client) && !forwardedFor.isEmpty()) {
+            List<String> hops = new ArrayList<>();
+
+            for (String header : forwardedFor)
+                hops.addAll(Arrays.asList(header.split(",")));
+
+            for (int i = hops.size() - 1; i >= 0 && isTrusted(client); i--) {
+                byte[] hop = parse(hops.get(i).trim());
+
+                // garbage in the header, the last trusted proxy is the best we know
+                if (hop == null)
+                    break;
+
+                client = hop;
+            }
+        }
+
+        return key(client);
+    }
+
+    private boolean isTrusted(byte[] address)
+    {
+        for (Block block : trustedProxies) {
+            if (block.contains(address))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static String key(byte[] address)
+    {
+        try {
+            if (address.length == 4)
+                return InetAddress.getByAddress(address).getHostAddress();
+
+            byte[] prefix = Arrays.copyOf(address, 16);
+            Arrays.fill(prefix, IPV6_CLIENT_PREFIX_BYTES, 16, (byte) 0);
+
+            return InetAddress.getByAddress(prefix).getHostAddress() + "/64";
+
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // IP literals only, with an optional port. never resolves a host name
+    static byte[] parse(String text)
+    {
+        if (text == null || text.isEmpty())
+            return null;
+
+        Matcher ipv4 = IPV4.matcher(text);
+
+        if (ipv4.matches()) {
+            byte[] address = new byte[4];
+
+            for (int i = 0; i < 4; i++) {
+                int octet = Integer.parseInt(ipv4.group(i + 1));
+
+                if (octet > 255)
+                    return null;
+
+                address[i] = (byte) octet;
+            }
+
+            return address;
+        }
+
+        Matcher bracketed = BRACKETED_IPV6.matcher(text);
+
+        if (bracketed.matches())
+            text = bracketed.group(1);
+
+        // InetAddress only looks a name up in DNS if it has no ':'
+        if (text.indexOf(':') < 0)
+            return null;
+
+        try {
+            return InetAddress.getByName(text).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static final class Block
+    {
+        private final byte[] address;
+        private final int    prefixLength;
+
+        private Block(byte[] address, int prefixLength)
+        {
+            this.address = address;
+            this.prefixLength = prefixLength;
+        }
+
+        private static Block parse(String cidr)
+        {
+            int slash = cidr.indexOf('/');
+            byte[] address = ClientAddressResolver.parse(slash < 0 ? cidr : cidr.substring(0, slash));
+
+            if (address == null)
+                throw new IllegalArgumentException("Invalid trusted proxy " + cidr);
+
+            int prefixLength = slash < 0 ? address.length * 8 : Integer.parseInt(cidr.substring(slash + 1));
+
+            if (prefixLength < 0 || prefixLength > address.length * 8)
+                throw new IllegalArgumentException("Invalid prefix length in trusted proxy " + cidr);
+
+            return new Block(address, prefixLength);
+        }
+
+        private boolean contains(byte[] candidate)
+        {
+            if (candidate.length != address.length)
+                return false;
+
+            int fullBytes = prefixLength / 8;
+
+            for (int i = 0; i < fullBytes; i++) {
+                if (candidate[i] != address[i])
+                    return false;
+            }
+
+            int remainingBits = prefixLength % 8;
+
+            if (remainingBits == 0)
+                return true;
+
+            int mask = 0xFF << (8 - remainingBits);
+
+            return (candidate[fullBytes] & mask) == (address[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// lets at most maxConcurrency callers hold a connection at once. with virtual
+// threads there is no thread pool left to bound how many requests reach the
+// connection pool, so they wait here (parking a virtual thread is cheap)
+// instead of piling up inside the pool's own hand-off queue. hikaricp.connections.acquire
+// only starts once a permit is held, the wait for the permit is timed here
+public class ConcurrencyLimitedDataSource extends DelegatingDataSource
+{
+    private final Semaphore permits;
+    private final long      maxWaitNanos;
+
+    private final Timer acquired;
+    private final Timer timedOut;
+
+    public ConcurrencyLimitedDataSource(DataSource dataSource, int maxConcurrency, Duration maxWait, MeterRegistry registry)
+    {
+        super(dataSource);
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxWaitNanos = maxWait.toNanos();
+
+        this.acquired = Timer.builder("idm.jdbc.permit.wait")
+                .tag("result", "acquired")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.timedOut = Timer.builder("idm.jdbc.permit.wait")
+                .tag("result", "timeout")
+                .register(registry);
+
+        Gauge.builder("idm.jdbc.permit.waiting", permits, Semaphore::getQueueLength)
+                .register(registry);
+        Gauge.builder("idm.jdbc.permit.in-use", permits, p -> maxConcurrency - p.availablePermits())
+                .register(registry);
+    }
+
+    @Override
+    public Connection getConnection()
+            throws SQLException
+    {
+        acquire();
+
+        try {
+            return releasingOnClose(super.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password)
+            throws SQLException
+    {
+        acquire();
+
+        try {
+            return releasingOnClose(super.getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int waiting()
+    {
+        return permits.getQueueLength();
+    }
+
+    private void acquire()
+            throws SQLException
+    {
+        long enqueued = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                timedOut.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+                throw new SQLTransientConnectionException("Timed out waiting for a JDBC permit");
+            }
+        } catch (InterruptedException e) {
+            timedOut.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a JDBC permit", e);
+        }
+
+        acquired.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+    }
+
+    private Connection releasingOnClose(Connection connection)
+    {
+        AtomicBoolean released = new AtomicBoolean();
+
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                        try {
+                            connection.close();
+                        } finally {
+                            permits.release();
+                        }
+                        return null;
+                    }
+
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// small pool for objects that are costly to set up but not thread safe (Signature,
+// Mac, MessageDigest). a ThreadLocal does not work once requests run on virtual
+// threads: every request is a new thread and would build its own instance. the
+// work done with these is CPU bound, so only about as many are ever in use at once
+// as there are carrier threads, and the pool keeps at most maxIdle of them
+public final class InstancePool<T>
+{
+    private final Queue<T>      idle = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Supplier<T>   factory;
+    private final int           maxIdle;
+
+    public InstancePool(Supplier<T> factory, int maxIdle)
+    {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    public InstancePool(Supplier<T> factory)
+    {
+        this(factory, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public T acquire()
+    {
+        T instance = idle.poll();
+
+        if (instance == null)
+            return factory.get();
+
+        idleCount.decrementAndGet();
+        return instance;
+    }
+
+    // only hand back instances in their initial state. one left in an unknown state
+    // after an exception is simply not released
+    public void release(T instance)
+    {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+
+        idle.offer(instance);
+    }
+
+    public int idleCount()
+    {
+        return idleCount.get();
+    }
+}
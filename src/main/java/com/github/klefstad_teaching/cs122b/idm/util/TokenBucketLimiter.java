@@ -0,0 +1,178 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// token bucket per key. a bucket is one AtomicLong holding the time of its last
+// refill and the tokens left (in thousandths), so acquiring is a single CAS.
+// idle keys are dropped by a timing wheel that is advanced by whichever caller
+// first notices a new tick. once max-keys is reached a new key takes the place of
+// the least recently used one, so memory stays bounded under a flood of distinct
+// clients without making the clients that arrive meanwhile share one bucket
+public final class TokenBucketLimiter
+{
+    private static final int  SLOTS       = 16;
+    private static final int  TOKEN_BITS  = 24;
+    private static final long TOKEN_MASK  = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI_TOKEN = 1000;
+
+    // largest burst whose thousandths still fit in TOKEN_BITS
+    public static final int MAX_BURST = (int) (TOKEN_MASK / MILLI_TOKEN);
+
+    private final long   capacity;
+    private final double refillPerMilli;
+    private final int    maxKeys;
+    private final long   slotMillis;
+    private final long   baseMillis = System.currentTimeMillis();
+
+    private final Map<String, Bucket> buckets  = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Set<String>[]       wheel    = new Set[SLOTS];
+    private final AtomicLong          lastTick = new AtomicLong();
+
+    // burst <= 0 disables the limiter
+    public TokenBucketLimiter(int burst, double permitsPerSecond, int maxKeys, long idleTimeoutMillis)
+    {
+        if (burst > MAX_BURST)
+            throw new IllegalArgumentException("burst must be at most " + MAX_BURST);
+        if (burst > 0 && permitsPerSecond <= 0)
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+
+        this.capacity = Math.max(0, burst) * MILLI_TOKEN;
+        // thousandths of a token per millisecond
+        this.refillPerMilli = permitsPerSecond;
+        this.maxKeys = maxKeys;
+        // a key is dropped after it was idle for SLOTS - 1 ticks
+        this.slotMillis = Math.max(1, idleTimeoutMillis / (SLOTS - 1));
+
+        for (int i = 0; i < SLOTS; i++)
+            wheel[i] = ConcurrentHashMap.newKeySet();
+    }
+
+    // 0 if a permit was taken, otherwise the milliseconds until one is available
+    public long tryAcquire(String key)
+    {
+        if (capacity == 0)
+            return 0;
+
+        long now = System.currentTimeMillis() - baseMillis;
+        long tick = now / slotMillis;
+
+        advance(tick);
+
+        return bucketFor(key, tick).tryAcquire(now);
+    }
+
+    public int size()
+    {
+        return buckets.size();
+    }
+
+    private Bucket bucketFor(String key, long tick)
+    {
+        Bucket bucket = buckets.get(key);
+
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys)
+                evictLeastRecentlyUsed(tick);
+
+            bucket = buckets.computeIfAbsent(key, k -> new Bucket(capacity, tick * slotMillis));
+        }
+
+        // register the key in the slot of this tick once per tick
+        if (bucket.lastTick != tick) {
+            bucket.lastTick = tick;
+            wheel[(int) (tick % SLOTS)].add(key);
+        }
+
+        return bucket;
+    }
+
+    private void advance(long tick)
+    {
+        long previous = lastTick.get();
+
+        if (tick <= previous || !lastTick.compareAndSet(previous, tick))
+            return;
+
+        // sweep the slots that are about to be reused, never more than one turn of the wheel
+        for (long t = Math.max(previous + 1, tick - SLOTS + 1); t <= tick; t++)
+            sweep((int) ((t + 1) % SLOTS), t + 1 - SLOTS);
+    }
+
+    // the oldest slot of the wheel holds the keys that were used longest ago.
+    // every entry looked at is dropped from its slot, so the scan stays short
+    private void evictLeastRecentlyUsed(long tick)
+    {
+        for (long t = tick - SLOTS + 1; t <= tick; t++) {
+            int slot = (int) Math.floorMod(t, (long) SLOTS);
+            Iterator<String> iterator = wheel[slot].iterator();
+
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                Bucket bucket = buckets.get(key);
+                iterator.remove();
+
+                // a key used since is also registered in a newer slot
+                if (bucket != null && bucket.lastTick % SLOTS == slot) {
+                    buckets.remove(key, bucket);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sweep(int slot, long expiredTick)
+    {
+        Iterator<String> iterator = wheel[slot].iterator();
+
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            Bucket bucket = buckets.get(key);
+
+            if (bucket == null || bucket.lastTick <= expiredTick) {
+                if (bucket != null)
+                    buckets.remove(key, bucket);
+                iterator.remove();
+            } else if (bucket.lastTick % SLOTS != slot) {
+                // used since, and registered in a newer slot
+                iterator.remove();
+            }
+        }
+    }
+
+    private final class Bucket
+    {
+        // refill time in the high bits, thousandths of tokens in the low TOKEN_BITS
+        private final AtomicLong state;
+        private volatile long    lastTick = -1;
+
+        private Bucket(long tokens, long refillMillis)
+        {
+            this.state = new AtomicLong(refillMillis << TOKEN_BITS | tokens);
+        }
+
+        private long tryAcquire(long now)
+        {
+            while (true) {
+                long current = state.get();
+                long refilledAt = current >>> TOKEN_BITS;
+                long tokens = current & TOKEN_MASK;
+
+                if (now > refilledAt)
+                    tokens = Math.min(capacity, tokens + (long) ((now - refilledAt) * refillPerMilli));
+                else
+                    now = refilledAt;
+
+                if (tokens < MILLI_TOKEN)
+                    return Math.max(1, (long) Math.ceil((MILLI_TOKEN - tokens) / refillPerMilli));
+
+                if (state.compareAndSet(current, now << TOKEN_BITS | (tokens - MILLI_TOKEN)))
+                    return 0;
+            }
+        }
+    }
+}
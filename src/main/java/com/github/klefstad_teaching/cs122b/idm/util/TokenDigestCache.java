@@ -0,0 +1,116 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// bounded map of token -> value where every entry carries its own expire time.
+// tokens are never kept as is, only their SHA-256 digest is used as the key
+public final class TokenDigestCache<V>
+{
+    private static final InstancePool<MessageDigest> SHA_256 = new InstancePool<>(TokenDigestCache::newDigest);
+
+    private final Map<ByteBuffer, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int                       maxSize;
+
+    public TokenDigestCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ByteBuffer digest(String token)
+    {
+        MessageDigest sha256 = SHA_256.acquire();
+        // digest() resets it
+        ByteBuffer digest = ByteBuffer.wrap(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        SHA_256.release(sha256);
+        return digest;
+    }
+
+    // returns null on a miss or when the entry has already expired
+    public V get(String token)
+    {
+        if (maxSize <= 0)
+            return null;
+
+        ByteBuffer key = digest(token);
+        Entry<V> entry = entries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (entry.expireAtMillis <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    public void put(String token, V value, long expireAtMillis)
+    {
+        if (maxSize <= 0 || expireAtMillis <= System.currentTimeMillis())
+            return;
+
+        if (entries.size() >= maxSize)
+            evict();
+
+        entries.put(digest(token), new Entry<>(value, expireAtMillis));
+    }
+
+    public void remove(String token)
+    {
+        entries.remove(digest(token));
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    // drop everything that expired, and if that is not enough drop an arbitrary
+    // slice of the table (iteration order of the map is effectively random)
+    private void evict()
+    {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expireAtMillis <= now);
+
+        int toRemove = entries.size() - maxSize + Math.max(1, maxSize / 16);
+        Iterator<ByteBuffer> iterator = entries.keySet().iterator();
+
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry<V>
+    {
+        private final V    value;
+        private final long expireAtMillis;
+
+        private Entry(V value, long expireAtMillis)
+        {
+            this.value = value;
+            this.expireAtMillis = expireAtMillis;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// virtual threads are a Java 21 API while the service still builds for 17,
+// so the factory method is looked up at runtime
+public final class VirtualThreads
+{
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreads()
+    {
+    }
+
+    private static Method lookup()
+    {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isAvailable()
+    {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    // one new virtual thread per task, or null when the JVM has none
+    public static ExecutorService newExecutor()
+    {
+        if (!isAvailable())
+            return null;
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
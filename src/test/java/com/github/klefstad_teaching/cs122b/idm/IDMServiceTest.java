@@ -33,8 +33,10 @@ import java.util.Date;
 import java.util.UUID;
 
 import static org.hamcrest.core.IsNot.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -48,6 +50,9 @@ public class IDMServiceTest
     private static final String REFRESH_PATH      = "/refresh";
     private static final String AUTHENTICATE_PATH = "/authenticate";
 
+    private static final String AUTHENTICATE_BATCH_PATH = "/authenticate/batch";
+    private static final String JWKS_PATH               = "/.well-known/jwks.json";
+
     private static final JSONObject ADMIN    = makeUser("Admin@example.com",
             "AdminPassWord0");
     private static final JSONObject EMPLOYEE = makeUser("Employee@example.com",
@@ -842,4 +847,49 @@ public class IDMServiceTest
                 .andDo(print())
                 .andExpectAll(isResult(IDMResults.ACCESS_TOKEN_IS_INVALID));
     }
+
+    // Authenticate Batch Tests
+
+    @Test
+    public void authenticateBatchMixedTokens()
+            throws Exception
+    {
+        JSONObject responseObject =
+                (JSONObject) JSONValue.parse(
+                        this.mockMvc.perform(post(LOGIN_PATH).contentType(MediaType.APPLICATION_JSON)
+                                        .content(ACTIVE.toString()))
+                                .andDo(print())
+                                .andExpectAll(isResult(IDMResults.USER_LOGGED_IN_SUCCESSFULLY))
+                                .andReturn()
+                                .getResponse()
+                                .getContentAsString());
+
+        JSONArray accessTokens = new JSONArray();
+        accessTokens.add(responseObject.getAsString("accessToken"));
+        accessTokens.add("not.an.accessToken");
+
+        JSONObject request = new JSONObject();
+        request.put("accessTokens", accessTokens);
+
+        this.mockMvc.perform(post(AUTHENTICATE_BATCH_PATH).contentType(MediaType.APPLICATION_JSON)
+                        .content(request.toJSONString()))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("results[0].code").value(IDMResults.ACCESS_TOKEN_IS_VALID.code()))
+                .andExpect(jsonPath("results[1].code").value(IDMResults.ACCESS_TOKEN_IS_INVALID.code()));
+    }
+
+    // JWKS Tests
+
+    @Test
+    public void jwksPublishesPublicKey()
+            throws Exception
+    {
+        this.mockMvc.perform(get(JWKS_PATH))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().exists("Cache-Control"))
+                .andExpect(jsonPath("keys[0].kid").value(jwtManager.getEcKey().getKeyID()))
+                .andExpect(jsonPath("keys[0].d").doesNotExist());
+    }
 }
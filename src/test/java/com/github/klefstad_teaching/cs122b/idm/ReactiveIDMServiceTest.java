@@ -0,0 +1,178 @@
+package com.github.klefstad_teaching.cs122b.idm;
+
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.idm.rest.ReactiveBulkheadFilter;
+import com.github.klefstad_teaching.cs122b.idm.rest.ReactiveRateLimitFilter;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// boots the "reactive" profile on netty and runs the main endpoints once.
+// JDBC is left on here only so @Sql can load the test data, the service
+// itself talks to the database through R2DBC
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = "spring.autoconfigure.exclude=")
+@ActiveProfiles("reactive")
+@Sql("/idm-test-data.sql")
+public class ReactiveIDMServiceTest
+{
+    private static final String LOGIN_PATH              = "/login";
+    private static final String REFRESH_PATH            = "/refresh";
+    private static final String AUTHENTICATE_PATH       = "/authenticate";
+    private static final String AUTHENTICATE_BATCH_PATH = "/authenticate/batch";
+
+    private final WebTestClient      webTestClient;
+    private final ApplicationContext context;
+
+    @Autowired
+    public ReactiveIDMServiceTest(WebTestClient webTestClient, ApplicationContext context)
+    {
+        this.webTestClient = webTestClient;
+        this.context = context;
+    }
+
+    private static JSONObject makeUser(String email, String password)
+    {
+        JSONArray jsonArray = new JSONArray();
+        password.chars().forEach(digit -> jsonArray.add(String.valueOf((char) digit)));
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("email", email);
+        jsonObject.put("password", jsonArray);
+
+        return jsonObject;
+    }
+
+    private WebTestClient.ResponseSpec post(String path, JSONObject request)
+    {
+        return webTestClient.post()
+                .uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request.toJSONString())
+                .exchange();
+    }
+
+    private static void expectResult(WebTestClient.ResponseSpec response, Result result)
+    {
+        response.expectStatus().isEqualTo(result.status().value())
+                .expectBody()
+                .jsonPath("result.code").isEqualTo(result.code())
+                .jsonPath("result.message").isEqualTo(result.message());
+    }
+
+    private JSONObject login(JSONObject user)
+    {
+        byte[] body = post(LOGIN_PATH, user)
+                .expectStatus().isEqualTo(IDMResults.USER_LOGGED_IN_SUCCESSFULLY.status().value())
+                .expectBody()
+                .jsonPath("result.code").isEqualTo(IDMResults.USER_LOGGED_IN_SUCCESSFULLY.code())
+                .jsonPath("accessToken").isNotEmpty()
+                .jsonPath("refreshToken").isNotEmpty()
+                .returnResult()
+                .getResponseBody();
+
+        return (JSONObject) JSONValue.parse(body);
+    }
+
+    @Test
+    public void rateLimitAndBulkheadsAreActive()
+    {
+        assertNotNull(context.getBean(ReactiveRateLimitFilter.class));
+        assertNotNull(context.getBean(ReactiveBulkheadFilter.class));
+    }
+
+    @Test
+    public void loginSuccess()
+    {
+        login(makeUser("Active@example.com", "ActivePassWord0"));
+    }
+
+    @Test
+    public void loginLockedUser()
+    {
+        expectResult(post(LOGIN_PATH, makeUser("Locked@example.com", "LockedPassWord0")),
+                     IDMResults.USER_IS_LOCKED);
+    }
+
+    @Test
+    public void loginWrongPassword()
+    {
+        expectResult(post(LOGIN_PATH, makeUser("Active@example.com", "WrongPassWord0")),
+                     IDMResults.INVALID_CREDENTIALS);
+    }
+
+    @Test
+    public void refreshSuccess()
+    {
+        JSONObject loggedIn = login(makeUser("Active@example.com", "ActivePassWord0"));
+
+        JSONObject request = new JSONObject();
+        request.put("refreshToken", loggedIn.getAsString("refreshToken"));
+
+        post(REFRESH_PATH, request)
+                .expectStatus().isEqualTo(IDMResults.RENEWED_FROM_REFRESH_TOKEN.status().value())
+                .expectBody()
+                .jsonPath("result.code").isEqualTo(IDMResults.RENEWED_FROM_REFRESH_TOKEN.code())
+                .jsonPath("accessToken").isNotEmpty()
+                .jsonPath("refreshToken").isEqualTo(loggedIn.getAsString("refreshToken"));
+    }
+
+    @Test
+    public void refreshRevokedToken()
+    {
+        JSONObject request = new JSONObject();
+        request.put("refreshToken", "399cd90d-e715-484a-bb4d-a8ff35506ef9");
+
+        expectResult(post(REFRESH_PATH, request), IDMResults.REFRESH_TOKEN_IS_REVOKED);
+    }
+
+    @Test
+    public void authenticateSuccess()
+    {
+        JSONObject loggedIn = login(makeUser("Active@example.com", "ActivePassWord0"));
+
+        JSONObject request = new JSONObject();
+        request.put("accessToken", loggedIn.getAsString("accessToken"));
+
+        expectResult(post(AUTHENTICATE_PATH, request), IDMResults.ACCESS_TOKEN_IS_VALID);
+    }
+
+    @Test
+    public void authenticateInvalidToken()
+    {
+        JSONObject request = new JSONObject();
+        request.put("accessToken", "not.a.token");
+
+        expectResult(post(AUTHENTICATE_PATH, request), IDMResults.ACCESS_TOKEN_IS_INVALID);
+    }
+
+    @Test
+    public void authenticateBatchMixedTokens()
+    {
+        JSONObject loggedIn = login(makeUser("Active@example.com", "ActivePassWord0"));
+
+        JSONArray accessTokens = new JSONArray();
+        accessTokens.add(loggedIn.getAsString("accessToken"));
+        accessTokens.add("not.an.accessToken");
+
+        JSONObject request = new JSONObject();
+        request.put("accessTokens", accessTokens);
+
+        post(AUTHENTICATE_BATCH_PATH, request)
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("results[0].code").isEqualTo(IDMResults.ACCESS_TOKEN_IS_VALID.code())
+                .jsonPath("results[1].code").isEqualTo(IDMResults.ACCESS_TOKEN_IS_INVALID.code());
+    }
+}
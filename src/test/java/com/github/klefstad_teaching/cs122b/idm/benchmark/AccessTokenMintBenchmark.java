@@ -0,0 +1,113 @@
+package com.github.klefstad_teaching.cs122b.idm.benchmark;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenCache;
+import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.config.AccessTokenCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// tokens per second on a single thread (so per core) for the old JWTClaimsSet.Builder /
+// SignedJWT.sign path and the direct path in IDMJwtManager.buildAccessToken.
+// run with the main method below after `mvn test-compile`
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class AccessTokenMintBenchmark
+{
+    private JWTManager    jwtManager;
+    private IDMJwtManager idmJwtManager;
+    private User          user;
+
+    @Setup
+    public void setup()
+    {
+        IDMServiceConfig serviceConfig = new IDMServiceConfig(
+                "ec-key.json", Duration.ofMinutes(30), Duration.ofHours(12), Duration.ofDays(30));
+
+        this.jwtManager =
+                new JWTManager.Builder()
+                        .keyFileName(serviceConfig.keyFileName())
+                        .accessTokenExpire(serviceConfig.accessTokenExpire())
+                        .maxRefreshTokenLifeTime(serviceConfig.maxRefreshTokenLifeTime())
+                        .refreshTokenExpire(serviceConfig.refreshTokenExpire())
+                        .build();
+
+        this.idmJwtManager = new IDMJwtManager(
+                serviceConfig,
+                new SigningConfig("ES256", List.of("ES256"), null, null, null, List.of()),
+                new AccessTokenCache(new AccessTokenCacheConfig(0, 0, Duration.ZERO), new SimpleMeterRegistry()));
+
+        this.user = new User().setId(1).setEmail("Active@example.com");
+    }
+
+    @Benchmark
+    public String legacyMint()
+            throws Exception
+    {
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .subject(user.getEmail())
+                .expirationTime(
+                        Date.from(
+                                Instant.now().plus(this.jwtManager.getAccessTokenExpire())))
+                .claim(JWTManager.CLAIM_ID, user.getId())
+                .claim(JWTManager.CLAIM_ROLES, user.getRoles())
+                .issueTime(Date.from(Instant.now()))
+                .build();
+
+        JWSHeader header = new JWSHeader.Builder(JWTManager.JWS_ALGORITHM)
+                .keyID(jwtManager.getEcKey().getKeyID())
+                .type(JWTManager.JWS_TYPE)
+                .build();
+
+        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
+        signedJWT.sign(jwtManager.getSigner());
+
+        return signedJWT.serialize();
+    }
+
+    @Benchmark
+    public String directMint()
+            throws Exception
+    {
+        return idmJwtManager.buildAccessToken(user);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        new Runner(
+                new OptionsBuilder()
+                        .include(AccessTokenMintBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.klefstad_teaching.cs122b.idm.benchmark;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.component.AccessTokenCache;
+import com.github.klefstad_teaching.cs122b.idm.component.IDMJwtManager;
+import com.github.klefstad_teaching.cs122b.idm.config.AccessTokenCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.IDMServiceConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// compares the old double parse / double verify path of /authenticate with the
+// single pass in IDMJwtManager.verifyAccessToken (access token cache disabled).
+// run with the main method below after `mvn test-compile`
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessTokenVerifyBenchmark
+{
+    private JWTManager    jwtManager;
+    private IDMJwtManager idmJwtManager;
+    private String        accessToken;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        IDMServiceConfig serviceConfig = new IDMServiceConfig(
+                "ec-key.json", Duration.ofHours(1), Duration.ofHours(12), Duration.ofDays(30));
+
+        this.jwtManager =
+                new JWTManager.Builder()
+                        .keyFileName(serviceConfig.keyFileName())
+                        .accessTokenExpire(serviceConfig.accessTokenExpire())
+                        .maxRefreshTokenLifeTime(serviceConfig.maxRefreshTokenLifeTime())
+                        .refreshTokenExpire(serviceConfig.refreshTokenExpire())
+                        .build();
+
+        this.idmJwtManager = new IDMJwtManager(
+                serviceConfig,
+                new SigningConfig("ES256", List.of("ES256"), null, null, null, List.of()),
+                new AccessTokenCache(new AccessTokenCacheConfig(0, 0, Duration.ZERO), new SimpleMeterRegistry()));
+
+        this.accessToken = idmJwtManager.buildAccessToken(
+                new User().setId(1).setEmail("Active@example.com"));
+    }
+
+    @Benchmark
+    public void legacyVerify()
+            throws Exception
+    {
+        try {
+            SignedJWT rebuiltSingedJWT = SignedJWT.parse(accessToken);
+            rebuiltSingedJWT.verify(jwtManager.getVerifier());
+            jwtManager.getJwtProcessor().process(rebuiltSingedJWT, null);
+        } catch (Exception e) {
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_INVALID);
+        }
+
+        SignedJWT rebuiltSingedJWT = SignedJWT.parse(accessToken);
+        Instant expireTime = rebuiltSingedJWT.getJWTClaimsSet().getExpirationTime().toInstant();
+
+        if ((Instant.now().isAfter(expireTime)))
+            throw new ResultError(IDMResults.ACCESS_TOKEN_IS_EXPIRED);
+    }
+
+    @Benchmark
+    public void singlePassVerify()
+    {
+        idmJwtManager.verifyAccessToken(accessToken);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        new Runner(
+                new OptionsBuilder()
+                        .include(AccessTokenVerifyBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
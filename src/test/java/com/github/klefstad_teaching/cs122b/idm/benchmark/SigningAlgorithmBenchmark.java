@@ -0,0 +1,98 @@
+package com.github.klefstad_teaching.cs122b.idm.benchmark;
+
+import com.github.klefstad_teaching.cs122b.idm.security.EcSigningKey;
+import com.github.klefstad_teaching.cs122b.idm.security.EdDsaSigningKey;
+import com.github.klefstad_teaching.cs122b.idm.security.HmacSigningKey;
+import com.github.klefstad_teaching.cs122b.idm.security.SigningKey;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+// single thread sign and verify throughput of every algorithm idm.signing.algorithm accepts,
+// over a signing input the size of a typical access token.
+// run with the main method below after `mvn test-compile`
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class SigningAlgorithmBenchmark
+{
+    @Param({"ES256", "EdDSA", "HS256"})
+    private String algorithm;
+
+    private SigningKey signingKey;
+    private byte[]     signingInput;
+    private byte[]     signature;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        switch (algorithm) {
+            case "ES256":
+                this.signingKey = new EcSigningKey(new ECKeyGenerator(Curve.P_256).keyID("es256").generate());
+                break;
+            case "EdDSA":
+                KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+                this.signingKey = new EdDsaSigningKey("eddsa", keyPair.getPrivate(), keyPair.getPublic());
+                break;
+            case "HS256":
+                byte[] secret = new byte[32];
+                new SecureRandom().nextBytes(secret);
+                this.signingKey = new HmacSigningKey("hs256", secret);
+                break;
+            default:
+                throw new IllegalArgumentException(algorithm);
+        }
+
+        this.signingInput = (signingKey.header().toBase64URL() + "." +
+                "eyJzdWIiOiJBY3RpdmVAZXhhbXBsZS5jb20iLCJleHAiOjE2NjY4MzkxNTgsImlkIjo0LCJyb2xlcyI6W10sImlhdCI6MTY2NjgzNzM1OH0")
+                .getBytes(StandardCharsets.US_ASCII);
+        this.signature = signingKey.sign(signingInput);
+    }
+
+    @Benchmark
+    public byte[] sign()
+            throws Exception
+    {
+        return signingKey.sign(signingInput);
+    }
+
+    @Benchmark
+    public boolean verify()
+    {
+        return signingKey.verify(signingInput, signature);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        new Runner(
+                new OptionsBuilder()
+                        .include(SigningAlgorithmBenchmark.class.getSimpleName())
+                        .build()
+        ).run();
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.klefstad_teaching.cs122b.idm.benchmark;
+
+import com.github.klefstad_teaching.cs122b.idm.security.EcSigningKey;
+import com.github.klefstad_teaching.cs122b.idm.util.ConcurrencyLimitedDataSource;
+import com.github.klefstad_teaching.cs122b.idm.util.TokenDigestCache;
+import com.github.klefstad_teaching.cs122b.idm.util.VirtualThreads;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// compares the tomcat style platform pool with virtual threads for requests that
+// look like /refresh: five sequential round trips to a slow database behind a
+// small connection pool, plus what /refresh does on the CPU: digesting the refresh
+// token and signing an access token, so the pooled Signature and MessageDigest
+// instances see a new thread per request. run the main method after
+// `mvn test-compile`, the virtual thread run is skipped on JVMs older than 21
+//
+//   args: [concurrent requests] [round trip millis]  (default 5000 5)
+public class VirtualThreadLoadHarness
+{
+    private static final int POOL_SIZE        = 10;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int ROUND_TRIPS      = 5;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long roundTripMillis = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        EcSigningKey signingKey = new EcSigningKey(new ECKeyGenerator(Curve.P_256).keyID("harness").generate());
+
+        run("platform(" + PLATFORM_THREADS + ")",
+            Executors.newFixedThreadPool(PLATFORM_THREADS),
+            new SlowDataSource(roundTripMillis), signingKey, requests);
+
+        if (!VirtualThreads.isAvailable()) {
+            System.out.println("virtual threads not available on this JVM, skipped");
+            return;
+        }
+
+        run("virtual",
+            VirtualThreads.newExecutor(),
+            new ConcurrencyLimitedDataSource(new SlowDataSource(roundTripMillis), POOL_SIZE, Duration.ofMinutes(1),
+                                             new SimpleMeterRegistry()),
+            signingKey, requests);
+    }
+
+    private static void run(String name,
+                            ExecutorService executor,
+                            DataSource dataSource,
+                            EcSigningKey signingKey,
+                            int requests)
+            throws Exception
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        System.gc();
+        threads.resetPeakThreadCount();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>(requests);
+
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> {
+                TokenDigestCache.digest(UUID.randomUUID().toString());
+
+                for (int trip = 0; trip < ROUND_TRIPS; trip++) {
+                    try (Connection connection = dataSource.getConnection()) {
+                        connection.isValid(0);
+                    }
+                }
+
+                signingKey.sign("header.claims".getBytes(StandardCharsets.US_ASCII));
+                return null;
+            }));
+        }
+
+        long peakHeap = 0;
+
+        for (Future<?> future : futures) {
+            future.get();
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        System.out.printf("%-14s %8.0f req/s  peak threads %5d  heap growth %6d KiB%n",
+                          name,
+                          requests / seconds,
+                          threads.getPeakThreadCount(),
+                          Math.max(0, peakHeap - heapBefore) / 1024);
+    }
+
+    // stands in for hikari + mysql: POOL_SIZE connections, every statement takes roundTripMillis
+    private static class SlowDataSource extends AbstractDataSource
+    {
+        private final Semaphore pool = new Semaphore(POOL_SIZE, true);
+        private final long      roundTripMillis;
+
+        private SlowDataSource(long roundTripMillis)
+        {
+            this.roundTripMillis = roundTripMillis;
+        }
+
+        @Override
+        public Connection getConnection()
+                throws SQLException
+        {
+            try {
+                pool.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(e);
+            }
+
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (proxy, method, methodArgs) -> {
+                        if (method.getName().equals("close")) {
+                            pool.release();
+                            return null;
+                        }
+
+                        Thread.sleep(roundTripMillis);
+                        return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password)
+                throws SQLException
+        {
+            return getConnection();
+        }
+    }
+}
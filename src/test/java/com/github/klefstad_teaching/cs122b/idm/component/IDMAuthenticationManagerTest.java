@@ -0,0 +1,264 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.idm.config.LoginLockoutConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.UserCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.IDMRepo;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// the checks /login makes before any time is spent on hashing, and when /refresh
+// builds a replacement token
+public class IDMAuthenticationManagerTest
+{
+    private static final String EMAIL    = "Active@example.com";
+    private static final char[] PASSWORD = "ActivePassWord0".toCharArray();
+
+    private static final String TOKEN       = "c46fc3c2-9791-44d6-a86e-2922ad655284";
+    private static final String REPLACEMENT = "399cd90d-e715-484a-bb4d-a8ff35506ef9";
+
+    private final IDMRepo                 repo           = mock(IDMRepo.class);
+    private final PasswordHasher          passwordHasher = mock(PasswordHasher.class);
+    private final HashAdmissionController hashAdmission  = mock(HashAdmissionController.class);
+    private final RefreshTokenIndex       tokenIndex     = mock(RefreshTokenIndex.class);
+
+    private final UserCache userCache =
+            new UserCache(new UserCacheConfig(100, Duration.ofMinutes(1)), new SimpleMeterRegistry());
+
+    private final LoginAttemptTracker attemptTracker =
+            new LoginAttemptTracker(userIds -> { },
+                                    userCache,
+                                    new LoginLockoutConfig(10, Duration.ofMinutes(15), 3, Duration.ofMinutes(1), 1000),
+                                    new SimpleMeterRegistry());
+
+    private final IDMAuthenticationManager authManager =
+            new IDMAuthenticationManager(repo,
+                                         passwordHasher,
+                                         attemptTracker,
+                                         mock(LoginRateLimiter.class),
+                                         hashAdmission,
+                                         mock(RefreshExpiryBuffer.class),
+                                         tokenIndex,
+                                         userCache);
+
+    private void storedUser(UserStatus status)
+    {
+        when(repo.selectAUser(EMAIL)).thenReturn(new User().setId(1).setEmail(EMAIL).setUserStatus(status));
+    }
+
+    // an active user whose password matches, stored with hashedPassword
+    private User storedMatchingUser(String hashedPassword)
+    {
+        User user = new User().setId(1).setEmail(EMAIL).setUserStatus(UserStatus.ACTIVE)
+                              .setHashedPassword(hashedPassword);
+
+        when(repo.selectAUser(EMAIL)).thenReturn(user);
+        when(passwordHasher.matches(any(), any())).thenReturn(true);
+        return user;
+    }
+
+    private static RefreshResult refreshed(RefreshOutcome outcome, String refreshToken)
+    {
+        return new RefreshResult()
+                .setOutcome(outcome)
+                .setRefreshToken(refreshToken)
+                .setStoredExpireTime(Instant.now())
+                .setUser(new User().setId(1).setEmail(EMAIL).setUserStatus(UserStatus.ACTIVE));
+    }
+
+    // counts the replacements /refresh asks for
+    private static final class Replacements implements Supplier<RefreshToken>
+    {
+        private final AtomicInteger built = new AtomicInteger();
+
+        @Override
+        public RefreshToken get()
+        {
+            built.incrementAndGet();
+            return new RefreshToken()
+                    .setToken(REPLACEMENT)
+                    .setTokenStatus(TokenStatus.ACTIVE)
+                    .setExpireTime(Instant.now().plus(Duration.ofMinutes(30)))
+                    .setMaxLifeTime(Instant.now().plus(Duration.ofHours(12)));
+        }
+    }
+
+    private void assertRejectedBeforeHashing(ResultError e, Object expected)
+    {
+        assertSame(expected, e.getResult());
+        verify(hashAdmission, never()).acquire();
+        verify(passwordHasher, never()).matches(any(), any());
+    }
+
+    @Test
+    public void lockedUserIsRejectedBeforeHashing()
+    {
+        storedUser(UserStatus.LOCKED);
+
+        ResultError e = assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        assertRejectedBeforeHashing(e, IDMResults.USER_IS_LOCKED);
+    }
+
+    @Test
+    public void cachedStatusIsNotTrusted()
+    {
+        // cached while active, locked since by another instance or directly in the database
+        userCache.put(new User().setId(1).setEmail(EMAIL).setUserStatus(UserStatus.ACTIVE));
+        storedUser(UserStatus.LOCKED);
+
+        ResultError e = assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        assertRejectedBeforeHashing(e, IDMResults.USER_IS_LOCKED);
+    }
+
+    @Test
+    public void bannedUserIsRejectedBeforeHashing()
+    {
+        storedUser(UserStatus.BANNED);
+
+        ResultError e = assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        assertRejectedBeforeHashing(e, IDMResults.USER_IS_BANNED);
+    }
+
+    @Test
+    public void throttledUserIsRejectedBeforeHashing()
+    {
+        storedUser(UserStatus.ACTIVE);
+
+        for (int i = 0; i < 3; i++)
+            attemptTracker.recordFailure(1);
+
+        ResultError e = assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        assertRejectedBeforeHashing(e, IDMResults.INVALID_CREDENTIALS);
+    }
+
+    @Test
+    public void wrongPasswordIsCountedAfterHashing()
+    {
+        storedUser(UserStatus.ACTIVE);
+        when(passwordHasher.matches(any(), any())).thenReturn(false);
+
+        ResultError e = assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        assertSame(IDMResults.INVALID_CREDENTIALS, e.getResult());
+        verify(hashAdmission).acquire();
+        verify(hashAdmission).release();
+    }
+
+    @Test
+    public void outdatedHashIsRewrittenGuardedByPreviousHash()
+    {
+        User user = storedMatchingUser("previousHash");
+        when(passwordHasher.needsRehash(user)).thenReturn(true);
+        when(passwordHasher.hash(eq(user), any())).thenAnswer(invocation -> user.setHashedPassword("newHash"));
+
+        authManager.selectAndAuthenticateUser(EMAIL, PASSWORD);
+
+        // the write only applies while the row still holds the hash that was checked
+        verify(repo).updateUserPassword(user, "previousHash");
+        assertEquals("newHash", user.getHashedPassword());
+        assertNull(userCache.getById(1));
+    }
+
+    @Test
+    public void currentHashIsNotRewritten()
+    {
+        User user = storedMatchingUser("currentHash");
+        when(passwordHasher.needsRehash(user)).thenReturn(false);
+
+        authManager.selectAndAuthenticateUser(EMAIL, PASSWORD);
+
+        verify(passwordHasher, never()).hash(any(), any());
+        verify(repo, never()).updateUserPassword(any(), any());
+    }
+
+    @Test
+    public void wrongPasswordIsNeverRehashed()
+    {
+        storedUser(UserStatus.ACTIVE);
+        when(passwordHasher.matches(any(), any())).thenReturn(false);
+        when(passwordHasher.needsRehash(any())).thenReturn(true);
+
+        assertThrows(ResultError.class, () -> authManager.selectAndAuthenticateUser(EMAIL, PASSWORD));
+
+        verify(repo, never()).updateUserPassword(any(), any());
+    }
+
+    @Test
+    public void extendingBuildsNoReplacement()
+    {
+        Replacements replacements = new Replacements();
+        when(repo.refreshAccess(eq(TOKEN), any(), any(), any(), isNull(), anyBoolean()))
+                .thenReturn(refreshed(RefreshOutcome.EXTENDED, TOKEN));
+
+        RefreshResult result = authManager.refreshAccess(TOKEN, Duration.ofMinutes(30), replacements);
+
+        assertSame(RefreshOutcome.EXTENDED, result.getOutcome());
+        assertEquals(0, replacements.built.get());
+    }
+
+    @Test
+    public void unexpectedRotationIsRepeatedWithReplacement()
+    {
+        // not indexed, so the service could not tell the token was due for rotation
+        Replacements replacements = new Replacements();
+        when(repo.refreshAccess(eq(TOKEN), any(), any(), any(), isNull(), anyBoolean()))
+                .thenReturn(refreshed(RefreshOutcome.REPLACEMENT_NEEDED, TOKEN));
+        when(repo.refreshAccess(eq(TOKEN), any(), any(), any(), any(RefreshToken.class), anyBoolean()))
+                .thenReturn(refreshed(RefreshOutcome.ROTATED, REPLACEMENT));
+
+        RefreshResult result = authManager.refreshAccess(TOKEN, Duration.ofMinutes(30), replacements);
+
+        assertSame(RefreshOutcome.ROTATED, result.getOutcome());
+        assertEquals(REPLACEMENT, result.getRefreshToken());
+        assertEquals(1, replacements.built.get());
+        verify(repo, times(2)).refreshAccess(eq(TOKEN), any(), any(), any(), any(), anyBoolean());
+        verify(tokenIndex).updateStatus(TOKEN, TokenStatus.REVOKED);
+    }
+
+    @Test
+    public void expectedRotationBuildsReplacementUpFront()
+    {
+        // indexed with a max life time the next expiry would pass
+        Replacements replacements = new Replacements();
+        when(tokenIndex.get(eq(TOKEN), any())).thenReturn(
+                new RefreshToken().setToken(TOKEN).setUserId(1).setTokenStatus(TokenStatus.ACTIVE)
+                                  .setMaxLifeTime(Instant.now().plus(Duration.ofMinutes(10))));
+        when(repo.refreshAccess(eq(TOKEN), any(), any(), any(), any(RefreshToken.class), anyBoolean()))
+                .thenReturn(refreshed(RefreshOutcome.ROTATED, REPLACEMENT));
+
+        authManager.refreshAccess(TOKEN, Duration.ofMinutes(30), replacements);
+
+        assertEquals(1, replacements.built.get());
+        verify(repo, times(1)).refreshAccess(eq(TOKEN), any(), any(), any(), any(), anyBoolean());
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// the roles claim comes out of a table built once per mask, it has to match
+// what the JWTClaimsSet.Builder wrote for the same roles
+public class IDMJwtManagerTest
+{
+    @Test
+    public void noRolesIsEmptyArray()
+    {
+        assertEquals("[]", IDMJwtManager.roleClaim(0));
+    }
+
+    @Test
+    public void singleRoleClaims()
+    {
+        assertEquals("[\"Admin\"]", IDMJwtManager.roleClaim(Role.ADMIN.mask()));
+        assertEquals("[\"Employee\"]", IDMJwtManager.roleClaim(Role.EMPLOYEE.mask()));
+        assertEquals("[\"Premium\"]", IDMJwtManager.roleClaim(Role.PREMIUM.mask()));
+    }
+
+    @Test
+    public void rolesAreWrittenOrderedById()
+    {
+        assertEquals("[\"Admin\",\"Premium\"]",
+                     IDMJwtManager.roleClaim(Role.PREMIUM.mask() | Role.ADMIN.mask()));
+        assertEquals("[\"Admin\",\"Employee\",\"Premium\"]",
+                     IDMJwtManager.roleClaim(Role.toMask(EnumSet.allOf(Role.class))));
+    }
+
+    @Test
+    public void everyValidMaskHasAClaim()
+    {
+        for (long mask = 0; mask < Role.MASK_LIMIT; mask++) {
+            if ((mask & 1) != 0)
+                continue;
+
+            StringBuilder expected = new StringBuilder("[");
+
+            for (Role role : Role.fromMask(mask)) {
+                if (expected.length() > 1)
+                    expected.append(',');
+                expected.append('"').append(role.getName()).append('"');
+            }
+
+            assertEquals(expected.append(']').toString(), IDMJwtManager.roleClaim(mask));
+        }
+    }
+}
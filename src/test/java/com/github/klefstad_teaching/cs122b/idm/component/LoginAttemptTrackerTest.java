@@ -0,0 +1,182 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.core.error.ResultError;
+import com.github.klefstad_teaching.cs122b.core.result.IDMResults;
+import com.github.klefstad_teaching.cs122b.core.result.Result;
+import com.github.klefstad_teaching.cs122b.idm.config.LoginLockoutConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.UserCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.UserLockWriter;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoginAttemptTrackerTest
+{
+    private static final Integer USER_ID = 7;
+
+    private final List<List<Integer>> lockWrites = new ArrayList<>();
+    private boolean                   lockWriteFails;
+
+    // records every write, or fails like a database that is down
+    private final UserLockWriter lockWriter = userIds -> {
+        if (lockWriteFails)
+            throw new QueryTimeoutException("idm.user is not reachable");
+        lockWrites.add(List.copyOf(userIds));
+    };
+
+    private final UserCache userCache =
+            new UserCache(new UserCacheConfig(100, Duration.ofMinutes(1)), new SimpleMeterRegistry());
+
+    private LoginAttemptTracker tracker(int maxFailedAttempts, int throttleAfter, Duration throttleDelay)
+    {
+        return new LoginAttemptTracker(
+                lockWriter,
+                userCache,
+                new LoginLockoutConfig(maxFailedAttempts, Duration.ofMinutes(15), throttleAfter, throttleDelay, 1000),
+                new SimpleMeterRegistry());
+    }
+
+    private static Result rejection(LoginAttemptTracker tracker, Integer userId)
+    {
+        try {
+            tracker.checkAllowed(userId);
+            return null;
+        } catch (ResultError e) {
+            return e.getResult();
+        }
+    }
+
+    @Test
+    public void failuresBelowThrottleAfterAreNotDelayed()
+    {
+        LoginAttemptTracker tracker = tracker(0, 3, Duration.ofMinutes(1));
+
+        tracker.recordFailure(USER_ID);
+        tracker.recordFailure(USER_ID);
+
+        assertNull(rejection(tracker, USER_ID));
+    }
+
+    @Test
+    public void throttledAttemptLooksLikeAWrongPassword()
+    {
+        LoginAttemptTracker tracker = tracker(0, 3, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 3; i++)
+            tracker.recordFailure(USER_ID);
+
+        assertSame(IDMResults.INVALID_CREDENTIALS, rejection(tracker, USER_ID));
+        // other accounts are not affected
+        assertNull(rejection(tracker, USER_ID + 1));
+    }
+
+    @Test
+    public void throttleDelayElapsesAndDoubles()
+            throws Exception
+    {
+        LoginAttemptTracker tracker = tracker(0, 1, Duration.ofMillis(200));
+
+        tracker.recordFailure(USER_ID);
+        assertSame(IDMResults.INVALID_CREDENTIALS, rejection(tracker, USER_ID));
+
+        Thread.sleep(300);
+        assertNull(rejection(tracker, USER_ID));
+
+        // second failure waits 400ms
+        tracker.recordFailure(USER_ID);
+        Thread.sleep(300);
+        assertSame(IDMResults.INVALID_CREDENTIALS, rejection(tracker, USER_ID));
+
+        Thread.sleep(200);
+        assertNull(rejection(tracker, USER_ID));
+    }
+
+    @Test
+    public void successClearsTheFailures()
+    {
+        LoginAttemptTracker tracker = tracker(0, 3, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 3; i++)
+            tracker.recordFailure(USER_ID);
+
+        tracker.recordSuccess(USER_ID);
+
+        assertNull(rejection(tracker, USER_ID));
+    }
+
+    @Test
+    public void reachingTheThresholdWritesTheLock()
+    {
+        LoginAttemptTracker tracker = tracker(5, 0, Duration.ZERO);
+
+        for (int i = 0; i < 4; i++)
+            tracker.recordFailure(USER_ID);
+
+        assertTrue(lockWrites.isEmpty());
+
+        tracker.recordFailure(USER_ID);
+
+        assertEquals(List.of(List.of(USER_ID)), lockWrites);
+        // idm.user holds the lock now, further failures do not write it again
+        tracker.recordFailure(USER_ID);
+        assertEquals(1, lockWrites.size());
+    }
+
+    @Test
+    public void writingTheLockInvalidatesTheCachedUser()
+    {
+        LoginAttemptTracker tracker = tracker(1, 0, Duration.ZERO);
+        userCache.put(new User().setId(USER_ID).setEmail("Active@example.com"));
+
+        tracker.recordFailure(USER_ID);
+
+        assertNull(userCache.getById(USER_ID));
+    }
+
+    @Test
+    public void failedLockWriteKeepsTheAccountLocked()
+    {
+        LoginAttemptTracker tracker = tracker(2, 0, Duration.ZERO);
+        lockWriteFails = true;
+
+        tracker.recordFailure(USER_ID);
+        // the failed write is not the login's error
+        assertDoesNotThrow(() -> tracker.recordFailure(USER_ID));
+
+        assertTrue(lockWrites.isEmpty());
+        assertSame(IDMResults.USER_IS_LOCKED, rejection(tracker, USER_ID));
+    }
+
+    @Test
+    public void failedLockWriteIsRetriedOnTheNextFailure()
+    {
+        LoginAttemptTracker tracker = tracker(1, 0, Duration.ZERO);
+        lockWriteFails = true;
+
+        tracker.recordFailure(USER_ID);
+        assertSame(IDMResults.USER_IS_LOCKED, rejection(tracker, USER_ID));
+
+        lockWriteFails = false;
+        // any account's failure flushes what is pending
+        tracker.recordFailure(USER_ID + 1);
+
+        List<Integer> written = lockWrites.stream()
+                .flatMap(List::stream)
+                .sorted()
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(USER_ID, USER_ID + 1), written);
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RateLimitConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoginRateLimiterTest
+{
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // two requests per email, then one every 10 seconds. addresses are not limited
+    private final LoginRateLimiter rateLimiter = new LoginRateLimiter(
+            new RateLimitConfig(0, 1.0, 2, 0.1, 1000, Duration.ofMinutes(10), List.of()),
+            registry);
+
+    private double rejected(String key)
+    {
+        return registry.get("idm.rate-limit.rejected").tag("key", key).counter().count();
+    }
+
+    @Test
+    public void emailWithinBurstPasses()
+    {
+        rateLimiter.checkEmail("Active@example.com");
+        rateLimiter.checkEmail("Active@example.com");
+
+        assertEquals(0, rejected("email"));
+    }
+
+    @Test
+    public void emailOverRateIsRejectedWithRetryAfter()
+    {
+        rateLimiter.checkEmail("Active@example.com");
+        rateLimiter.checkEmail("Active@example.com");
+
+        RateLimitedException e = assertThrows(RateLimitedException.class,
+                                              () -> rateLimiter.checkEmail("Active@example.com"));
+
+        Duration retryAfter = e.getRetryAfter();
+
+        assertTrue(retryAfter.compareTo(Duration.ZERO) > 0 && retryAfter.compareTo(Duration.ofSeconds(10)) <= 0);
+        assertEquals(1, rejected("email"));
+    }
+
+    @Test
+    public void rejectionHasNoStackTrace()
+    {
+        rateLimiter.checkEmail("Active@example.com");
+        rateLimiter.checkEmail("Active@example.com");
+
+        RateLimitedException e = assertThrows(RateLimitedException.class,
+                                              () -> rateLimiter.checkEmail("Active@example.com"));
+
+        assertEquals(0, e.getStackTrace().length);
+    }
+
+    @Test
+    public void emailsShareBucketAcrossCase()
+    {
+        rateLimiter.checkEmail("Active@example.com");
+        rateLimiter.checkEmail("ACTIVE@EXAMPLE.COM");
+
+        assertThrows(RateLimitedException.class, () -> rateLimiter.checkEmail("active@example.com"));
+    }
+
+    @Test
+    public void otherEmailsAreNotAffected()
+    {
+        rateLimiter.checkEmail("Active@example.com");
+        rateLimiter.checkEmail("Active@example.com");
+
+        rateLimiter.checkEmail("Locked@example.com");
+        rateLimiter.checkEmail(null);
+
+        assertEquals(0, rejected("email"));
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.PasswordHashConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PasswordHasherTest
+{
+    private static final char[] PASSWORD = "ActivePassWord0".toCharArray();
+
+    // Active@example.com in idm-test-data.sql, a version 1 hash
+    private static final String SEEDED_SALT = "BXVDsQ==";
+    private static final String SEEDED_HASH =
+            "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw==";
+
+    // min and max pin the calibration, so the count does not depend on this host
+    private static PasswordHasher hasher(int iterations)
+    {
+        return new PasswordHasher(new PasswordHashConfig(Duration.ofMillis(1), iterations, iterations));
+    }
+
+    private static PasswordHashConfig config(long targetMillis, int minIterations, int maxIterations)
+    {
+        return new PasswordHashConfig(Duration.ofMillis(targetMillis), minIterations, maxIterations);
+    }
+
+    private static User seededUser()
+    {
+        return new User()
+                .setId(1)
+                .setSalt(SEEDED_SALT)
+                .setHashedPassword(SEEDED_HASH)
+                .setHashVersion(PasswordHashVersion.PBKDF2_SHA512_FIXED);
+    }
+
+    @Test
+    public void hashUsesCurrentVersionAndIterations()
+    {
+        User user = hasher(12000).hash(new User(), PASSWORD);
+
+        assertEquals(PasswordHasher.CURRENT_VERSION, user.getHashVersion());
+        assertEquals(12000, user.getHashIterations());
+        assertEquals(PasswordHasher.CURRENT_VERSION.saltByteLength(),
+                     Base64.getDecoder().decode(user.getSalt()).length);
+        assertEquals(64, Base64.getDecoder().decode(user.getHashedPassword()).length);
+    }
+
+    @Test
+    public void hashUsesFreshSalt()
+    {
+        PasswordHasher hasher = hasher(10000);
+
+        User first = hasher.hash(new User(), PASSWORD);
+        User second = hasher.hash(new User(), PASSWORD);
+
+        assertNotEquals(first.getSalt(), second.getSalt());
+        assertNotEquals(first.getHashedPassword(), second.getHashedPassword());
+    }
+
+    @Test
+    public void newHashMatchesOnlyItsPassword()
+    {
+        PasswordHasher hasher = hasher(10000);
+        User user = hasher.hash(new User(), PASSWORD);
+
+        assertTrue(hasher.matches(user, PASSWORD));
+        assertFalse(hasher.matches(user, "ActivePassWord1".toCharArray()));
+    }
+
+    @Test
+    public void fixedVersionUsesItsOwnIterations()
+    {
+        // the hasher's count does not matter, version 1 is always 10000
+        User user = seededUser().setHashIterations(null);
+
+        assertTrue(hasher(20000).matches(user, PASSWORD));
+        assertFalse(hasher(20000).matches(user, "ActivePassWord1".toCharArray()));
+    }
+
+    @Test
+    public void currentVersionUsesStoredIterations()
+    {
+        // same bytes as the seeded hash, read as version 2 the stored count decides
+        User user = seededUser().setHashVersion(PasswordHashVersion.PBKDF2_SHA512);
+
+        assertTrue(hasher(20000).matches(user.setHashIterations(10000), PASSWORD));
+        assertFalse(hasher(10000).matches(user.setHashIterations(11000), PASSWORD));
+    }
+
+    @Test
+    public void outdatedVersionNeedsRehash()
+    {
+        assertTrue(hasher(10000).needsRehash(seededUser()));
+    }
+
+    @Test
+    public void fewerIterationsNeedRehash()
+    {
+        User user = hasher(10000).hash(new User(), PASSWORD);
+
+        assertTrue(hasher(11000).needsRehash(user));
+    }
+
+    @Test
+    public void sameOrMoreIterationsAreKept()
+    {
+        // a slower host calibrating lower never downgrades a hash
+        User user = hasher(12000).hash(new User(), PASSWORD);
+
+        assertFalse(hasher(12000).needsRehash(user));
+        assertFalse(hasher(10000).needsRehash(user));
+    }
+
+    @Test
+    public void calibrationScalesToTarget()
+    {
+        // 10000 iterations took 5ms, 50ms takes ten times as many
+        assertEquals(100000, PasswordHasher.scaledIterations(10000, 5_000_000, config(50, 10000, 2000000)));
+    }
+
+    @Test
+    public void calibrationRoundsToStep()
+    {
+        assertEquals(12000, PasswordHasher.scaledIterations(10000, 8_100_000, config(10, 1000, 2000000)));
+        assertEquals(13000, PasswordHasher.scaledIterations(10000, 8_000_000, config(10, 1000, 2000000)));
+        assertEquals(10000, PasswordHasher.scaledIterations(10000, 10_040_000, config(10, 1000, 2000000)));
+    }
+
+    @Test
+    public void calibrationClampsToMinAndMax()
+    {
+        // a slow host is held at the minimum, a fast one at the maximum
+        assertEquals(10000, PasswordHasher.scaledIterations(10000, 50_000_000, config(10, 10000, 2000000)));
+        assertEquals(2000000, PasswordHasher.scaledIterations(10000, 1_000, config(100, 10000, 2000000)));
+        assertEquals(2000000, PasswordHasher.scaledIterations(10000, 0, config(100, 10000, 2000000)));
+    }
+
+    @Test
+    public void calibratedCountIsWithinBounds()
+    {
+        PasswordHasher hasher = new PasswordHasher(config(1, 10000, 20000));
+
+        assertTrue(hasher.iterations() >= 10000 && hasher.iterations() <= 20000);
+        assertEquals(0, hasher.iterations() % 1000);
+    }
+}
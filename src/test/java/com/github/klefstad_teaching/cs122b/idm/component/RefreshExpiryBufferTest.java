@@ -0,0 +1,263 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshExpiryBufferConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RefreshExpiryBufferTest
+{
+    private static final String  TOKEN  = "c46fc3c2-9791-44d6-a86e-2922ad655284";
+    private static final String  OTHER  = "399cd90d-e715-484a-bb4d-a8ff35506ef9";
+    private static final Instant STORED = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final SimpleMeterRegistry       registry = new SimpleMeterRegistry();
+    private final List<Map<String, Instant>> writes   = new ArrayList<>();
+
+    // runs inside the write, like a request arriving while a batch is in flight
+    private Consumer<RefreshExpiryBuffer> duringWrite = buffer -> { };
+    private boolean                       writeFails;
+
+    private RefreshExpiryBuffer buffer;
+
+    private RefreshExpiryBuffer buffer(Duration slack, int batchSize)
+    {
+        return buffer(slack, batchSize, 1000);
+    }
+
+    private RefreshExpiryBuffer buffer(Duration slack, int batchSize, int maxPending)
+    {
+        // the scheduled flush is kept out of the way, the tests flush themselves
+        this.buffer = new RefreshExpiryBuffer(
+                expireTimes -> {
+                    if (writeFails)
+                        throw new QueryTimeoutException("idm.refresh_token is not reachable");
+                    writes.add(Map.copyOf(expireTimes));
+                    duringWrite.accept(this.buffer);
+                },
+                new RefreshExpiryBufferConfig(slack, Duration.ofHours(1), batchSize, maxPending),
+                registry);
+        return this.buffer;
+    }
+
+    private double extensions(String result)
+    {
+        return registry.get("idm.refresh-expiry-buffer.extensions").tag("result", result).counter().count();
+    }
+
+    @AfterEach
+    public void shutdown()
+    {
+        writeFails = false;
+        buffer.shutdown();
+    }
+
+    @Test
+    public void extensionWithinSlackIsSkipped()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ofMinutes(5), 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plus(Duration.ofMinutes(4)));
+
+        assertNull(buffer.pending(TOKEN));
+        assertEquals(1, extensions("skipped"));
+
+        buffer.extend(TOKEN, STORED, STORED.plus(Duration.ofMinutes(5)));
+
+        assertEquals(STORED.plus(Duration.ofMinutes(5)), buffer.pending(TOKEN));
+        assertEquals(1, extensions("skipped"));
+    }
+
+    @Test
+    public void newerExtensionReplacesTheOlderOne()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        assertEquals(0, extensions("coalesced"));
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(120));
+
+        assertEquals(STORED.plusSeconds(120), buffer.pending(TOKEN));
+        assertEquals(1, extensions("coalesced"));
+    }
+
+    @Test
+    public void olderExtensionNeverMovesThePendingOneBack()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(120));
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+
+        assertEquals(STORED.plusSeconds(120), buffer.pending(TOKEN));
+        assertEquals(1, extensions("coalesced"));
+    }
+
+    @Test
+    public void coalescedExtensionsAreWrittenOnce()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        for (int i = 1; i <= 5; i++)
+            buffer.extend(TOKEN, STORED, STORED.plusSeconds(60 * i));
+        buffer.extend(OTHER, STORED, STORED.plusSeconds(60));
+
+        buffer.flush();
+
+        assertEquals(List.of(Map.of(TOKEN, STORED.plusSeconds(300), OTHER, STORED.plusSeconds(60))), writes);
+        assertEquals(4, extensions("coalesced"));
+        assertEquals(2, registry.get("idm.refresh-expiry-buffer.writes").counter().count());
+        assertNull(buffer.pending(TOKEN));
+    }
+
+    @Test
+    public void flushIsSplitIntoBatches()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 2);
+
+        for (int i = 0; i < 5; i++)
+            buffer.extend(TOKEN + i, STORED, STORED.plusSeconds(60));
+
+        buffer.flush();
+
+        assertEquals(3, writes.size());
+        assertTrue(writes.stream().allMatch(batch -> batch.size() <= 2));
+    }
+
+    @Test
+    public void discardedExtensionIsNotWritten()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        buffer.discard(TOKEN);
+        buffer.flush();
+
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void discardDuringAFlushIsNotWrittenAgain()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        // the token is revoked while its extension is being written
+        duringWrite = current -> current.discard(TOKEN);
+
+        buffer.flush();
+        duringWrite = current -> { };
+
+        assertNull(buffer.pending(TOKEN));
+
+        buffer.flush();
+
+        assertEquals(1, writes.size());
+    }
+
+    @Test
+    public void extensionDuringAFlushStaysPending()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        buffer.extend(OTHER, STORED, STORED.plusSeconds(60));
+        // a newer /refresh of TOKEN lands while the batch is written
+        duringWrite = current -> current.extend(TOKEN, STORED, STORED.plusSeconds(120));
+
+        buffer.flush();
+        duringWrite = current -> { };
+
+        // only the entry that did not change since it was taken is dropped
+        assertEquals(STORED.plusSeconds(120), buffer.pending(TOKEN));
+        assertNull(buffer.pending(OTHER));
+
+        buffer.flush();
+
+        assertEquals(Map.of(TOKEN, STORED.plusSeconds(120)), writes.get(1));
+        assertNull(buffer.pending(TOKEN));
+    }
+
+    @Test
+    public void failedWriteKeepsTheExtensions()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        writeFails = true;
+
+        assertThrows(QueryTimeoutException.class, buffer::flush);
+        assertEquals(STORED.plusSeconds(60), buffer.pending(TOKEN));
+
+        writeFails = false;
+        buffer.flush();
+
+        assertEquals(List.of(Map.of(TOKEN, STORED.plusSeconds(60))), writes);
+    }
+
+    @Test
+    public void failedScheduledFlushIsCountedAndRetried()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        writeFails = true;
+
+        buffer.flushQuietly();
+
+        assertEquals(1, registry.get("idm.refresh-expiry-buffer.flush.failures").counter().count());
+        assertEquals(STORED.plusSeconds(60), buffer.pending(TOKEN));
+
+        writeFails = false;
+        buffer.flushQuietly();
+
+        assertEquals(List.of(Map.of(TOKEN, STORED.plusSeconds(60))), writes);
+        assertEquals(1, registry.get("idm.refresh-expiry-buffer.flush.failures").counter().count());
+    }
+
+    @Test
+    public void newTokenBeyondMaxPendingIsWrittenThrough()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100, 1);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        buffer.extend(OTHER, STORED, STORED.plusSeconds(60));
+
+        assertEquals(List.of(Map.of(OTHER, STORED.plusSeconds(60))), writes);
+        assertNull(buffer.pending(OTHER));
+        assertEquals(1, extensions("written-through"));
+
+        // a token already held is still coalesced
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(120));
+
+        assertEquals(STORED.plusSeconds(120), buffer.pending(TOKEN));
+        assertEquals(1, writes.size());
+    }
+
+    @Test
+    public void failedWriteThroughIsThrownAndNotKept()
+    {
+        RefreshExpiryBuffer buffer = buffer(Duration.ZERO, 100, 1);
+
+        buffer.extend(TOKEN, STORED, STORED.plusSeconds(60));
+        writeFails = true;
+
+        assertThrows(QueryTimeoutException.class, () -> buffer.extend(OTHER, STORED, STORED.plusSeconds(60)));
+        assertNull(buffer.pending(OTHER));
+        assertEquals(STORED.plusSeconds(60), buffer.pending(TOKEN));
+    }
+}
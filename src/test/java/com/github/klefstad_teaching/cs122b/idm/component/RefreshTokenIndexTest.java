@@ -0,0 +1,257 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.RefreshTokenIndexConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RefreshTokenIndexTest
+{
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    // with one segment of 64 slots, the slot a token probes from is hash & 63
+    private static final int SLOTS = 64;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Random              random   = new Random(42);
+
+    private RefreshTokenIndex index(int capacity, int segments)
+    {
+        return new RefreshTokenIndex(new RefreshTokenIndexConfig(capacity, segments), registry);
+    }
+
+    private static RefreshToken token(String token, int userId, TokenStatus status, Instant maxLifeTime)
+    {
+        return new RefreshToken()
+                .setToken(token)
+                .setUserId(userId)
+                .setTokenStatus(status)
+                .setExpireTime(NOW.plus(Duration.ofMinutes(30)))
+                .setMaxLifeTime(maxLifeTime);
+    }
+
+    private String randomToken()
+    {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    // tokens that all start probing at the same slot of a 64 slot segment
+    private List<String> colliding(int count)
+    {
+        List<String> tokens = new ArrayList<>();
+        int slot = -1;
+
+        while (tokens.size() < count) {
+            UUID key = new UUID(random.nextLong(), random.nextLong());
+            int keySlot = (int) RefreshTokenIndex.hash(key) & (SLOTS - 1);
+
+            if (slot < 0)
+                slot = keySlot;
+
+            if (keySlot == slot)
+                tokens.add(key.toString());
+        }
+
+        return tokens;
+    }
+
+    private double requests(String result)
+    {
+        return registry.get("idm.refresh-token-index.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    public void indexedTokenIsFound()
+    {
+        RefreshTokenIndex index = index(4096, 4);
+        String token = randomToken();
+
+        index.put(token(token, 7, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(12))));
+
+        RefreshToken indexed = index.get(token, NOW);
+
+        assertEquals(token, indexed.getToken());
+        assertEquals(7, indexed.getUserId());
+        assertEquals(TokenStatus.ACTIVE, indexed.getTokenStatus());
+        assertEquals(NOW.plus(Duration.ofHours(12)), indexed.getMaxLifeTime());
+        // the expire time slides in the database and is not indexed
+        assertNull(indexed.getExpireTime());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void unknownAndMalformedTokensAreMisses()
+    {
+        RefreshTokenIndex index = index(4096, 4);
+
+        assertNull(index.get(randomToken(), NOW));
+        assertNull(index.get("not-a-token", NOW));
+        assertNull(index.get(new UUID(0, 0).toString(), NOW));
+    }
+
+    @Test
+    public void zeroCapacityDisablesTheIndex()
+    {
+        RefreshTokenIndex index = index(0, 4);
+        String token = randomToken();
+
+        index.put(token(token, 7, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(12))));
+
+        assertNull(index.get(token, NOW));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void onlyLocalAnswersAreHits()
+    {
+        RefreshTokenIndex index = index(4096, 4);
+        String active = randomToken();
+        String revoked = randomToken();
+        String pastMaxLife = randomToken();
+
+        index.put(token(active, 1, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(12))));
+        index.put(token(revoked, 1, TokenStatus.REVOKED, NOW.plus(Duration.ofHours(12))));
+        index.put(token(pastMaxLife, 1, TokenStatus.ACTIVE, NOW.minusSeconds(1)));
+
+        // an active token still needs the database
+        assertEquals(TokenStatus.ACTIVE, index.get(active, NOW).getTokenStatus());
+        assertEquals(TokenStatus.REVOKED, index.get(revoked, NOW).getTokenStatus());
+        // max_life_time never moves, so it is expired without asking
+        assertEquals(TokenStatus.EXPIRED, index.get(pastMaxLife, NOW).getTokenStatus());
+        index.get(randomToken(), NOW);
+
+        assertEquals(2, requests("hit"));
+        assertEquals(2, requests("miss"));
+    }
+
+    @Test
+    public void statusUpdateOnlyTouchesIndexedTokens()
+    {
+        RefreshTokenIndex index = index(4096, 4);
+        String token = randomToken();
+
+        index.updateStatus(token, TokenStatus.REVOKED);
+        assertNull(index.get(token, NOW));
+        assertEquals(0, index.size());
+
+        index.put(token(token, 7, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(12))));
+        index.updateStatus(token, TokenStatus.EXPIRED);
+
+        assertEquals(TokenStatus.EXPIRED, index.get(token, NOW).getTokenStatus());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void collidingTokensProbeTheFollowingSlots()
+    {
+        RefreshTokenIndex index = index(SLOTS, 1);
+        List<String> tokens = colliding(16);
+
+        for (int i = 0; i < tokens.size(); i++)
+            index.put(token(tokens.get(i), i, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(1 + i))));
+
+        for (int i = 0; i < tokens.size(); i++)
+            assertEquals(i, index.get(tokens.get(i), NOW).getUserId());
+
+        assertEquals(16, index.size());
+    }
+
+    @Test
+    public void tokenEndingFirstIsEvictedWhenTheProbeIsFull()
+    {
+        RefreshTokenIndex index = index(SLOTS, 1);
+        List<String> tokens = colliding(17);
+
+        // token 5 has the earliest max life time of the 16 that fit
+        for (int i = 0; i < 16; i++) {
+            Instant maxLifeTime = NOW.plus(Duration.ofHours(i == 5 ? 1 : 2 + i));
+            index.put(token(tokens.get(i), i, TokenStatus.ACTIVE, maxLifeTime));
+        }
+
+        index.put(token(tokens.get(16), 16, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(12))));
+
+        assertNull(index.get(tokens.get(5), NOW));
+        assertEquals(16, index.get(tokens.get(16), NOW).getUserId());
+
+        for (int i = 0; i < 16; i++) {
+            if (i != 5)
+                assertNotNull(index.get(tokens.get(i), NOW), "token " + i);
+        }
+
+        // the evicted slot was reused, not added
+        assertEquals(16, index.size());
+    }
+
+    @Test
+    public void indexNeverGrowsPastItsSlots()
+    {
+        RefreshTokenIndex index = index(SLOTS, 1);
+
+        for (int i = 0; i < 10_000; i++)
+            index.put(token(randomToken(), i, TokenStatus.ACTIVE, NOW.plusSeconds(i)));
+
+        assertTrue(index.size() <= SLOTS, "size " + index.size());
+    }
+
+    @Test
+    public void readersNeverSeeATornSlot()
+            throws Exception
+    {
+        RefreshTokenIndex index = index(SLOTS, 1);
+        // a full probe window, so every put overwrites a slot readers are probing
+        List<String> tokens = colliding(24);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            for (int round = 0; running.get(); round++) {
+                int i = round % tokens.size();
+                // every field derives from the token, a mix of two tokens is detectable
+                index.put(token(tokens.get(i), i, TokenStatus.ACTIVE, NOW.plus(Duration.ofHours(1 + round % 97))));
+                index.updateStatus(tokens.get(i), round % 2 == 0 ? TokenStatus.ACTIVE : TokenStatus.REVOKED);
+            }
+        });
+
+        List<Thread> readers = new ArrayList<>();
+
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                while (running.get()) {
+                    for (int i = 0; i < tokens.size(); i++) {
+                        RefreshToken indexed = index.get(tokens.get(i), NOW);
+
+                        if (indexed != null && indexed.getUserId() != i)
+                            failure.set("token " + i + " read with user " + indexed.getUserId());
+                    }
+                }
+            }));
+        }
+
+        writer.start();
+        readers.forEach(Thread::start);
+
+        Thread.sleep(500);
+        running.set(false);
+
+        writer.join();
+        for (Thread reader : readers)
+            reader.join();
+
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.klefstad_teaching.cs122b.idm.component;
+
+import com.github.klefstad_teaching.cs122b.idm.config.UserCacheConfig;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.UserStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class UserCacheTest
+{
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private UserCache cache(int maxSize, Duration ttl)
+    {
+        return new UserCache(new UserCacheConfig(maxSize, ttl), registry);
+    }
+
+    private UserCache cache(int maxSize)
+    {
+        return cache(maxSize, Duration.ofMinutes(1));
+    }
+
+    private static User user(int id)
+    {
+        return new User()
+                .setId(id)
+                .setEmail("User" + id + "@example.com")
+                .setUserStatus(UserStatus.ACTIVE)
+                .setRoleMask(Role.PREMIUM.mask());
+    }
+
+    private double requests(String result)
+    {
+        return registry.get("idm.user-cache.requests").tag("result", result).counter().count();
+    }
+
+    private double size()
+    {
+        return registry.get("idm.user-cache.size").gauge().value();
+    }
+
+    @Test
+    public void putUserIsHit()
+    {
+        UserCache cache = cache(100);
+        cache.put(user(1));
+
+        User cached = cache.getById(1);
+
+        assertEquals("User1@example.com", cached.getEmail());
+        assertEquals(UserStatus.ACTIVE, cached.getUserStatus());
+        assertEquals(List.of(Role.PREMIUM), cached.getRoles());
+        assertEquals(1, requests("hit"));
+        assertEquals(0, requests("miss"));
+    }
+
+    @Test
+    public void unknownUserIsMiss()
+    {
+        UserCache cache = cache(100);
+        cache.put(user(1));
+
+        assertNull(cache.getById(2));
+        assertNull(cache.getById(null));
+        assertEquals(0, requests("hit"));
+        assertEquals(2, requests("miss"));
+    }
+
+    @Test
+    public void callersGetCopies()
+    {
+        UserCache cache = cache(100);
+        User user = user(1);
+        cache.put(user);
+
+        // neither the instance that was put nor one handed out reaches the cache
+        user.setUserStatus(UserStatus.BANNED);
+        User first = cache.getById(1);
+        first.setRoles(Role.ADMIN);
+
+        User second = cache.getById(1);
+
+        assertNotSame(first, second);
+        assertEquals(UserStatus.ACTIVE, second.getUserStatus());
+        assertEquals(List.of(Role.PREMIUM), second.getRoles());
+    }
+
+    @Test
+    public void laterPutReplaces()
+    {
+        UserCache cache = cache(100);
+        cache.put(user(1));
+        cache.put(user(1).setUserStatus(UserStatus.LOCKED));
+
+        assertEquals(UserStatus.LOCKED, cache.getById(1).getUserStatus());
+        assertEquals(1, size());
+    }
+
+    @Test
+    public void invalidateRemovesOnlyThatUser()
+    {
+        UserCache cache = cache(100);
+        cache.put(user(1));
+        cache.put(user(2));
+
+        cache.invalidate(1);
+        cache.invalidate(3);
+
+        assertNull(cache.getById(1));
+        assertNotNull(cache.getById(2));
+    }
+
+    @Test
+    public void invalidateAllEmptiesCache()
+    {
+        UserCache cache = cache(100);
+        cache.put(user(1));
+        cache.put(user(2));
+
+        cache.invalidateAll();
+
+        assertNull(cache.getById(1));
+        assertNull(cache.getById(2));
+        assertEquals(0, size());
+    }
+
+    @Test
+    public void expiredUserIsMissAndRemoved()
+    {
+        UserCache cache = cache(100, Duration.ZERO);
+        cache.put(user(1));
+
+        assertNull(cache.getById(1));
+        assertEquals(1, requests("miss"));
+        assertEquals(0, size());
+    }
+
+    @Test
+    public void fullCacheEvictsBeforePut()
+    {
+        UserCache cache = cache(16);
+
+        for (int id = 1; id <= 16; id++)
+            cache.put(user(id));
+
+        cache.put(user(17));
+
+        // one slot is freed for the new user, it is never the one evicted
+        assertEquals(16, size());
+        assertNotNull(cache.getById(17));
+    }
+
+    @Test
+    public void evictionDropsExpiredFirst()
+    {
+        UserCache expiring = cache(16, Duration.ZERO);
+
+        for (int id = 1; id <= 16; id++)
+            expiring.put(user(id));
+
+        expiring.put(user(17));
+
+        // all 16 were already expired, so nothing live had to go
+        assertEquals(1, size());
+    }
+
+    @Test
+    public void zeroSizeDisablesCache()
+    {
+        UserCache cache = cache(0);
+        cache.put(user(1));
+
+        assertNull(cache.getById(1));
+        assertEquals(0, size());
+        assertEquals(1, requests("miss"));
+    }
+}
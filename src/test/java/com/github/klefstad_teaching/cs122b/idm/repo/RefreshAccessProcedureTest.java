@@ -0,0 +1,266 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshResult;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.RefreshToken;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.RefreshOutcome;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.TokenStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// idm.refresh_access decides every /refresh, these drive each of its outcomes
+// against the database directly. TIMESTAMP has no fraction of a second, so all
+// times are whole seconds
+@SpringBootTest
+@Sql("/idm-test-data.sql")
+public class RefreshAccessProcedureTest
+{
+    private static final Duration EXPIRE        = Duration.ofMinutes(30);
+    private static final Duration MAX_LIFE_TIME = Duration.ofHours(12);
+
+    private final IDMRepo repo;
+    private final Integer userId;
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+    @Autowired
+    public RefreshAccessProcedureTest(IDMRepo repo)
+    {
+        this.repo = repo;
+        this.userId = repo.selectAUser("Active@example.com").getId();
+    }
+
+    private String storedToken(TokenStatus status, Instant expireTime, Instant maxLifeTime)
+    {
+        String token = UUID.randomUUID().toString();
+        repo.addRefreshTokenToDB(token, userId, status, expireTime, maxLifeTime);
+        return token;
+    }
+
+    private String activeToken()
+    {
+        return storedToken(TokenStatus.ACTIVE, now.plus(EXPIRE), now.plus(MAX_LIFE_TIME));
+    }
+
+    private RefreshToken replacement()
+    {
+        return new RefreshToken()
+                .setToken(UUID.randomUUID().toString())
+                .setExpireTime(now.plus(EXPIRE))
+                .setMaxLifeTime(now.plus(MAX_LIFE_TIME));
+    }
+
+    // refreshes at `at`, asking for the expiry /refresh would set then
+    private RefreshResult refresh(String token, Instant at, RefreshToken replacement)
+    {
+        return repo.refreshAccess(token, at, at.plus(EXPIRE), null, replacement, true);
+    }
+
+    private RefreshResult refresh(String token, Instant at)
+    {
+        return refresh(token, at, replacement());
+    }
+
+    @Test
+    public void unknownTokenIsNotFound()
+    {
+        RefreshResult result = refresh(UUID.randomUUID().toString(), now);
+
+        assertEquals(RefreshOutcome.NOT_FOUND, result.getOutcome());
+        assertNull(result.getUser());
+        assertNull(result.getStoredExpireTime());
+    }
+
+    @Test
+    public void tokenWithinItsLifeIsExtended()
+    {
+        String token = activeToken();
+
+        RefreshResult result = refresh(token, now.plusSeconds(60));
+
+        assertEquals(RefreshOutcome.EXTENDED, result.getOutcome());
+        assertEquals(token, result.getRefreshToken());
+        // the new expiry is written behind by RefreshExpiryBuffer, not here
+        assertEquals(now.plus(EXPIRE), result.getStoredExpireTime());
+        assertEquals(userId, result.getUser().getId());
+        assertEquals("Active@example.com", result.getUser().getEmail());
+    }
+
+    @Test
+    public void userIsOnlyLoadedWhenAskedFor()
+    {
+        RefreshResult result = repo.refreshAccess(activeToken(), now, now.plus(EXPIRE), null, replacement(), false);
+
+        assertEquals(RefreshOutcome.EXTENDED, result.getOutcome());
+        assertEquals(userId, result.getUser().getId());
+        assertNull(result.getUser().getEmail());
+    }
+
+    @Test
+    public void tokenPastItsExpireTimeIsExpired()
+    {
+        String token = activeToken();
+        Instant later = now.plus(EXPIRE).plusSeconds(1);
+
+        assertEquals(RefreshOutcome.EXPIRED, refresh(token, later).getOutcome());
+        // the status was written, the token stays expired
+        assertEquals(RefreshOutcome.EXPIRED, refresh(token, now).getOutcome());
+    }
+
+    @Test
+    public void tokenPastItsMaxLifeTimeIsExpired()
+    {
+        String token = storedToken(TokenStatus.ACTIVE, now.plus(MAX_LIFE_TIME).plus(EXPIRE), now.plus(MAX_LIFE_TIME));
+
+        assertEquals(RefreshOutcome.EXPIRED, refresh(token, now.plus(MAX_LIFE_TIME).plusSeconds(1)).getOutcome());
+    }
+
+    @Test
+    public void pendingExtensionKeepsTheTokenAlive()
+    {
+        String token = activeToken();
+        Instant later = now.plus(EXPIRE).plusSeconds(1);
+
+        // RefreshExpiryBuffer holds an extension that is not in the table yet
+        RefreshResult result = repo.refreshAccess(
+                token, later, later.plus(EXPIRE), later.plusSeconds(60), replacement(), true);
+
+        assertEquals(RefreshOutcome.EXTENDED, result.getOutcome());
+    }
+
+    @Test
+    public void revokedTokenIsRevoked()
+    {
+        String token = storedToken(TokenStatus.REVOKED, now.plus(EXPIRE), now.plus(MAX_LIFE_TIME));
+
+        RefreshResult result = refresh(token, now);
+
+        assertEquals(RefreshOutcome.REVOKED, result.getOutcome());
+        assertEquals(userId, result.getUser().getId());
+    }
+
+    @Test
+    public void expiredStatusWinsOverTimes()
+    {
+        String token = storedToken(TokenStatus.EXPIRED, now.plus(EXPIRE), now.plus(MAX_LIFE_TIME));
+
+        assertEquals(RefreshOutcome.EXPIRED, refresh(token, now).getOutcome());
+    }
+
+    @Test
+    public void tokenNearItsMaxLifeTimeIsRotated()
+    {
+        // the next expiry would pass max_life_time
+        String token = storedToken(TokenStatus.ACTIVE, now.plus(EXPIRE), now.plus(EXPIRE).minusSeconds(60));
+        RefreshToken replacement = replacement();
+
+        RefreshResult result = refresh(token, now, replacement);
+
+        assertEquals(RefreshOutcome.ROTATED, result.getOutcome());
+        assertEquals(replacement.getToken(), result.getRefreshToken());
+        assertEquals(userId, result.getUser().getId());
+
+        // the old token is revoked, the new one belongs to the same user and is active
+        assertEquals(RefreshOutcome.REVOKED, refresh(token, now).getOutcome());
+
+        RefreshResult rotated = refresh(replacement.getToken(), now);
+
+        assertEquals(RefreshOutcome.EXTENDED, rotated.getOutcome());
+        assertEquals(userId, rotated.getUser().getId());
+        assertEquals(replacement.getExpireTime(), rotated.getStoredExpireTime());
+    }
+
+    @Test
+    public void extendingNeedsNoReplacement()
+    {
+        RefreshResult result = refresh(activeToken(), now.plusSeconds(60), null);
+
+        assertEquals(RefreshOutcome.EXTENDED, result.getOutcome());
+        assertEquals(userId, result.getUser().getId());
+    }
+
+    @Test
+    public void rotationWithoutReplacementChangesNothing()
+    {
+        String token = storedToken(TokenStatus.ACTIVE, now.plus(EXPIRE), now.plus(EXPIRE).minusSeconds(60));
+
+        assertEquals(RefreshOutcome.REPLACEMENT_NEEDED, refresh(token, now, null).getOutcome());
+
+        // still active, the call the service repeats with a replacement rotates it
+        RefreshToken replacement = replacement();
+        RefreshResult result = refresh(token, now, replacement);
+
+        assertEquals(RefreshOutcome.ROTATED, result.getOutcome());
+        assertEquals(replacement.getToken(), result.getRefreshToken());
+    }
+
+    @Test
+    public void concurrentRefreshesRotateOnce()
+            throws Exception
+    {
+        int clients = 8;
+        String token = storedToken(TokenStatus.ACTIVE, now.plus(EXPIRE), now.plus(EXPIRE).minusSeconds(60));
+
+        List<RefreshToken> replacements = new ArrayList<>();
+        for (int i = 0; i < clients; i++)
+            replacements.add(replacement());
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<RefreshResult>> futures = new ArrayList<>();
+
+        try {
+            for (RefreshToken replacement : replacements) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return refresh(token, now, replacement);
+                }));
+            }
+
+            start.countDown();
+
+            int rotated = 0;
+            int revoked = 0;
+
+            for (Future<RefreshResult> future : futures) {
+                RefreshOutcome outcome = future.get().getOutcome();
+
+                if (outcome == RefreshOutcome.ROTATED)
+                    rotated++;
+                else if (outcome == RefreshOutcome.REVOKED)
+                    revoked++;
+            }
+
+            // the row lock lets one through, the rest see the token it revoked
+            assertEquals(1, rotated);
+            assertEquals(clients - 1, revoked);
+
+        } finally {
+            executor.shutdown();
+        }
+
+        // exactly one replacement was stored
+        int stored = 0;
+
+        for (RefreshToken replacement : replacements) {
+            if (refresh(replacement.getToken(), now).getOutcome() != RefreshOutcome.NOT_FOUND)
+                stored++;
+        }
+
+        assertEquals(1, stored);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.component.PasswordHasher;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.PasswordHashVersion;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// a login rehashes an outdated password only while the row still holds the
+// hash it checked, a password changed in the meantime is never overwritten
+@SpringBootTest
+@Sql("/idm-test-data.sql")
+public class UpdateUserPasswordTest
+{
+    private static final String EMAIL    = "Active@example.com";
+    private static final char[] PASSWORD = "ActivePassWord0".toCharArray();
+
+    private final IDMRepo        repo;
+    private final PasswordHasher passwordHasher;
+
+    @Autowired
+    public UpdateUserPasswordTest(IDMRepo repo, PasswordHasher passwordHasher)
+    {
+        this.repo = repo;
+        this.passwordHasher = passwordHasher;
+    }
+
+    @Test
+    public void rehashReplacesCheckedHash()
+    {
+        User stored = repo.selectAUser(EMAIL);
+        String previousHash = stored.getHashedPassword();
+
+        repo.updateUserPassword(passwordHasher.hash(stored, PASSWORD), previousHash);
+
+        User updated = repo.selectAUser(EMAIL);
+
+        assertEquals(PasswordHasher.CURRENT_VERSION, updated.getHashVersion());
+        assertEquals(passwordHasher.iterations(), updated.getHashIterations());
+        assertTrue(passwordHasher.matches(updated, PASSWORD));
+    }
+
+    @Test
+    public void rehashLosesToConcurrentChange()
+    {
+        User stored = repo.selectAUser(EMAIL);
+        String previousHash = stored.getHashedPassword();
+
+        // another request changed the password after this one checked it
+        User changed = repo.selectAUser(EMAIL);
+        repo.updateUserPassword(passwordHasher.hash(changed, "ChangedPassWord0".toCharArray()), previousHash);
+
+        repo.updateUserPassword(passwordHasher.hash(stored, PASSWORD), previousHash);
+
+        User updated = repo.selectAUser(EMAIL);
+
+        assertEquals(changed.getHashedPassword(), updated.getHashedPassword());
+        assertTrue(passwordHasher.matches(updated, "ChangedPassWord0".toCharArray()));
+    }
+
+    @Test
+    public void seededHashIsOutdated()
+    {
+        User stored = repo.selectAUser(EMAIL);
+
+        assertEquals(PasswordHashVersion.PBKDF2_SHA512_FIXED, stored.getHashVersion());
+        assertTrue(passwordHasher.matches(stored, PASSWORD));
+        assertTrue(passwordHasher.needsRehash(stored));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.klefstad_teaching.cs122b.idm.repo;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.type.Role;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// roles are read as BIT_OR(1 << role_id), these check the mask that comes out
+// of the row mapping, and that a role this build does not know fails the load
+@SpringBootTest
+@Sql("/idm-test-data.sql")
+public class UserRoleMaskTest
+{
+    // a role id past every Role, as if a newer build had added it
+    private static final int UNKNOWN_ROLE_ID = 9;
+
+    private final IDMRepo                    repo;
+    private final NamedParameterJdbcTemplate template;
+
+    @Autowired
+    public UserRoleMaskTest(IDMRepo repo, NamedParameterJdbcTemplate template)
+    {
+        this.repo = repo;
+        this.template = template;
+    }
+
+    @AfterEach
+    public void removeUnknownRole()
+    {
+        MapSqlParameterSource source = new MapSqlParameterSource().addValue("id", UNKNOWN_ROLE_ID);
+
+        template.update("DELETE FROM idm.user_role WHERE role_id = :id", source);
+        template.update("DELETE FROM idm.role WHERE id = :id", source);
+    }
+
+    @Test
+    public void userWithoutRolesHasEmptyMask()
+    {
+        assertTrue(repo.selectAUser("Active@example.com").getRoles().isEmpty());
+    }
+
+    @Test
+    public void rolesAreReadFromMask()
+    {
+        assertEquals(List.of(Role.ADMIN), repo.selectAUser("Admin@example.com").getRoles());
+        assertEquals(List.of(Role.EMPLOYEE), repo.selectAUser("Employee@example.com").getRoles());
+        assertEquals(List.of(Role.PREMIUM), repo.selectAUser("Premium@example.com").getRoles());
+    }
+
+    @Test
+    public void unknownRoleFailsRowMapping()
+    {
+        MapSqlParameterSource source = new MapSqlParameterSource()
+                .addValue("id", UNKNOWN_ROLE_ID)
+                .addValue("email", "Admin@example.com");
+
+        template.update("INSERT INTO idm.role (id, name, description, precedence) " +
+                        "VALUES (:id, 'Unknown', 'Role from a newer build', 20)", source);
+        template.update("INSERT INTO idm.user_role (user_id, role_id) " +
+                        "SELECT id, :id FROM idm.user WHERE email = :email", source);
+
+        assertThrows(IllegalArgumentException.class, () -> repo.selectAUser("Admin@example.com"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.klefstad_teaching.cs122b.idm.repo.entity.type;
+
+import com.github.klefstad_teaching.cs122b.idm.repo.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RoleTest
+{
+    @Test
+    public void emptyMaskHasNoRoles()
+    {
+        assertTrue(Role.fromMask(0).isEmpty());
+        assertEquals(0, Role.toMask(List.of()));
+    }
+
+    @Test
+    public void eachRoleIsItsOwnBit()
+    {
+        for (Role role : Role.values()) {
+            assertEquals(1L << role.getId(), role.mask());
+            assertEquals(List.of(role), Role.fromMask(role.mask()));
+        }
+    }
+
+    @Test
+    public void rolesComeBackOrderedById()
+    {
+        long mask = Role.PREMIUM.mask() | Role.ADMIN.mask();
+
+        assertEquals(List.of(Role.ADMIN, Role.PREMIUM), Role.fromMask(mask));
+        assertEquals(mask, Role.toMask(List.of(Role.PREMIUM, Role.ADMIN)));
+    }
+
+    @Test
+    public void everyValidMaskRoundTrips()
+    {
+        long all = Role.toMask(EnumSet.allOf(Role.class));
+
+        for (long mask = 0; mask < Role.MASK_LIMIT; mask++) {
+            // no role has id 0
+            if ((mask & ~all) != 0)
+                continue;
+
+            assertEquals(mask, Role.toMask(Role.fromMask(mask)));
+        }
+    }
+
+    @Test
+    public void unknownBitIsRejected()
+    {
+        // no role has id 0
+        assertThrows(IllegalArgumentException.class, () -> Role.fromMask(1));
+        assertThrows(IllegalArgumentException.class, () -> Role.fromMask(Role.ADMIN.mask() | 1));
+        assertThrows(IllegalArgumentException.class, () -> Role.fromMask(Role.MASK_LIMIT));
+        assertThrows(IllegalArgumentException.class, () -> Role.fromMask(1L << 40));
+        assertThrows(IllegalArgumentException.class, () -> Role.fromMask(-1));
+    }
+
+    @Test
+    public void fromMaskListIsUnmodifiable()
+    {
+        assertThrows(UnsupportedOperationException.class,
+                     () -> Role.fromMask(Role.ADMIN.mask()).add(Role.EMPLOYEE));
+    }
+
+    @Test
+    public void userRoleMaskFollowsRoles()
+    {
+        User user = new User().setRoleMask(Role.EMPLOYEE.mask());
+
+        assertEquals(List.of(Role.EMPLOYEE), user.getRoles());
+
+        user.setRoles(Role.PREMIUM);
+
+        assertEquals(Role.EMPLOYEE.mask() | Role.PREMIUM.mask(), user.getRoleMask());
+    }
+
+    @Test
+    public void userRejectsUnknownBit()
+    {
+        User user = new User().setRoleMask(Role.ADMIN.mask());
+
+        assertThrows(IllegalArgumentException.class, () -> user.setRoleMask(Role.MASK_LIMIT));
+
+        // the failed set leaves the user as it was
+        assertEquals(Role.ADMIN.mask(), user.getRoleMask());
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.klefstad_teaching.cs122b.idm.rest;
+
+import com.github.klefstad_teaching.cs122b.idm.component.LoginRateLimiter;
+import com.github.klefstad_teaching.cs122b.idm.config.BulkheadConfig;
+import com.github.klefstad_teaching.cs122b.idm.config.RateLimitConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// the per-address rate limit and the bulkheads on the reactive profile
+public class ReactiveFiltersTest
+{
+    private final AtomicInteger passed = new AtomicInteger();
+
+    private final WebFilterChain chain = exchange -> Mono.fromRunnable(passed::incrementAndGet);
+
+    private static MockServerWebExchange post(String path, String remoteAddress, String... forwardedFor)
+    {
+        return MockServerWebExchange.from(
+                MockServerHttpRequest.post(path)
+                        .remoteAddress(new InetSocketAddress(remoteAddress, 4711))
+                        .header("X-Forwarded-For", forwardedFor));
+    }
+
+    private static ReactiveRateLimitFilter rateLimitFilter(int burst)
+    {
+        RateLimitConfig config = new RateLimitConfig(
+                burst, 0.001, 0, 1.0, 1000, Duration.ofMinutes(10), List.of("10.0.0.0/8"));
+
+        return new ReactiveRateLimitFilter(new LoginRateLimiter(config, new SimpleMeterRegistry()));
+    }
+
+    private static ReactiveBulkheadFilter bulkheadFilter(int maxConcurrent)
+    {
+        BulkheadConfig.Limit limit = new BulkheadConfig.Limit(maxConcurrent, 0, Duration.ZERO);
+
+        return new ReactiveBulkheadFilter(new BulkheadConfig(limit, limit), new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void clientOverItsRateGets429()
+    {
+        ReactiveRateLimitFilter filter = rateLimitFilter(2);
+
+        for (int i = 0; i < 3; i++)
+            filter.filter(post("/login", "203.0.113.7"), chain).block();
+
+        MockServerWebExchange rejected = post("/login", "203.0.113.7");
+        filter.filter(rejected, chain).block();
+
+        assertEquals(2, passed.get());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getResponse().getStatusCode());
+        assertEquals("1000", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void clientsBehindTheGatewayHaveTheirOwnRate()
+    {
+        ReactiveRateLimitFilter filter = rateLimitFilter(1);
+
+        filter.filter(post("/login", "10.0.0.2", "198.51.100.1"), chain).block();
+        filter.filter(post("/login", "10.0.0.2", "198.51.100.2"), chain).block();
+
+        assertEquals(2, passed.get());
+    }
+
+    @Test
+    public void otherPathsAreNotRateLimited()
+    {
+        ReactiveRateLimitFilter filter = rateLimitFilter(1);
+
+        for (int i = 0; i < 5; i++)
+            filter.filter(post("/authenticate", "203.0.113.7"), chain).block();
+
+        assertEquals(5, passed.get());
+    }
+
+    @Test
+    public void fullBulkheadRejectsWith503()
+    {
+        ReactiveBulkheadFilter filter = bulkheadFilter(1);
+        Sinks.Empty<Void> firstRequest = Sinks.empty();
+
+        // the first /login is still in flight
+        WebFilterChain slowChain = exchange -> firstRequest.asMono();
+        filter.filter(post("/login", "203.0.113.7"), slowChain).subscribe();
+
+        ServerWebExchange rejected = post("/login", "203.0.113.8");
+        filter.filter(rejected, chain).block();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getResponse().getStatusCode());
+        assertEquals(0, passed.get());
+
+        // the slot is given back once the first request completes
+        firstRequest.tryEmitEmpty();
+
+        ServerWebExchange admitted = post("/login", "203.0.113.8");
+        filter.filter(admitted, chain).block();
+
+        assertNull(admitted.getResponse().getStatusCode());
+        assertEquals(1, passed.get());
+    }
+
+    @Test
+    public void bulkheadsAreSeparate()
+    {
+        ReactiveBulkheadFilter filter = bulkheadFilter(1);
+
+        // /login holds the only credentials slot
+        filter.filter(post("/login", "203.0.113.7"), exchange -> Mono.never()).subscribe();
+
+        filter.filter(post("/refresh", "203.0.113.7"), chain).block();
+
+        assertEquals(1, passed.get());
+    }
+}
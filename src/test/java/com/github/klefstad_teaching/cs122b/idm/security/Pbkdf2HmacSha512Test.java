@@ -0,0 +1,176 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// the hand written engine has to produce exactly what the JDK's
+// PBKDF2WithHmacSHA512 does, every stored hash depends on it
+public class Pbkdf2HmacSha512Test
+{
+    // a few of the characters passwords are made of, 1 to 4 bytes in UTF-8
+    private static final String CHARACTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 !\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~" +
+            "\u00e9\u00df\u00f1\u03a9\u0416\u05d0\u4e2d\u6587\uac00\ud83d\ude00";
+
+    private final Random random = new Random(42);
+
+    private static byte[] jdkKey(char[] password, byte[] salt, int iterations, int keyByteLength)
+            throws Exception
+    {
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512")
+                .generateSecret(new PBEKeySpec(password, salt, iterations, keyByteLength * 8))
+                .getEncoded();
+    }
+
+    private static void assertMatchesJdk(char[] password, byte[] salt, int iterations, int keyByteLength)
+            throws Exception
+    {
+        assertArrayEquals(jdkKey(password, salt, iterations, keyByteLength),
+                          Pbkdf2HmacSha512.deriveKey(password, salt, iterations, keyByteLength),
+                          () -> "password length " + password.length + ", salt length " + salt.length +
+                                ", " + iterations + " iterations, key length " + keyByteLength);
+    }
+
+    private char[] randomPassword(int length)
+    {
+        StringBuilder password = new StringBuilder();
+
+        while (password.length() < length) {
+            int index = random.nextInt(CHARACTERS.length());
+
+            // the surrogate pair is kept whole
+            if (Character.isLowSurrogate(CHARACTERS.charAt(index)))
+                index--;
+            password.append(CHARACTERS.charAt(index));
+            if (Character.isHighSurrogate(CHARACTERS.charAt(index)))
+                password.append(CHARACTERS.charAt(index + 1));
+        }
+
+        return password.toString().toCharArray();
+    }
+
+    private byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void randomInputsMatchJdk()
+            throws Exception
+    {
+        for (int i = 0; i < 200; i++) {
+            assertMatchesJdk(randomPassword(1 + random.nextInt(40)),
+                             randomBytes(1 + random.nextInt(64)),
+                             1 + random.nextInt(2000),
+                             1 + random.nextInt(200));
+        }
+    }
+
+    @Test
+    public void keyLengthsAroundBlockBoundariesMatchJdk()
+            throws Exception
+    {
+        char[] password = "ActivePassWord0".toCharArray();
+        byte[] salt = randomBytes(16);
+
+        for (int keyByteLength : new int[]{ 1, 20, 32, 63, 64, 65, 100, 127, 128, 129, 191, 192, 193 })
+            assertMatchesJdk(password, salt, 10, keyByteLength);
+    }
+
+    @Test
+    public void passwordsAroundHmacBlockLengthMatchJdk()
+            throws Exception
+    {
+        // passwords encoding to more than 128 bytes are hashed to form the hmac key
+        byte[] salt = randomBytes(16);
+
+        for (int length : new int[]{ 1, 63, 64, 127, 128, 129, 200, 500 })
+            assertMatchesJdk(randomPassword(length), salt, 3, 64);
+    }
+
+    @Test
+    public void singleIterationMatchesJdk()
+            throws Exception
+    {
+        assertMatchesJdk("p".toCharArray(), new byte[]{ 0 }, 1, 64);
+    }
+
+    @Test
+    public void storedIterationCountMatchesJdk()
+            throws Exception
+    {
+        // the fixed count of PBKDF2_SHA512_FIXED, and a calibrated one
+        assertMatchesJdk(randomPassword(15), randomBytes(4), 10000, 64);
+        assertMatchesJdk(randomPassword(15), randomBytes(16), 37000, 64);
+    }
+
+    @Test
+    public void seededTestDataHashesMatch()
+    {
+        // salt, stored hash and password of the users in idm-test-data.sql,
+        // written by the original 10000 iteration PBKDF2WithHmacSHA512 code
+        String[][] users = {
+                { "ebf18A==", "QB9Kcn/pYWqSWvp7h7gtksYDYhmeLz8IyxtoKUtttfPnMcgVtCedspVwHF7ryvTNg3rpaxue3qzmIIj+yMoENg==", "AdminPassWord0" },
+                { "j6u82Q==", "YpqQNAOOWH5Wuii0oFmV6GoW7I1C4JGNMRIQW2e6cZty1JU63oz9zTNIlgaU/h/r9x2fmN1QYXciVDvyhKOsBA==", "EmployeePassWord0" },
+                { "/97ajQ==", "O1VbNL2bAlns/ujxP1BupI9PK7suXSVPJpkkMnHhiRX9YuNOT3+j4R/7JmyQbXgsMr3+Dh4qPt98kH/0+cHqVw==", "PremiumPassWord0" },
+                { "BXVDsQ==", "3906lItAtnDxDK5i85TKsdhfMNJgHYcK6quOR6FegjmPB6ppS6NH7j3ie83kjwotLlVZZVklclRKnyXTSVoEJw==", "ActivePassWord0" },
+                { "RtmcdQ==", "SWosU8p7X5gylD5DjZYGn/jx8btmETsayVB6kG3MWUXNXLf1udaBeKN2eJfRXN1aLWeYiDbCjkzC9gwOfDfMmA==", "LockedPassWord0" },
+                { "6qC3gQ==", "phfAVFUj8x5nAETxLYM5xwrpDfRgyxaZm2s5qxEPp8eVQpQskuJIG/xwtarc/Eyt54vPzC3iqTjfr/SQzGUs8Q==", "BannedPassWord0" },
+                { "Vv2sSw==", "5UlJjR1TzUVWLgWQmjMRioi7tmLLQL99MIhtCi931hBzk6Qtn2szhI+On41hRaclXhChcGviuHmLthDKBWXtwQ==", "ValidPass0" },
+                { "Ww2y+Q==", "+p1+BIm+bWDA8zqJ/8UdP4cH85ycezFz5uOTueaHJ7fzMPvnakqA7qY0h69oISE7jT4i/eeSBRW3JmKW0bh9Gg==", "ValidPass01234567890" },
+                { "0VJkdg==", "EZoOTU2I1egZ+3FK5ADrZ2kHHy/9XSKr/S3nKbzfUUsJdXJaJqlVcciOsQx/aTYxsQJXTHP9ageAVzTQE9+MEw==", "MinEmailPassWord0" },
+                { "Z+udXg==", "e80+dqCEWEz1Fy5Ujt4Xaek/6LzROLZeqApaiBP7c1LQrURPEsOkXxR1qhXOimWopWwFaD2xqH56M342wxzVHA==", "MaxEmailPassWord0" }
+        };
+
+        for (String[] user : users) {
+            byte[] salt = Base64.getDecoder().decode(user[0]);
+
+            assertEquals(user[1],
+                         Base64.getEncoder().encodeToString(
+                                 Pbkdf2HmacSha512.deriveKey(user[2].toCharArray(), salt, 10000, 64)),
+                         user[2]);
+        }
+    }
+
+    @Test
+    public void concurrentCallersGetTheirOwnKeys()
+            throws Exception
+    {
+        // engines are pooled, a shared buffer would mix up keys between threads
+        char[][] passwords = new char[8][];
+        byte[][] salts = new byte[8][];
+        byte[][] expected = new byte[8][];
+
+        for (int i = 0; i < passwords.length; i++) {
+            passwords[i] = randomPassword(12);
+            salts[i] = randomBytes(16);
+            expected[i] = jdkKey(passwords[i], salts[i], 500, 96);
+        }
+
+        Thread[] threads = new Thread[passwords.length];
+        byte[][] actual = new byte[passwords.length][];
+
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                for (int run = 0; run < 20; run++)
+                    actual[index] = Pbkdf2HmacSha512.deriveKey(passwords[index], salts[index], 500, 96);
+            });
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertArrayEquals(expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.klefstad_teaching.cs122b.idm.security;
+
+import com.github.klefstad_teaching.cs122b.core.security.JWTManager;
+import com.github.klefstad_teaching.cs122b.idm.config.SigningConfig;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SigningKeysTest
+{
+    private static final String ACTIVE_KEY  = "ec-key.json";
+    private static final String RETIRED_KEY = "ec-key-retired.json";
+
+    private static ECKey readECKey(String fileName)
+            throws Exception
+    {
+        return ECKey.parse(new String(new ClassPathResource(fileName).getInputStream().readAllBytes(),
+                                      StandardCharsets.UTF_8));
+    }
+
+    private static SigningConfig es256(List<String> retiredKeyFileNames)
+    {
+        return new SigningConfig("ES256", List.of("ES256"), null, null, null, retiredKeyFileNames);
+    }
+
+    private static String headerSegment(JWSAlgorithm algorithm, String kid)
+    {
+        return new JWSHeader.Builder(algorithm).keyID(kid).type(JWTManager.JWS_TYPE).build()
+                .toBase64URL().toString();
+    }
+
+    @Test
+    public void activeKeySignsNewTokens()
+            throws Exception
+    {
+        ECKey activeKey = readECKey(ACTIVE_KEY);
+        SigningKeys keys = new SigningKeys(es256(List.of(RETIRED_KEY)), activeKey);
+
+        assertEquals(activeKey.getKeyID(), keys.activeKey().keyId());
+        assertEquals(headerSegment(JWSAlgorithm.ES256, activeKey.getKeyID()), keys.activeHeaderSegment());
+    }
+
+    @Test
+    public void retiredKeyOfTheSameAlgorithmIsStillAccepted()
+            throws Exception
+    {
+        ECKey activeKey = readECKey(ACTIVE_KEY);
+        ECKey retiredKey = readECKey(RETIRED_KEY);
+        SigningKeys keys = new SigningKeys(es256(List.of(RETIRED_KEY)), activeKey);
+
+        SigningKey retired = keys.forHeaderSegment(headerSegment(JWSAlgorithm.ES256, retiredKey.getKeyID()));
+        byte[] signingInput = "header.claims".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(retiredKey.getKeyID(), retired.keyId());
+        // a token the retired key signed before the rotation
+        assertTrue(retired.verify(signingInput, new EcSigningKey(retiredKey).sign(signingInput)));
+        assertSame(keys.activeKey(), keys.forHeaderSegment(keys.activeHeaderSegment()));
+    }
+
+    @Test
+    public void everyPublicKeyIsPublished()
+            throws Exception
+    {
+        ECKey activeKey = readECKey(ACTIVE_KEY);
+        SigningKeys keys = new SigningKeys(es256(List.of(RETIRED_KEY)), activeKey);
+
+        Set<String> kids = keys.publicJWKSet().getKeys().stream()
+                .map(JWK::getKeyID)
+                .collect(Collectors.toSet());
+
+        assertEquals(Set.of(activeKey.getKeyID(), readECKey(RETIRED_KEY).getKeyID()), kids);
+        keys.publicJWKSet().getKeys().forEach(jwk -> assertFalse(jwk.isPrivate()));
+    }
+
+    @Test
+    public void unknownKidIsNotAccepted()
+            throws Exception
+    {
+        SigningKeys keys = new SigningKeys(es256(List.of()), readECKey(ACTIVE_KEY));
+
+        assertNull(keys.forHeaderSegment(headerSegment(JWSAlgorithm.ES256, readECKey(RETIRED_KEY).getKeyID())));
+        // right kid, other algorithm
+        assertNull(keys.forHeaderSegment(headerSegment(JWSAlgorithm.HS256, readECKey(ACTIVE_KEY).getKeyID())));
+    }
+
+    @Test
+    public void duplicateKidFailsAtStartup()
+            throws Exception
+    {
+        ECKey activeKey = readECKey(ACTIVE_KEY);
+
+        assertThrows(IllegalStateException.class, () -> new SigningKeys(es256(List.of(ACTIVE_KEY)), activeKey));
+    }
+}
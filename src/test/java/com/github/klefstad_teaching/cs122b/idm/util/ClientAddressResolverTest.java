@@ -0,0 +1,92 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ClientAddressResolverTest
+{
+    private final ClientAddressResolver resolver =
+            new ClientAddressResolver(List.of("127.0.0.1", "10.0.0.0/8", "fd00::/8"));
+
+    @Test
+    public void directClientIsKeyedByItsAddress()
+    {
+        assertEquals("203.0.113.7", resolver.resolve("203.0.113.7", List.of()));
+    }
+
+    @Test
+    public void forwardedForIsIgnoredFromUntrustedPeers()
+    {
+        // a client sending the header itself
+        assertEquals("203.0.113.7", resolver.resolve("203.0.113.7", List.of("198.51.100.1")));
+    }
+
+    @Test
+    public void clientBehindTheGatewayIsTakenFromForwardedFor()
+    {
+        assertEquals("198.51.100.1", resolver.resolve("10.1.2.3", List.of("198.51.100.1")));
+        assertEquals("198.51.100.2", resolver.resolve("10.1.2.3", List.of("198.51.100.2")));
+    }
+
+    @Test
+    public void onlyHopsWrittenByTrustedProxiesAreUsed()
+    {
+        // client forged the first entry, the gateway appended the real address, then a load balancer
+        assertEquals("198.51.100.1",
+                     resolver.resolve("127.0.0.1", List.of("192.0.2.66, 198.51.100.1, 10.0.0.5")));
+        // same across several header lines
+        assertEquals("198.51.100.1",
+                     resolver.resolve("127.0.0.1", List.of("192.0.2.66", "198.51.100.1", "10.0.0.5")));
+    }
+
+    @Test
+    public void garbageInForwardedForStopsAtTheLastTrustedHop()
+    {
+        assertEquals("10.0.0.5", resolver.resolve("127.0.0.1", List.of("198.51.100.1, unknown, 10.0.0.5")));
+        // never looked up in DNS
+        assertEquals("10.0.0.5", resolver.resolve("127.0.0.1", List.of("localhost, 10.0.0.5")));
+    }
+
+    @Test
+    public void portsAndBracketsAreStripped()
+    {
+        assertEquals("198.51.100.1", resolver.resolve("127.0.0.1", List.of("198.51.100.1:4711")));
+        assertEquals("2001:db8:0:1:0:0:0:0/64", resolver.resolve("127.0.0.1", List.of("[2001:db8:0:1::5]:4711")));
+    }
+
+    @Test
+    public void ipv6ClientsAreKeyedByTheirSlash64()
+    {
+        String key = resolver.resolve("2001:db8:0:1::1", List.of());
+
+        assertEquals(key, resolver.resolve("2001:db8:0:1:ffff:ffff:ffff:ffff", List.of()));
+        assertEquals("2001:db8:0:2:0:0:0:0/64", resolver.resolve("2001:db8:0:2::1", List.of()));
+    }
+
+    @Test
+    public void trustedIpv6Proxy()
+    {
+        assertEquals("198.51.100.1", resolver.resolve("fd12::1", List.of("198.51.100.1")));
+    }
+
+    @Test
+    public void onlyIpLiteralsAreParsed()
+    {
+        assertNull(ClientAddressResolver.parse("example.com"));
+        assertNull(ClientAddressResolver.parse("256.1.1.1"));
+        assertNull(ClientAddressResolver.parse("1.2.3"));
+        assertNull(ClientAddressResolver.parse(""));
+    }
+
+    @Test
+    public void invalidTrustedProxyFailsAtStartup()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new ClientAddressResolver(List.of("gateway")));
+        assertThrows(IllegalArgumentException.class, () -> new ClientAddressResolver(List.of("10.0.0.0/33")));
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrencyLimitedDataSourceTest
+{
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // connections that do nothing, only the permits are under test
+    private static class NoopDataSource extends AbstractDataSource
+    {
+        @Override
+        public Connection getConnection()
+        {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> null);
+        }
+    }
+
+    private ConcurrencyLimitedDataSource dataSource(int maxConcurrency, Duration maxWait)
+    {
+        return new ConcurrencyLimitedDataSource(new NoopDataSource(), maxConcurrency, maxWait, registry);
+    }
+
+    private double gauge(String name)
+    {
+        return registry.get(name).gauge().value();
+    }
+
+    @Test
+    public void waitForAPermitIsTimed()
+            throws Exception
+    {
+        ConcurrencyLimitedDataSource dataSource = dataSource(1, Duration.ofSeconds(10));
+        Connection held = dataSource.getConnection();
+
+        assertEquals(1, gauge("idm.jdbc.permit.in-use"));
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                acquired.countDown();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waiter.start();
+
+        while (dataSource.waiting() == 0)
+            Thread.sleep(1);
+
+        assertEquals(1, gauge("idm.jdbc.permit.waiting"));
+
+        Thread.sleep(50);
+        held.close();
+
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        waiter.join();
+
+        assertEquals(2, registry.get("idm.jdbc.permit.wait").tag("result", "acquired").timer().count());
+        assertTrue(registry.get("idm.jdbc.permit.wait").tag("result", "acquired").timer()
+                           .totalTime(TimeUnit.MILLISECONDS) >= 50);
+        assertEquals(0, gauge("idm.jdbc.permit.waiting"));
+        assertEquals(0, gauge("idm.jdbc.permit.in-use"));
+    }
+
+    @Test
+    public void timedOutWaitIsTimedSeparately()
+            throws Exception
+    {
+        ConcurrencyLimitedDataSource dataSource = dataSource(1, Duration.ofMillis(20));
+
+        try (Connection held = dataSource.getConnection()) {
+            assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+        }
+
+        assertEquals(1, registry.get("idm.jdbc.permit.wait").tag("result", "timeout").timer().count());
+        assertEquals(1, registry.get("idm.jdbc.permit.wait").tag("result", "acquired").timer().count());
+        assertEquals(0, gauge("idm.jdbc.permit.in-use"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstancePoolTest
+{
+    private final AtomicInteger created = new AtomicInteger();
+
+    private InstancePool<Object> pool(int maxIdle)
+    {
+        return new InstancePool<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        }, maxIdle);
+    }
+
+    @Test
+    public void releasedInstanceIsReused()
+    {
+        InstancePool<Object> pool = pool(2);
+
+        Object first = pool.acquire();
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void instancesInUseAreNeverShared()
+    {
+        InstancePool<Object> pool = pool(2);
+
+        assertNotSame(pool.acquire(), pool.acquire());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void idleInstancesAreBounded()
+    {
+        InstancePool<Object> pool = pool(2);
+        List<Object> inUse = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++)
+            inUse.add(pool.acquire());
+
+        inUse.forEach(pool::release);
+
+        assertEquals(2, pool.idleCount());
+    }
+
+    @Test
+    public void shortLivedThreadsShareInstances()
+            throws Exception
+    {
+        InstancePool<Object> pool = pool(4);
+        // a new thread per task, like virtual threads per request
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            futures.add(executor.submit(() -> {
+                Object instance = pool.acquire();
+                pool.release(instance);
+            }));
+        }
+
+        for (Future<?> future : futures)
+            future.get();
+
+        executor.shutdown();
+
+        // a ThreadLocal would have built one per thread
+        assertTrue(created.get() < 2000 / 10, "created " + created.get());
+        assertTrue(pool.idleCount() <= 4);
+    }
+}
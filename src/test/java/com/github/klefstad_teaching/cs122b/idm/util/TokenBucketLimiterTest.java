@@ -0,0 +1,156 @@
+package com.github.klefstad_teaching.cs122b.idm.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketLimiterTest
+{
+    @Test
+    public void burstIsAllowedThenLimited()
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(3, 1, 100, 60_000);
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+
+        long retryAfterMillis = limiter.tryAcquire("10.0.0.1");
+
+        // one permit per second
+        assertTrue(retryAfterMillis > 0 && retryAfterMillis <= 1000, "retry after " + retryAfterMillis);
+    }
+
+    @Test
+    public void bucketRefillsAtTheConfiguredRate()
+            throws Exception
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 10, 100, 60_000);
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+
+        // a permit every 100ms
+        Thread.sleep(150);
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+    }
+
+    @Test
+    public void refillNeverExceedsTheBurst()
+            throws Exception
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(2, 100, 100, 60_000);
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        Thread.sleep(200);
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+    }
+
+    @Test
+    public void keysHaveTheirOwnBuckets()
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 0.001, 100, 60_000);
+
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+        assertEquals(0, limiter.tryAcquire("10.0.0.2"));
+    }
+
+    @Test
+    public void zeroBurstDisablesTheLimiter()
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(0, 0, 100, 60_000);
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    public void invalidSettingsAreRejected()
+    {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new TokenBucketLimiter(TokenBucketLimiter.MAX_BURST + 1, 1, 100, 60_000));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketLimiter(1, 0, 100, 60_000));
+    }
+
+    @Test
+    public void timingWheelDropsIdleKeys()
+            throws Exception
+    {
+        // slots of 10ms, a key is dropped after about 150ms without requests
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 1, 100, 150);
+
+        for (int i = 0; i < 10; i++)
+            limiter.tryAcquire("10.0.0." + i);
+
+        assertEquals(10, limiter.size());
+
+        Thread.sleep(400);
+        // the wheel is advanced by requests
+        limiter.tryAcquire("10.0.1.1");
+
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    public void timingWheelKeepsKeysInUse()
+            throws Exception
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 0.001, 100, 300);
+
+        limiter.tryAcquire("10.0.0.1");
+        limiter.tryAcquire("10.0.0.2");
+
+        for (int i = 0; i < 8; i++) {
+            Thread.sleep(60);
+            limiter.tryAcquire("10.0.0.1");
+        }
+
+        assertEquals(1, limiter.size());
+        // still drained, the bucket was not dropped and recreated full
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+    }
+
+    @Test
+    public void newKeysGetTheirOwnBucketWhenFull()
+    {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 0.001, 10, 60_000);
+
+        // a flood of distinct keys fills the table
+        for (int i = 0; i < 1000; i++)
+            limiter.tryAcquire("flood-" + i);
+
+        assertTrue(limiter.size() <= 10, "size " + limiter.size());
+
+        // clients arriving meanwhile do not share one drained bucket
+        for (int i = 0; i < 10; i++)
+            assertEquals(0, limiter.tryAcquire("client-" + i));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyIsEvictedWhenFull()
+            throws Exception
+    {
+        // slots of 100ms
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 0.001, 2, 1500);
+
+        limiter.tryAcquire("old");
+        Thread.sleep(150);
+        limiter.tryAcquire("recent");
+
+        limiter.tryAcquire("new");
+
+        assertEquals(2, limiter.size());
+        // recent kept its drained bucket, old was the one dropped
+        assertTrue(limiter.tryAcquire("recent") > 0);
+        assertEquals(0, limiter.tryAcquire("old"));
+    }
+}
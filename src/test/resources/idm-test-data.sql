@@ -42,9 +42,9 @@ SET @premium_role_id = (SELECT id
                         FROM idm.role
                         WHERE name = 'Premium');
 
-INSERT INTO idm.refresh_token (token, user_id, token_status_id, expire_time, max_life_time)
-VALUES ('c46fc3c2-9791-44d6-a86e-2922ad655284', @admin_id, 2, NOW(), NOW()),
-       ('399cd90d-e715-484a-bb4d-a8ff35506ef9', @admin_id, 3, NOW(), NOW());
+INSERT INTO idm.refresh_token (token_hash, user_id, token_status_id, expire_time, max_life_time)
+VALUES (UNHEX(SHA2('c46fc3c2-9791-44d6-a86e-2922ad655284', 256)), @admin_id, 2, NOW(), NOW()),
+       (UNHEX(SHA2('399cd90d-e715-484a-bb4d-a8ff35506ef9', 256)), @admin_id, 3, NOW(), NOW());
 
 INSERT INTO idm.user_role (user_id, role_id)
 VALUES (@admin_id, @admin_role_id),